@@ -0,0 +1,64 @@
+package com.miro.widget.benchmark;
+
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Multi-select "bring to front" of {@code batchSize} widgets on a dense board:
+ * one batch against the same number of single updates, each of them hitting an occupied z-index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+    @Param({"locking", "snapshot"})
+    private String mode;
+
+    @Param({"10000"})
+    private int boardSize;
+
+    @Param({"10", "100", "500"})
+    private int batchSize;
+
+    private ShardedWidgetRepository repository;
+    private WidgetStore store;
+    private List<WidgetOperation> operations;
+
+    @Setup
+    public void setUp() {
+        repository = BenchmarkData.repository(mode);
+        store = BenchmarkData.denseBoard(repository, boardSize);
+        operations = BenchmarkData.ids(store).stream()
+                .limit(batchSize)
+                .map(id -> new WidgetOperation(WidgetOperation.Type.UPDATE, id, BenchmarkData.generateWidget(0)))
+                .collect(Collectors.toList());
+    }
+
+    @TearDown
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Benchmark
+    public void singleCalls(Blackhole blackhole) {
+        for (WidgetOperation operation : operations) {
+            blackhole.consume(store.updateWidget(operation.getWidgetId(), operation.getWidget()));
+        }
+    }
+
+    @Benchmark
+    public List<WidgetOperationResult> batch() {
+        return store.applyBatch(operations);
+    }
+}
@@ -0,0 +1,53 @@
+package com.miro.widget.benchmark;
+
+import com.miro.widget.model.Widget;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Boards shared by the benchmarks. Ids come from {@link ThreadLocalRandom}: {@link UUID#randomUUID()} would measure
+ * the secure random generator instead of the repository.
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * Creates a repository of the given mode, to be closed by the benchmark: the pipelined mode starts writer threads.
+     */
+    static ShardedWidgetRepository repository(String mode) {
+        return new ShardedWidgetRepository(mode, Duration.ZERO);
+    }
+
+    /**
+     * Fills the default board of the repository with widgets at z-indexes 0..size-1, a single contiguous run.
+     */
+    static WidgetStore denseBoard(ShardedWidgetRepository repository, int size) {
+        WidgetStore store = repository.getBoard(null);
+        for (int i = 0; i < size; i++) {
+            store.addWidget(generateWidget(i));
+        }
+        return store;
+    }
+
+    static List<String> ids(WidgetStore store) {
+        return store.getAllWidgets().stream().map(widget -> widget.getId().toString()).collect(Collectors.toList());
+    }
+
+    static String randomId(List<String> ids) {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    static Widget generateWidget(Integer zIndex) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new Widget(new UUID(random.nextLong(), random.nextLong()), random.nextInt(10_000), random.nextInt(10_000),
+                zIndex, 10, 10, LocalDateTime.now());
+    }
+}
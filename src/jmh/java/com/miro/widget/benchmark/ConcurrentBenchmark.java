@@ -0,0 +1,95 @@
+package com.miro.widget.benchmark;
+
+import com.miro.widget.model.Widget;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readers of single widgets racing with writers moving widgets around the board, at several read/write ratios.
+ * Thread counts of a group can be changed with {@code -tg}, e.g. {@code -tg 15,1} for 15 readers and one writer.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+    @Param({"locking", "snapshot", "pipelined"})
+    private String mode;
+
+    @Param({"10000"})
+    private int boardSize;
+
+    private ShardedWidgetRepository repository;
+    private WidgetStore store;
+    private List<String> ids;
+
+    @Setup
+    public void setUp() {
+        repository = BenchmarkData.repository(mode);
+        store = BenchmarkData.denseBoard(repository, boardSize);
+        ids = BenchmarkData.ids(store);
+    }
+
+    @TearDown
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(7)
+    public Widget readMostlyGet() {
+        return get();
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public Widget readMostlyUpdate() {
+        return update();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(4)
+    public Widget balancedGet() {
+        return get();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(4)
+    public Widget balancedUpdate() {
+        return update();
+    }
+
+    @Benchmark
+    @Group("writeMostly")
+    @GroupThreads(1)
+    public Widget writeMostlyGet() {
+        return get();
+    }
+
+    @Benchmark
+    @Group("writeMostly")
+    @GroupThreads(7)
+    public Widget writeMostlyUpdate() {
+        return update();
+    }
+
+    private Widget get() {
+        return store.getWidget(BenchmarkData.randomId(ids));
+    }
+
+    private Widget update() {
+        int zIndex = ThreadLocalRandom.current().nextInt(boardSize);
+        return store.updateWidget(BenchmarkData.randomId(ids), BenchmarkData.generateWidget(zIndex));
+    }
+}
@@ -0,0 +1,38 @@
+package com.miro.widget.benchmark;
+
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Prints retained heap per widget for every repository mode:
+ * mvn -P benchmark test-compile exec:exec@footprint [-Dfootprint.widgets=1000000]
+ */
+public class FootprintReport {
+    private static final String[] MODES = {"locking", "snapshot", "columnar"};
+
+    public static void main(String[] args) {
+        int widgets = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        for (String mode : MODES) {
+            long before = usedHeap(memory);
+            ShardedWidgetRepository repository = BenchmarkData.repository(mode);
+            WidgetStore store = BenchmarkData.denseBoard(repository, widgets);
+            long after = usedHeap(memory);
+
+            System.out.printf("%-10s %,d widgets %,8.1f bytes per widget%n",
+                    mode, store.countWidgets(), (double) (after - before) / widgets);
+            repository.close();
+        }
+    }
+
+    private static long usedHeap(MemoryMXBean memory) {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
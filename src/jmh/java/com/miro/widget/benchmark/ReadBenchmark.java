@@ -0,0 +1,70 @@
+package com.miro.widget.benchmark;
+
+import com.miro.widget.dto.PagedWidgetResponseDTO;
+import com.miro.widget.model.Widget;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import com.miro.widget.util.PageUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full listing and paging of a board. A page in the middle of the board is read both from a full listing,
+ * as the controller used to do, and straight from the store. Hit-testing looks up widgets at a random point.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark {
+    private static final int LIMIT = 100;
+
+    @Param({"locking", "snapshot"})
+    private String mode;
+
+    @Param({"1000", "100000", "1000000"})
+    private int boardSize;
+
+    private ShardedWidgetRepository repository;
+    private WidgetStore store;
+    private int page;
+
+    @Setup
+    public void setUp() {
+        repository = BenchmarkData.repository(mode);
+        store = BenchmarkData.denseBoard(repository, boardSize);
+        page = boardSize / LIMIT / 2 + 1;
+    }
+
+    @TearDown
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Benchmark
+    public Collection<Widget> getAllWidgets() {
+        return store.getAllWidgets();
+    }
+
+    @Benchmark
+    public PagedWidgetResponseDTO pageFromAllWidgets() {
+        return PageUtil.getPagedResponse(page, LIMIT, store.getAllWidgets());
+    }
+
+    @Benchmark
+    public PagedWidgetResponseDTO pageFromStore() {
+        return PageUtil.getPagedResponse(page, LIMIT, store);
+    }
+
+    @Benchmark
+    public List<Widget> widgetsAtPoint() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return store.getWidgetsAt(random.nextInt(10_000), random.nextInt(10_000));
+    }
+}
@@ -0,0 +1,59 @@
+package com.miro.widget.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.miro.widget.dto.PagedWidgetResponseDTO;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.util.PageUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of a full page of widgets in every supported wire format.
+ * The size of the encoded page per widget is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    private static final int LIMIT = 500;
+
+    @Param({"json", "cbor", "smile"})
+    private String format;
+
+    private ObjectMapper mapper;
+    private PagedWidgetResponseDTO page;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        switch (format) {
+            case "json":
+                mapper = new ObjectMapper();
+                break;
+            case "cbor":
+                mapper = new CBORMapper();
+                break;
+            case "smile":
+                mapper = new SmileMapper();
+                break;
+            default:
+                throw new IllegalArgumentException(format);
+        }
+        ShardedWidgetRepository repository = BenchmarkData.repository("locking");
+        page = PageUtil.getPagedResponse(1, LIMIT, BenchmarkData.denseBoard(repository, LIMIT));
+        repository.close();
+
+        System.out.printf("%n%s: %.1f bytes per widget%n", format, (double) serializePage().length / LIMIT);
+    }
+
+    @Benchmark
+    public byte[] serializePage() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(page);
+    }
+}
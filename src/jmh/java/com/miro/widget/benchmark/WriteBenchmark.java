@@ -0,0 +1,61 @@
+package com.miro.widget.benchmark;
+
+import com.miro.widget.model.Widget;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded writes to a dense board. Adding at the bottom of the board is the worst case for shifting:
+ * the whole board is one contiguous run above the inserted widget. The board is rebuilt for every iteration,
+ * so it grows only by the widgets added during one iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+    @Param({"locking", "snapshot", "pipelined"})
+    private String mode;
+
+    @Param({"1000", "100000"})
+    private int boardSize;
+
+    private ShardedWidgetRepository repository;
+    private WidgetStore store;
+    private List<String> ids;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        repository = BenchmarkData.repository(mode);
+        store = BenchmarkData.denseBoard(repository, boardSize);
+        ids = BenchmarkData.ids(store);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Benchmark
+    public Widget addOnTop() {
+        return store.addWidget(BenchmarkData.generateWidget(null));
+    }
+
+    @Benchmark
+    public Widget addWithShift() {
+        return store.addWidget(BenchmarkData.generateWidget(0));
+    }
+
+    @Benchmark
+    public Widget updateWidget() {
+        int zIndex = ThreadLocalRandom.current().nextInt(boardSize);
+        return store.updateWidget(BenchmarkData.randomId(ids), BenchmarkData.generateWidget(zIndex));
+    }
+}
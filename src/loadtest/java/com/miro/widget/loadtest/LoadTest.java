@@ -0,0 +1,253 @@
+package com.miro.widget.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.widget.WidgetApplication;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load test of the whole HTTP stack:
+ * mvn -P loadtest test-compile exec:exec [-Dloadtest.workloads=read-heavy,z-collision] [-Dloadtest.rate=1000]
+ * [-Dloadtest.duration=30] [-Dloadtest.mode=snapshot] [-Dloadtest.baseline=target/loadtest/report.json]
+ * <p>
+ * The application is started in this JVM on a random port. Requests of a workload are sent at a fixed rate no matter
+ * how fast the previous ones are answered, and the latency of a request is counted from the moment it was due, not
+ * from the moment it was sent: a stall of the server shows up in the latency of every request it delayed, instead of
+ * silently lowering the rate (coordinated omission). Latencies are kept in HdrHistograms; the report with their
+ * percentiles and a .hgrm distribution per workload is written to {@code loadtest.output}. With a baseline report
+ * the percentiles are printed next to the baseline ones.
+ */
+public class LoadTest {
+    private static final int SEED_BATCH = 1_000;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> applicationArgs = new ArrayList<>(Arrays.asList(
+                "--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=WARN"));
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                applicationArgs.add(arg);
+            } else if (arg.contains("=")) {
+                options.put(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        applicationArgs.add("--widget.repository.mode=" + options.getOrDefault("mode", "locking"));
+
+        ConfigurableApplicationContext application =
+                SpringApplication.run(WidgetApplication.class, applicationArgs.toArray(new String[0]));
+        try {
+            int port = ((WebServerApplicationContext) application).getWebServer().getPort();
+            new LoadTest().run(port, options);
+        } finally {
+            application.close();
+        }
+        System.exit(0);
+    }
+
+    private void run(int port, Map<String, String> options) throws Exception {
+        int rate = Integer.parseInt(options.getOrDefault("rate", "500"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int widgets = Integer.parseInt(options.getOrDefault("widgets", "10000"));
+        String workloads = options.getOrDefault("workloads", "all");
+        Path output = Paths.get(options.getOrDefault("output", "target/loadtest"));
+        Files.createDirectories(output);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("mode", options.getOrDefault("mode", "locking"));
+        report.put("rate", rate);
+        report.put("durationSeconds", duration);
+        report.put("widgets", widgets);
+        Map<String, Object> results = new LinkedHashMap<>();
+        report.put("workloads", results);
+
+        for (Workload workload : select(workloads)) {
+            String baseUri = String.format("http://localhost:%d/api/boards/%s/widgets", port, workload.getName());
+            List<String> ids = seed(baseUri, widgets);
+
+            System.out.printf("%-12s warming up for %d s%n", workload.getName(), warmup);
+            measure(workload, baseUri, ids, rate, warmup);
+            System.out.printf("%-12s running at %d requests/s for %d s%n", workload.getName(), rate, duration);
+            Result result = measure(workload, baseUri, ids, rate, duration);
+
+            results.put(workload.getName(), result.toReport());
+            try (PrintStream distribution = new PrintStream(output.resolve(workload.getName() + ".hgrm").toFile())) {
+                // Percentile distribution in milliseconds, the format of the HdrHistogram plotter
+                result.latency.outputPercentileDistribution(distribution, 1_000_000.0);
+            }
+        }
+
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(output.resolve("report.json").toFile(), report);
+        print(results, options.get("baseline"));
+        System.out.printf("Report written to %s%n", output.resolve("report.json"));
+    }
+
+    /**
+     * Sends requests of the workload at the rate for the given number of seconds and waits for all answers.
+     */
+    private Result measure(Workload workload, String baseUri, List<String> ids, int rate, int seconds) {
+        Histogram latency = new ConcurrentHistogram(3);
+        LongAdder errors = new LongAdder();
+        AtomicInteger inFlight = new AtomicInteger();
+        Random random = new Random(workload.ordinal());
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+        long requests = 0;
+        for (long due = start; due < end; due = start + ++requests * interval) {
+            long delay = due - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+
+            long dueAt = due;
+            inFlight.incrementAndGet();
+            client.sendAsync(workload.next(random, baseUri, ids), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        latency.recordValue(System.nanoTime() - dueAt);
+                        if (failure != null || response.statusCode() >= 400) {
+                            errors.increment();
+                        }
+                        inFlight.decrementAndGet();
+                    });
+        }
+
+        long drainStart = System.nanoTime();
+        while (inFlight.get() > 0 && System.nanoTime() - drainStart < DRAIN_TIMEOUT_NANOS) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        return new Result(latency, errors.sum(), inFlight.get(), requests, System.nanoTime() - start);
+    }
+
+    /**
+     * Fills the board of the workload through batches, the widgets are stacked in the order of creation.
+     */
+    private List<String> seed(String baseUri, int widgets) throws IOException, InterruptedException {
+        Random random = new Random(widgets);
+        List<String> ids = new ArrayList<>(widgets);
+        while (ids.size() < widgets) {
+            StringJoiner operations = new StringJoiner(",", "{\"operations\":[", "]}");
+            for (int i = 0; i < Math.min(SEED_BATCH, widgets - ids.size()); i++) {
+                operations.add("{\"type\":\"CREATE\",\"widget\":" + Workload.widget(random, null) + "}");
+            }
+
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUri + "/batch"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(operations.toString()))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException(String.format("Seeding failed with %d: %s",
+                        response.statusCode(), response.body()));
+            }
+            for (JsonNode result : objectMapper.readTree(response.body()).get("results")) {
+                ids.add(result.get("widget").get("id").asText());
+            }
+        }
+        return ids;
+    }
+
+    private void print(Map<String, Object> results, String baselinePath) throws IOException {
+        JsonNode baseline = baselinePath == null || baselinePath.isBlank()
+                ? null : objectMapper.readTree(Paths.get(baselinePath).toFile()).get("workloads");
+
+        System.out.printf("%n%-12s %10s %8s %10s %10s %10s %10s %10s%n",
+                "workload", "requests", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        results.forEach((name, value) -> {
+            Map<?, ?> result = (Map<?, ?>) value;
+            Map<?, ?> latency = (Map<?, ?>) result.get("latencyMillis");
+            System.out.printf("%-12s %10d %8d %10.2f %10.2f %10.2f %10.2f %10.2f%n", name,
+                    result.get("requests"), result.get("errors"), latency.get("p50"), latency.get("p90"),
+                    latency.get("p99"), latency.get("p99.9"), latency.get("max"));
+
+            JsonNode previous = baseline == null ? null : baseline.get(name);
+            if (previous != null) {
+                JsonNode previousLatency = previous.get("latencyMillis");
+                System.out.printf("%-12s %10d %8d %10s %10s %10s %10s %10s%n", "  baseline",
+                        previous.get("requests").asLong(), previous.get("errors").asLong(),
+                        change(latency, previousLatency, "p50"), change(latency, previousLatency, "p90"),
+                        change(latency, previousLatency, "p99"), change(latency, previousLatency, "p99.9"),
+                        change(latency, previousLatency, "max"));
+            }
+        });
+    }
+
+    /**
+     * Change of the percentile against the baseline, positive is slower.
+     */
+    private static String change(Map<?, ?> latency, JsonNode baseline, String percentile) {
+        double previous = baseline.get(percentile).asDouble();
+        double current = (Double) latency.get(percentile);
+        return previous == 0 ? "n/a" : String.format("%+.1f%%", (current - previous) / previous * 100);
+    }
+
+    private static List<Workload> select(String workloads) {
+        if (workloads.equals("all")) {
+            return Arrays.asList(Workload.values());
+        }
+
+        List<Workload> selected = new ArrayList<>();
+        for (String name : workloads.split(",")) {
+            selected.add(Workload.byName(name.trim()));
+        }
+        return selected;
+    }
+
+    private static final class Result {
+        private final Histogram latency;
+        private final long errors;
+        private final long unanswered;
+        private final long requests;
+        private final long elapsedNanos;
+
+        private Result(Histogram latency, long errors, long unanswered, long requests, long elapsedNanos) {
+            this.latency = latency;
+            this.errors = errors;
+            this.unanswered = unanswered;
+            this.requests = requests;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        private Map<String, Object> toReport() {
+            Map<String, Object> latencyMillis = new LinkedHashMap<>();
+            for (double percentile : PERCENTILES) {
+                latencyMillis.put(String.format(Locale.ROOT, "p%s", percentile).replace(".0", ""),
+                        latency.getValueAtPercentile(percentile) / 1e6);
+            }
+            latencyMillis.put("max", latency.getMaxValue() / 1e6);
+            latencyMillis.put("mean", latency.getMean() / 1e6);
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("requests", requests);
+            report.put("errors", errors);
+            report.put("unanswered", unanswered);
+            report.put("throughput", latency.getTotalCount() / (elapsedNanos / 1e9));
+            report.put("latencyMillis", latencyMillis);
+            return report;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.miro.widget.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Request mixes of the load test. Every workload runs against a board of its own seeded with the same widgets,
+ * so the boards grown by write-heavy workloads don't slow the others down.
+ */
+enum Workload {
+    /**
+     * Single widget reads with occasional moves of a widget, as clients viewing a board.
+     */
+    READ_HEAVY("read-heavy") {
+        @Override
+        HttpRequest next(Random random, String baseUri, List<String> ids) {
+            String id = ids.get(random.nextInt(ids.size()));
+            return random.nextInt(10) < 9 ? get(baseUri + "/" + id) : patch(baseUri + "/" + id, random);
+        }
+    },
+    /**
+     * Creates and full updates with few reads, as clients drawing on a board.
+     */
+    WRITE_HEAVY("write-heavy") {
+        @Override
+        HttpRequest next(Random random, String baseUri, List<String> ids) {
+            int operation = random.nextInt(10);
+            if (operation < 4) {
+                return post(baseUri, widget(random, null));
+            }
+            String id = ids.get(random.nextInt(ids.size()));
+            return operation < 7 ? put(baseUri + "/" + id, widget(random, null)) : get(baseUri + "/" + id);
+        }
+    },
+    /**
+     * Creates into a handful of z-indexes at the bottom of the board, every one of them shifts the widgets above.
+     */
+    Z_COLLISION("z-collision") {
+        @Override
+        HttpRequest next(Random random, String baseUri, List<String> ids) {
+            return post(baseUri, widget(random, random.nextInt(16)));
+        }
+    },
+    /**
+     * Offset pages spread over the whole board, most of them far from its start.
+     */
+    DEEP_PAGING("deep-paging") {
+        @Override
+        HttpRequest next(Random random, String baseUri, List<String> ids) {
+            int pages = Math.max(1, ids.size() / PAGE_SIZE);
+            return get(String.format("%s?page=%d&limit=%d", baseUri, random.nextInt(pages) + 1, PAGE_SIZE));
+        }
+    };
+
+    private static final int PAGE_SIZE = 50;
+    private static final int BOARD_SIZE = 10_000;
+
+    private final String name;
+
+    Workload(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the next request of the mix, {@code baseUri} is the widgets resource of the board.
+     */
+    abstract HttpRequest next(Random random, String baseUri, List<String> ids);
+
+    static Workload byName(String name) {
+        for (Workload workload : values()) {
+            if (workload.name.equals(name)) {
+                return workload;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown workload %s", name));
+    }
+
+    static String widget(Random random, Integer zIndex) {
+        return String.format("{\"centerX\":%d,\"centerY\":%d,\"zIndex\":%s,\"height\":%d,\"width\":%d}",
+                random.nextInt(BOARD_SIZE), random.nextInt(BOARD_SIZE), zIndex,
+                random.nextInt(100) + 1, random.nextInt(100) + 1);
+    }
+
+    private static HttpRequest get(String uri) {
+        return HttpRequest.newBuilder(URI.create(uri)).GET().build();
+    }
+
+    private static HttpRequest post(String uri, String body) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static HttpRequest put(String uri, String body) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static HttpRequest patch(String uri, Random random) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .header("Content-Type", "application/json")
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(String.format("{\"centerX\":%d,\"centerY\":%d}",
+                        random.nextInt(BOARD_SIZE), random.nextInt(BOARD_SIZE))))
+                .build();
+    }
+}
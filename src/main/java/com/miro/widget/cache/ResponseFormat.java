@@ -0,0 +1,58 @@
+package com.miro.widget.cache;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static com.miro.widget.util.ExportUtil.APPLICATION_SMILE_VALUE;
+
+/**
+ * Formats a widget response can be encoded in, in the order Spring MVC prefers them when any is acceptable.
+ */
+public enum ResponseFormat {
+    JSON(MediaType.APPLICATION_JSON, JsonFactory::new),
+    CBOR(MediaType.APPLICATION_CBOR, CBORFactory::new),
+    SMILE(MediaType.parseMediaType(APPLICATION_SMILE_VALUE), SmileFactory::new);
+
+    private final MediaType mediaType;
+    private final Supplier<JsonFactory> factory;
+
+    ResponseFormat(MediaType mediaType, Supplier<JsonFactory> factory) {
+        this.mediaType = mediaType;
+        this.factory = factory;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    JsonFactory createFactory() {
+        return factory.get();
+    }
+
+    /**
+     * Picks the format for the Accept header the way Spring MVC does: the most specific acceptable type wins,
+     * a missing header accepts anything.
+     */
+    public static ResponseFormat negotiate(String accept) throws HttpMediaTypeNotAcceptableException {
+        List<MediaType> acceptable = accept == null ? List.of(MediaType.ALL) : MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(acceptable);
+        for (MediaType type : acceptable) {
+            for (ResponseFormat format : values()) {
+                if (type.getQualityValue() > 0 && type.isCompatibleWith(format.mediaType)) {
+                    return format;
+                }
+            }
+        }
+
+        throw new HttpMediaTypeNotAcceptableException(
+                Arrays.stream(values()).map(ResponseFormat::getMediaType).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,223 @@
+package com.miro.widget.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.miro.widget.dto.WidgetResponseDTO;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetChange;
+import com.miro.widget.model.WidgetRevision;
+import com.miro.widget.repository.ChangeFeed;
+import com.miro.widget.repository.WidgetStore;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.miro.widget.util.ETagUtil.widgetTag;
+
+/**
+ * Encoded responses of single widgets, so a hot widget is served without reading the store or running Jackson.
+ * Entries are keyed by board and widget id and carry the revision they were read at. They are invalidated by a
+ * listener of the board's change feed: a change drops the entry of its widget, a z-shift drops the entries whose
+ * z-index is in the shifted run, found through an index of the cached entries by z-index. A response read while
+ * the board changed is put and then taken back, so an entry never outlives the change which made it stale.
+ * Eviction is Caffeine's W-TinyLFU, bounded by {@code widget.cache.max-size}.
+ */
+@Component
+public class WidgetResponseCache {
+    private static final Comparator<Entry> BY_Z_INDEX =
+            Comparator.comparingInt((Entry entry) -> entry.zIndex).thenComparingLong(entry -> entry.serial);
+
+    private final Cache<Key, Entry> cache;
+    // Board state is dropped together with the change feed of a released board
+    private final Cache<ChangeFeed, BoardEntries> boards = Caffeine.newBuilder().weakKeys().build();
+    private final ObjectWriter[] writers = new ObjectWriter[ResponseFormat.values().length];
+    private final AtomicLong serials = new AtomicLong();
+
+    public WidgetResponseCache(@Value("${widget.cache.max-size:10000}") long maxSize, ObjectMapper objectMapper) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                // Removals are handled on the removing thread, the index must not keep entries the cache dropped
+                .executor(Runnable::run)
+                .removalListener((Key key, Entry entry, RemovalCause cause) -> {
+                    if (key != null && entry != null) {
+                        BoardEntries board = boards.getIfPresent(key.changeFeed);
+                        if (board != null) {
+                            board.byZIndex.remove(entry);
+                        }
+                    }
+                })
+                .build();
+        for (ResponseFormat format : ResponseFormat.values()) {
+            ObjectMapper mapper = format == ResponseFormat.JSON ? objectMapper : new ObjectMapper(format.createFactory());
+            writers[format.ordinal()] = mapper.writerFor(WidgetResponseDTO.class);
+        }
+    }
+
+    /**
+     * Returns the widget from the cache, reading it from the board on a miss.
+     */
+    public CachedWidget getWidget(WidgetStore board, String widgetId) {
+        ChangeFeed changeFeed = board.getChangeFeed();
+        Key key = new Key(changeFeed, UUID.fromString(widgetId));
+        Entry cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        BoardEntries entries = boards.get(changeFeed, this::register);
+        long boardVersion = changeFeed.getVersion();
+        // The widget is paired with its version only if it wasn't modified while being read
+        long version = changeFeed.getWidgetVersion(widgetId);
+        Widget widget = board.getWidget(widgetId);
+        if (version != changeFeed.getWidgetVersion(widgetId)) {
+            return new Entry(WidgetResponseDTO.fromWidget(widget), null, widget.getZIndex(), 0);
+        }
+
+        Entry entry = new Entry(WidgetResponseDTO.fromWidget(widget),
+                widgetTag(new WidgetRevision(version, widget.getZIndex())), widget.getZIndex(), serials.incrementAndGet());
+        if (boardVersion == changeFeed.getVersion()) {
+            // Indexed first, so a shift processed meanwhile finds the entry
+            entries.byZIndex.add(entry);
+            cache.put(key, entry);
+            if (boardVersion != changeFeed.getVersion()) {
+                cache.asMap().remove(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    public Cache<?, ?> getCache() {
+        return cache;
+    }
+
+    private BoardEntries register(ChangeFeed changeFeed) {
+        BoardEntries entries = new BoardEntries(changeFeed.getVersion());
+        changeFeed.addListener(() -> invalidate(changeFeed, entries));
+        return entries;
+    }
+
+    /**
+     * Runs on the writing thread after every commit of the board, drops entries touched by the new changes.
+     */
+    private void invalidate(ChangeFeed changeFeed, BoardEntries entries) {
+        synchronized (entries) {
+            Optional<List<WidgetChange>> changes = changeFeed.getChangesSince(entries.version);
+            if (changes.isEmpty()) {
+                // Fell behind the feed, nothing can be told apart
+                new ArrayList<>(entries.byZIndex).forEach(entry -> invalidate(changeFeed, entries, entry));
+                entries.version = changeFeed.getVersion();
+                return;
+            }
+
+            for (WidgetChange change : changes.get()) {
+                if (change.getType() == WidgetChange.Type.Z_SHIFT) {
+                    long last = (long) change.getFromZIndex() + change.getCount() - 1;
+                    NavigableSet<Entry> shifted = entries.byZIndex.subSet(
+                            probe(change.getFromZIndex(), Long.MIN_VALUE), true,
+                            probe((int) Math.min(last, Integer.MAX_VALUE), Long.MAX_VALUE), true);
+                    new ArrayList<>(shifted).forEach(entry -> invalidate(changeFeed, entries, entry));
+                } else {
+                    cache.invalidate(new Key(changeFeed, UUID.fromString(change.getWidgetId())));
+                }
+                entries.version = change.getVersion();
+            }
+        }
+    }
+
+    private void invalidate(ChangeFeed changeFeed, BoardEntries entries, Entry entry) {
+        cache.asMap().remove(new Key(changeFeed, entry.dto.getId()), entry);
+        // Taken out of the index even if the cache doesn't hold it, it may have been replaced
+        entries.byZIndex.remove(entry);
+    }
+
+    /**
+     * Bound of a range of the z-index index, sorts before or after all entries at the z-index.
+     */
+    private Entry probe(int zIndex, long serial) {
+        return new Entry(null, null, zIndex, serial);
+    }
+
+    /**
+     * Response of a widget with its tag, encoded lazily once per format.
+     */
+    public interface CachedWidget {
+
+        /**
+         * Entity tag of the revision, null if the widget was modified while being read.
+         */
+        String getTag();
+
+        byte[] encode(ResponseFormat format);
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static final class Key {
+        private final ChangeFeed changeFeed;
+        private final UUID widgetId;
+    }
+
+    private static final class BoardEntries {
+        private final NavigableSet<Entry> byZIndex = new ConcurrentSkipListSet<>(BY_Z_INDEX);
+        // Last change the entries were invalidated for
+        private long version;
+
+        private BoardEntries(long version) {
+            this.version = version;
+        }
+    }
+
+    private final class Entry implements CachedWidget {
+        private final WidgetResponseDTO dto;
+        private final String tag;
+        private final int zIndex;
+        private final long serial;
+        private final AtomicReferenceArray<byte[]> encoded = new AtomicReferenceArray<>(ResponseFormat.values().length);
+
+        private Entry(WidgetResponseDTO dto, String tag, int zIndex, long serial) {
+            this.dto = dto;
+            this.tag = tag;
+            this.zIndex = zIndex;
+            this.serial = serial;
+        }
+
+        @Override
+        public String getTag() {
+            return tag;
+        }
+
+        /**
+         * Concurrent first requests may both encode, they produce the same bytes.
+         */
+        @Override
+        public byte[] encode(ResponseFormat format) {
+            byte[] bytes = encoded.get(format.ordinal());
+            if (bytes == null) {
+                try {
+                    bytes = writers[format.ordinal()].writeValueAsBytes(dto);
+                } catch (JsonProcessingException e) {
+                    throw new UncheckedIOException(e);
+                }
+                encoded.set(format.ordinal(), bytes);
+            }
+            return bytes;
+        }
+    }
+}
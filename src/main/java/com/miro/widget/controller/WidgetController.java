@@ -1,51 +1,359 @@
 package com.miro.widget.controller;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.miro.widget.cache.ResponseFormat;
+import com.miro.widget.cache.WidgetResponseCache;
+import com.miro.widget.dto.BatchOperationDTO;
+import com.miro.widget.dto.BatchOperationResultDTO;
+import com.miro.widget.dto.BatchRequestDTO;
+import com.miro.widget.dto.BatchResponseDTO;
+import com.miro.widget.dto.CursorPagedWidgetResponseDTO;
+import com.miro.widget.dto.HitTestResponseDTO;
 import com.miro.widget.dto.PagedWidgetResponseDTO;
+import com.miro.widget.dto.WidgetDeltaDTO;
+import com.miro.widget.dto.WidgetPatchDTO;
 import com.miro.widget.dto.WidgetRequestDTO;
 import com.miro.widget.dto.WidgetResponseDTO;
-import com.miro.widget.repository.WidgetRepository;
+import com.miro.widget.error.BadRequestException;
+import com.miro.widget.feed.ChangeStreamService;
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+import com.miro.widget.patch.PatchCoalescer;
+import com.miro.widget.repository.ChangeFeed;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.miro.widget.dto.WidgetResponseDTO.fromWidget;
+import static com.miro.widget.util.ETagUtil.expectedRevision;
+import static com.miro.widget.util.ExportUtil.APPLICATION_NDJSON_VALUE;
+import static com.miro.widget.util.ExportUtil.APPLICATION_SMILE_VALUE;
+import static com.miro.widget.util.ExportUtil.exportJson;
+import static com.miro.widget.util.ExportUtil.exportNdjson;
+import static com.miro.widget.util.ETagUtil.listTag;
+import static com.miro.widget.util.ETagUtil.noneMatchFails;
+import static com.miro.widget.util.ETagUtil.widgetTag;
+import static com.miro.widget.util.PageUtil.getCursorResponse;
 import static com.miro.widget.util.PageUtil.getPagedResponse;
 
 
 @RestController
-@RequestMapping("/api/widgets")
+@RequestMapping({"/api/widgets", "/api/boards/{boardId}/widgets"})
 public class WidgetController {
 
-    private WidgetRepository widgetRepository;
+    private static final int MAX_HIT_TEST_POINTS = 100;
 
-    public WidgetController(WidgetRepository widgetRepository) {
+    private ShardedWidgetRepository widgetRepository;
+    private ChangeStreamService changeStreamService;
+    private PatchCoalescer patchCoalescer;
+    private WidgetResponseCache responseCache;
+    private JsonFactory jsonFactory;
+    private JsonFactory cborFactory = new CBORFactory();
+    private JsonFactory smileFactory = new SmileFactory();
+
+    public WidgetController(ShardedWidgetRepository widgetRepository, ChangeStreamService changeStreamService,
+                            PatchCoalescer patchCoalescer, WidgetResponseCache responseCache,
+                            ObjectMapper objectMapper) {
         this.widgetRepository = widgetRepository;
+        this.changeStreamService = changeStreamService;
+        this.patchCoalescer = patchCoalescer;
+        this.responseCache = responseCache;
+        this.jsonFactory = objectMapper.getFactory();
     }
 
     @PostMapping
-    public WidgetResponseDTO createWidget(@Valid @RequestBody WidgetRequestDTO widgetRequestDTO) {
-        return fromWidget(widgetRepository.addWidget(widgetRequestDTO.toWidget()));
+    public WidgetResponseDTO createWidget(@PathVariable(required = false) String boardId,
+                                          @Valid @RequestBody WidgetRequestDTO widgetRequestDTO) {
+        return fromWidget(widgetRepository.getBoard(boardId).addWidget(widgetRequestDTO.toWidget()));
+    }
+
+    /**
+     * Applies creates, updates and deletes at once. If any operation fails, nothing is applied and the response
+     * has status 400 with the failed operations marked in the results.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<BatchResponseDTO> applyBatch(@PathVariable(required = false) String boardId,
+                                                       @Valid @RequestBody BatchRequestDTO batchRequestDTO) {
+        List<WidgetOperationResult> results = widgetRepository.getBoard(boardId).applyBatch(
+                batchRequestDTO.getOperations().stream().map(BatchOperationDTO::toOperation).collect(Collectors.toList())
+        );
+        boolean applied = results.stream().allMatch(result -> result.getStatus() == WidgetOperationResult.Status.APPLIED);
+
+        return new ResponseEntity<>(
+                new BatchResponseDTO(applied, results.stream().map(BatchOperationResultDTO::fromResult).collect(Collectors.toList())),
+                applied ? HttpStatus.OK : HttpStatus.BAD_REQUEST
+        );
     }
 
+    /**
+     * With If-Match, the widget is updated only if it is still at the revision of the tag, otherwise the response has
+     * status 412.
+     */
     @PutMapping("/{id}")
-    public WidgetResponseDTO updateWidget(@PathVariable String id, @Valid @RequestBody WidgetRequestDTO widgetRequestDTO) {
-        return fromWidget(widgetRepository.updateWidget(id, widgetRequestDTO.toWidget()));
+    public WidgetResponseDTO updateWidget(@PathVariable(required = false) String boardId, @PathVariable String id,
+                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                          @Valid @RequestBody WidgetRequestDTO widgetRequestDTO) {
+        return fromWidget(widgetRepository.getBoard(boardId)
+                .updateWidget(id, widgetRequestDTO.toWidget(), expectedRevision(ifMatch, id)));
+    }
+
+    /**
+     * Changes only the fields present in the body, the widget keeps its z-index unless the body has one.
+     * Patches of a widget being dragged may be merged with each other, see {@link PatchCoalescer}; the request thread
+     * is released while a patch waits for the others.
+     */
+    @PatchMapping("/{id}")
+    public CompletableFuture<WidgetResponseDTO> patchWidget(@PathVariable(required = false) String boardId, @PathVariable String id,
+                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                         @Valid @RequestBody WidgetPatchDTO widgetPatchDTO) {
+        WidgetPatch patch = widgetPatchDTO.toPatch();
+        if (patch.isEmpty()) {
+            throw new BadRequestException("Patch should change at least one field");
+        }
+
+        return patchCoalescer.patch(widgetRepository.getBoard(boardId), id, patch, expectedRevision(ifMatch, id))
+                .thenApply(WidgetResponseDTO::fromWidget);
     }
 
+    /**
+     * The widget is tagged with its revision, If-None-Match with the current tag is answered with 304.
+     * The encoded response comes from the {@link WidgetResponseCache} and is written as is.
+     */
     @GetMapping("/{id}")
-    public WidgetResponseDTO getWidget(@PathVariable String id) {
-        return fromWidget(widgetRepository.getWidget(id));
+    public ResponseEntity<byte[]> getWidget(@PathVariable(required = false) String boardId,
+                                            @PathVariable String id,
+                                            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
+            throws HttpMediaTypeNotAcceptableException {
+        ResponseFormat format = ResponseFormat.negotiate(accept);
+        WidgetResponseCache.CachedWidget widget = responseCache.getWidget(widgetRepository.readBoard(boardId), id);
+        String tag = widget.getTag();
+        if (tag == null) {
+            return ResponseEntity.ok().contentType(format.getMediaType()).body(widget.encode(format));
+        }
+
+        if (noneMatchFails(ifNoneMatch, tag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build();
+        }
+        return ResponseEntity.ok().eTag(tag).contentType(format.getMediaType()).body(widget.encode(format));
+    }
+
+    /**
+     * Lists are tagged with the board version and their parameters, If-None-Match with the current tag is answered
+     * with 304 before the page is read. With {@code asOfVersion} the list is read from the board as it was at that
+     * version, so a client paging through it sees no widget move between pages; a version the board no longer keeps
+     * is answered with 410.
+     */
+    @GetMapping(params = {"page", "!sinceVersion"})
+    public ResponseEntity<PagedWidgetResponseDTO> getAllWidgets(@PathVariable(required = false) String boardId,
+                                             @RequestParam(value = "page") int page,
+                                             @RequestParam(value = "limit", required = false, defaultValue = "10") int size,
+                                             @RequestParam(value = "x1", required = false) Integer x1,
+                                             @RequestParam(value = "y1", required = false) Integer y1,
+                                             @RequestParam(value = "x2", required = false) Integer x2,
+                                             @RequestParam(value = "y2", required = false) Integer y2,
+                                             @RequestParam(value = "asOfVersion", required = false) Long asOfVersion,
+                                             @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        WidgetStore board = readAt(widgetRepository.readBoard(boardId), asOfVersion);
+        long version = asOfVersion == null ? board.getChangeFeed().getVersion() : asOfVersion;
+        String tag = listTag(version, "page=" + page, "limit=" + size, areaParameter(x1, y1, x2, y2));
+        if (noneMatchFails(ifNoneMatch, tag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build();
+        }
+
+        if (Stream.of(x1, y1, x2, y2).allMatch(Objects::isNull)) {
+            return tagged(board, asOfVersion, version, tag, getPagedResponse(page, size, board));
+        }
+
+        return tagged(board, asOfVersion, version, tag, getPagedResponse(page, size, board.getWidgetsInArea(toArea(x1, y1, x2, y2))));
+    }
+
+    @GetMapping(params = {"!page", "!sinceVersion"})
+    public ResponseEntity<CursorPagedWidgetResponseDTO> getWidgetsAfterCursor(@PathVariable(required = false) String boardId,
+                                                              @RequestParam(value = "cursor", required = false) Integer cursor,
+                                                              @RequestParam(value = "limit", required = false, defaultValue = "10") int size,
+                                                              @RequestParam(value = "x1", required = false) Integer x1,
+                                                              @RequestParam(value = "y1", required = false) Integer y1,
+                                                              @RequestParam(value = "x2", required = false) Integer x2,
+                                                              @RequestParam(value = "y2", required = false) Integer y2,
+                                                              @RequestParam(value = "asOfVersion", required = false) Long asOfVersion,
+                                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        WidgetStore board = readAt(widgetRepository.readBoard(boardId), asOfVersion);
+        long version = asOfVersion == null ? board.getChangeFeed().getVersion() : asOfVersion;
+        String tag = listTag(version, "cursor=" + cursor, "limit=" + size, areaParameter(x1, y1, x2, y2));
+        if (noneMatchFails(ifNoneMatch, tag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build();
+        }
+
+        if (Stream.of(x1, y1, x2, y2).allMatch(Objects::isNull)) {
+            return tagged(board, asOfVersion, version, tag, getCursorResponse(cursor, size, board));
+        }
+
+        return tagged(board, asOfVersion, version, tag, getCursorResponse(cursor, size, board.getWidgetsInArea(toArea(x1, y1, x2, y2))));
+    }
+
+    /**
+     * Returns widgets covering the point topmost first, {@code limit=1} gives the widget a click at the point hits.
+     */
+    @GetMapping(path = "/at", params = {"x", "y"})
+    public HitTestResponseDTO getWidgetsAt(@PathVariable(required = false) String boardId,
+                                           @RequestParam(value = "x") int x,
+                                           @RequestParam(value = "y") int y,
+                                           @RequestParam(value = "limit", required = false) Integer limit) {
+        return hitTest(widgetRepository.readBoard(boardId), x, y, limit);
+    }
+
+    /**
+     * Same as {@link #getWidgetsAt} for several points given as {@code point=x,y}, results follow the order of points.
+     */
+    @GetMapping(path = "/at", params = "point")
+    public List<HitTestResponseDTO> getWidgetsAtPoints(@PathVariable(required = false) String boardId,
+                                                       @RequestParam MultiValueMap<String, String> parameters,
+                                                       @RequestParam(value = "limit", required = false) Integer limit) {
+        // Read raw, a single point would be split at the comma if bound to a list
+        List<String> points = parameters.get("point");
+        if (points.size() > MAX_HIT_TEST_POINTS) {
+            throw new BadRequestException(String.format("Hit test accepts up to %d points", MAX_HIT_TEST_POINTS));
+        }
+
+        WidgetStore board = widgetRepository.readBoard(boardId);
+        return points.stream()
+                .map(WidgetController::toPoint)
+                .map(point -> hitTest(board, point[0], point[1], limit))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Streams every widget of the board in z-order as a JSON array, for exports too large to be paged through.
+     */
+    @GetMapping(path = "/export", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody exportWidgets(@PathVariable(required = false) String boardId) {
+        return exportJson(widgetRepository.readBoard(boardId), jsonFactory);
     }
 
-    @GetMapping
-    public PagedWidgetResponseDTO getAllWidgets(@RequestParam(value = "page") int page,
-                                             @RequestParam(value = "limit", required = false, defaultValue = "10") int size) {
-        return getPagedResponse(page, size, widgetRepository.getAllWidgets());
+    @GetMapping(path = "/export", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public StreamingResponseBody exportWidgetsAsCbor(@PathVariable(required = false) String boardId) {
+        return exportJson(widgetRepository.readBoard(boardId), cborFactory);
+    }
+
+    @GetMapping(path = "/export", produces = APPLICATION_SMILE_VALUE)
+    public StreamingResponseBody exportWidgetsAsSmile(@PathVariable(required = false) String boardId) {
+        return exportJson(widgetRepository.readBoard(boardId), smileFactory);
+    }
+
+    /**
+     * Same as {@link #exportWidgets} with one widget per line.
+     */
+    @GetMapping(path = "/export", produces = APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody exportWidgetsAsNdjson(@PathVariable(required = false) String boardId) {
+        return exportNdjson(widgetRepository.readBoard(boardId), jsonFactory);
+    }
+
+    /**
+     * Returns widgets changed and ids of widgets deleted after the version, {@code version} of the response is the one
+     * to ask from next time. If the version is too old to answer incrementally, the response is the whole board marked
+     * as {@code full}.
+     */
+    @GetMapping(params = "sinceVersion")
+    public WidgetDeltaDTO getWidgetsChangedSince(@PathVariable(required = false) String boardId,
+                                                 @RequestParam(value = "sinceVersion") long sinceVersion) {
+        return WidgetDeltaDTO.fromDelta(widgetRepository.readBoard(boardId).getWidgetsChangedSince(sinceVersion));
+    }
+
+    /**
+     * Streams changes of the board as Server-Sent Events with the board version as event id, so a reconnecting
+     * client resumes through the standard Last-Event-ID header. A {@code resync} event means the client fell too far
+     * behind and has to reload the board.
+     */
+    @GetMapping(path = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getChanges(@PathVariable(required = false) String boardId,
+                                 @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return changeStreamService.subscribe(widgetRepository.getBoard(boardId).getChangeFeed(), lastEventId);
     }
 
     @DeleteMapping("/{id}")
-    public void deleteWidget(@PathVariable String id) {
-        widgetRepository.deleteWidget(id);
+    public void deleteWidget(@PathVariable(required = false) String boardId, @PathVariable String id,
+                             @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        widgetRepository.getBoard(boardId).deleteWidget(id, expectedRevision(ifMatch, id));
+    }
+
+    /**
+     * Returns the board as it was at the version, the board itself when no version is asked for.
+     */
+    private static WidgetStore readAt(WidgetStore board, Long asOfVersion) {
+        return asOfVersion == null ? board : board.asOf(asOfVersion);
+    }
+
+    /**
+     * Tags the list read at the board version, unless the board changed while it was read. A list read at a past
+     * version never changes.
+     */
+    private static <T> ResponseEntity<T> tagged(WidgetStore board, Long asOfVersion, long version, String tag, T body) {
+        if (asOfVersion == null && board.getChangeFeed().getVersion() != version) {
+            return ResponseEntity.ok(body);
+        }
+        return ResponseEntity.ok().eTag(tag).body(body);
+    }
+
+    private static HitTestResponseDTO hitTest(WidgetStore board, int x, int y, Integer limit) {
+        if (limit != null && limit <= 0) {
+            throw new BadRequestException("Limit should be positive");
+        }
+
+        return new HitTestResponseDTO(x, y, board.getWidgetsAt(x, y).stream()
+                .limit(limit == null ? Long.MAX_VALUE : limit)
+                .map(WidgetResponseDTO::fromWidget)
+                .collect(Collectors.toList()));
+    }
+
+    private static int[] toPoint(String point) {
+        String[] coordinates = point.split(",");
+        try {
+            if (coordinates.length == 2) {
+                return new int[]{Integer.parseInt(coordinates[0].trim()), Integer.parseInt(coordinates[1].trim())};
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new BadRequestException(String.format("Point should be given as x,y: %s", point));
+    }
+
+    private static String areaParameter(Integer x1, Integer y1, Integer x2, Integer y2) {
+        return Stream.of(x1, y1, x2, y2).allMatch(Objects::isNull)
+                ? "area=all" : String.format("area=%s,%s,%s,%s", x1, y1, x2, y2);
+    }
+
+    private static Area toArea(Integer x1, Integer y1, Integer x2, Integer y2) {
+        if (Stream.of(x1, y1, x2, y2).anyMatch(Objects::isNull)) {
+            throw new BadRequestException("Area filter requires all of x1, y1, x2, y2");
+        }
+
+        if (x1 > x2 || y1 > y2) {
+            throw new BadRequestException("Area filter requires x1 <= x2 and y1 <= y2");
+        }
+
+        return new Area(x1, y1, x2, y2);
     }
 }
 
@@ -0,0 +1,52 @@
+package com.miro.widget.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.miro.widget.error.BadRequestException;
+import com.miro.widget.model.WidgetOperation;
+import lombok.Getter;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+@Getter
+public class BatchOperationDTO {
+    @NotNull(message = "type should not be null")
+    private WidgetOperation.Type type;
+    private String id;
+    @Valid
+    private WidgetRequestDTO widget;
+    @Valid
+    private WidgetPatchDTO patch;
+
+    @JsonCreator
+    public BatchOperationDTO(@JsonProperty("type") WidgetOperation.Type type,
+                             @JsonProperty("id") String id,
+                             @JsonProperty("widget") WidgetRequestDTO widget,
+                             @JsonProperty("patch") WidgetPatchDTO patch
+    ) {
+        this.type = type;
+        this.id = id;
+        this.widget = widget;
+        this.patch = patch;
+    }
+
+    public WidgetOperation toOperation() {
+        if (type != WidgetOperation.Type.CREATE && id == null) {
+            throw new BadRequestException(String.format("%s operation requires widget id", type));
+        }
+
+        if (type == WidgetOperation.Type.PATCH) {
+            if (patch == null || patch.toPatch().isEmpty()) {
+                throw new BadRequestException("PATCH operation requires patch changing at least one field");
+            }
+            return WidgetOperation.patch(id, patch.toPatch());
+        }
+
+        if (type != WidgetOperation.Type.DELETE && widget == null) {
+            throw new BadRequestException(String.format("%s operation requires widget", type));
+        }
+
+        return new WidgetOperation(type, id, widget == null ? null : widget.toWidget());
+    }
+}
@@ -0,0 +1,21 @@
+package com.miro.widget.dto;
+
+import com.miro.widget.model.WidgetOperationResult;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@AllArgsConstructor
+@Getter
+public class BatchOperationResultDTO {
+    private WidgetOperationResult.Status status;
+    private WidgetResponseDTO widget;
+    private String error;
+
+    public static BatchOperationResultDTO fromResult(WidgetOperationResult result) {
+        return new BatchOperationResultDTO(
+                result.getStatus(),
+                result.getWidget() == null ? null : WidgetResponseDTO.fromWidget(result.getWidget()),
+                result.getError()
+        );
+    }
+}
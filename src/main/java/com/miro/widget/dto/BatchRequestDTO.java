@@ -0,0 +1,23 @@
+package com.miro.widget.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@Getter
+public class BatchRequestDTO {
+    @NotEmpty(message = "operations should not be empty")
+    @Size(max = 1000, message = "Batch can't contain more than 1000 operations")
+    @Valid
+    private List<BatchOperationDTO> operations;
+
+    @JsonCreator
+    public BatchRequestDTO(@JsonProperty("operations") List<BatchOperationDTO> operations) {
+        this.operations = operations;
+    }
+}
@@ -0,0 +1,13 @@
+package com.miro.widget.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+@AllArgsConstructor
+@Getter
+public class BatchResponseDTO {
+    private boolean applied;
+    private List<BatchOperationResultDTO> results;
+}
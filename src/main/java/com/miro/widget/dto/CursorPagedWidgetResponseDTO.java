@@ -0,0 +1,13 @@
+package com.miro.widget.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collection;
+
+@AllArgsConstructor
+@Getter
+public class CursorPagedWidgetResponseDTO {
+    private Collection<WidgetResponseDTO> result;
+    private Integer nextCursor;
+}
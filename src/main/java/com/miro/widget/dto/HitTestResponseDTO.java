@@ -0,0 +1,14 @@
+package com.miro.widget.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collection;
+
+@AllArgsConstructor
+@Getter
+public class HitTestResponseDTO {
+    private int x;
+    private int y;
+    private Collection<WidgetResponseDTO> result;
+}
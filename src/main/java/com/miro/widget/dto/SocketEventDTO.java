@@ -0,0 +1,50 @@
+package com.miro.widget.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Message sent to a widget socket: an acknowledgement or a rejection of a mutation, changes of the board, the version
+ * the changes start from, or a request to reload the board.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SocketEventDTO {
+    public static final String ACK = "ack";
+    public static final String ERROR = "error";
+    public static final String CHANGES = "changes";
+    public static final String VERSION = "version";
+    public static final String RESYNC = "resync";
+
+    private String type;
+    private Long seq;
+    private Long version;
+    private WidgetResponseDTO widget;
+    private String error;
+    private List<WidgetChangeDTO> changes;
+
+    public static SocketEventDTO ack(long seq, long version, WidgetResponseDTO widget) {
+        return new SocketEventDTO(ACK, seq, version, widget, null, null);
+    }
+
+    public static SocketEventDTO error(Long seq, String error) {
+        return new SocketEventDTO(ERROR, seq, null, null, error, null);
+    }
+
+    public static SocketEventDTO changes(long version, List<WidgetChangeDTO> changes) {
+        return new SocketEventDTO(CHANGES, null, version, null, null, changes);
+    }
+
+    public static SocketEventDTO version(long version) {
+        return new SocketEventDTO(VERSION, null, version, null, null, null);
+    }
+
+    public static SocketEventDTO resync(long version) {
+        return new SocketEventDTO(RESYNC, null, version, null, null, null);
+    }
+}
@@ -0,0 +1,81 @@
+package com.miro.widget.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.miro.widget.error.BadRequestException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetPatch;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Mutation sent over a widget socket. Keys are one letter long, the messages are sent on every mouse move:
+ * {@code {"s":17,"op":"PATCH","id":"...","x":120,"y":40}}. The sequence number is chosen by the client and comes back
+ * in the acknowledgement.
+ */
+@Getter
+public class SocketMutationDTO {
+    private long seq;
+    private WidgetOperation.Type op;
+    private String id;
+    private Integer x;
+    private Integer y;
+    private Integer z;
+    private Integer width;
+    private Integer height;
+
+    @JsonCreator
+    public SocketMutationDTO(@JsonProperty("s") long seq,
+                             @JsonProperty("op") WidgetOperation.Type op,
+                             @JsonProperty("id") String id,
+                             @JsonProperty("x") Integer x,
+                             @JsonProperty("y") Integer y,
+                             @JsonProperty("z") Integer z,
+                             @JsonProperty("w") Integer width,
+                             @JsonProperty("h") Integer height
+    ) {
+        this.seq = seq;
+        this.op = op;
+        this.id = id;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Checks the fields the way the REST endpoints do and returns the operation.
+     */
+    public WidgetOperation toOperation() {
+        if (op == null) {
+            throw new BadRequestException("op should not be null");
+        }
+        if (op != WidgetOperation.Type.CREATE && id == null) {
+            throw new BadRequestException(String.format("%s operation requires widget id", op));
+        }
+        if (Stream.of(width, height).anyMatch(size -> size != null && size <= 0)) {
+            throw new BadRequestException("Width and height should be > 0");
+        }
+
+        switch (op) {
+            case DELETE:
+                return new WidgetOperation(op, id, null);
+            case PATCH:
+                WidgetPatch patch = new WidgetPatch(x, y, z, height, width);
+                if (patch.isEmpty()) {
+                    throw new BadRequestException("Patch should change at least one field");
+                }
+                return WidgetOperation.patch(id, patch);
+            default:
+                if (x == null || y == null) {
+                    throw new BadRequestException(String.format("%s operation requires x and y", op));
+                }
+                return new WidgetOperation(op, id, new Widget(UUID.randomUUID(), x, y, z, height, width, LocalDateTime.now()));
+        }
+    }
+}
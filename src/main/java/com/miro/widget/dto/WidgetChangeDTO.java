@@ -0,0 +1,29 @@
+package com.miro.widget.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.miro.widget.model.WidgetChange;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@AllArgsConstructor
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WidgetChangeDTO {
+    private long version;
+    private WidgetChange.Type type;
+    private String id;
+    private WidgetResponseDTO widget;
+    private Integer fromZIndex;
+    private Integer count;
+
+    public static WidgetChangeDTO fromChange(WidgetChange change) {
+        return new WidgetChangeDTO(
+                change.getVersion(),
+                change.getType(),
+                change.getWidgetId(),
+                change.getWidget() == null ? null : WidgetResponseDTO.fromWidget(change.getWidget()),
+                change.getFromZIndex(),
+                change.getCount()
+        );
+    }
+}
@@ -0,0 +1,26 @@
+package com.miro.widget.dto;
+
+import com.miro.widget.model.WidgetDelta;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+@AllArgsConstructor
+@Getter
+public class WidgetDeltaDTO {
+    private long version;
+    private boolean full;
+    private Collection<WidgetResponseDTO> result;
+    private Collection<String> deleted;
+
+    public static WidgetDeltaDTO fromDelta(WidgetDelta delta) {
+        return new WidgetDeltaDTO(
+                delta.getVersion(),
+                delta.isFull(),
+                delta.getWidgets().stream().map(WidgetResponseDTO::fromWidget).collect(Collectors.toList()),
+                delta.getDeletedIds()
+        );
+    }
+}
@@ -0,0 +1,37 @@
+package com.miro.widget.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.miro.widget.model.WidgetPatch;
+import lombok.Getter;
+
+import javax.validation.constraints.Positive;
+
+@Getter
+public class WidgetPatchDTO {
+    private Integer centerX;
+    private Integer centerY;
+    private Integer zIndex;
+    @Positive(message = "Height should be > 0")
+    private Integer height;
+    @Positive(message = "Width should be > 0")
+    private Integer width;
+
+    @JsonCreator
+    public WidgetPatchDTO(@JsonProperty("centerX") Integer centerX,
+                          @JsonProperty("centerY") Integer centerY,
+                          @JsonProperty("zIndex") Integer zIndex,
+                          @JsonProperty("height") Integer height,
+                          @JsonProperty("width") Integer width
+    ) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.zIndex = zIndex;
+        this.height = height;
+        this.width = width;
+    }
+
+    public WidgetPatch toPatch() {
+        return new WidgetPatch(centerX, centerY, zIndex, height, width);
+    }
+}
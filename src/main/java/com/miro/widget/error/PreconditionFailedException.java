@@ -0,0 +1,7 @@
+package com.miro.widget.error;
+
+public class PreconditionFailedException extends RuntimeException {
+    public PreconditionFailedException(String id) {
+        super(String.format("Widget with id=%s was changed", id));
+    }
+}
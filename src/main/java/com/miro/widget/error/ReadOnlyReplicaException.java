@@ -0,0 +1,7 @@
+package com.miro.widget.error;
+
+public class ReadOnlyReplicaException extends RuntimeException {
+    public ReadOnlyReplicaException(String boardId) {
+        super(String.format("Board %s is a read-only replica, writes go to the leader", boardId));
+    }
+}
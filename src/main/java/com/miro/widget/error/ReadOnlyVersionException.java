@@ -0,0 +1,7 @@
+package com.miro.widget.error;
+
+public class ReadOnlyVersionException extends RuntimeException {
+    public ReadOnlyVersionException(long version) {
+        super(String.format("Version %d of the board is read-only", version));
+    }
+}
@@ -31,6 +31,13 @@ public class RestExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(new ErrorResponse(ex.getMessage()), HttpStatus.NOT_FOUND);
     }
 
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<ErrorResponse> handlePreconditionFailedException(PreconditionFailedException ex) {
+        log(ex);
+
+        return new ResponseEntity<>(new ErrorResponse(ex.getMessage()), HttpStatus.PRECONDITION_FAILED);
+    }
+
     @ExceptionHandler(BadRequestException.class)
     public ResponseEntity<ErrorResponse> handleBadRequestException(BadRequestException ex) {
         log(ex);
@@ -38,6 +45,34 @@ public class RestExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(new ErrorResponse(ex.getMessage()), HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler(ReadOnlyReplicaException.class)
+    public ResponseEntity<ErrorResponse> handleReadOnlyReplicaException(ReadOnlyReplicaException ex) {
+        log(ex);
+
+        return new ResponseEntity<>(new ErrorResponse(ex.getMessage()), HttpStatus.METHOD_NOT_ALLOWED);
+    }
+
+    @ExceptionHandler(ReadOnlyVersionException.class)
+    public ResponseEntity<ErrorResponse> handleReadOnlyVersionException(ReadOnlyVersionException ex) {
+        log(ex);
+
+        return new ResponseEntity<>(new ErrorResponse(ex.getMessage()), HttpStatus.METHOD_NOT_ALLOWED);
+    }
+
+    @ExceptionHandler(StaleReplicaException.class)
+    public ResponseEntity<ErrorResponse> handleStaleReplicaException(StaleReplicaException ex) {
+        log(ex);
+
+        return new ResponseEntity<>(new ErrorResponse(ex.getMessage()), HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @ExceptionHandler(VersionExpiredException.class)
+    public ResponseEntity<ErrorResponse> handleVersionExpiredException(VersionExpiredException ex) {
+        log(ex);
+
+        return new ResponseEntity<>(new ErrorResponse(ex.getMessage()), HttpStatus.GONE);
+    }
+
     @Override
     protected ResponseEntity<Object> handleMethodArgumentNotValid(MethodArgumentNotValidException ex, HttpHeaders headers,
                                                                   HttpStatus status, WebRequest request) {
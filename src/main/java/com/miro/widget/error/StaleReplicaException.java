@@ -0,0 +1,7 @@
+package com.miro.widget.error;
+
+public class StaleReplicaException extends RuntimeException {
+    public StaleReplicaException(String message) {
+        super(message);
+    }
+}
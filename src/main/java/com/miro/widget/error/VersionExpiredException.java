@@ -0,0 +1,7 @@
+package com.miro.widget.error;
+
+public class VersionExpiredException extends RuntimeException {
+    public VersionExpiredException(long version) {
+        super(String.format("Version %d of the board is no longer kept", version));
+    }
+}
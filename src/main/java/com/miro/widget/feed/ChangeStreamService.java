@@ -0,0 +1,211 @@
+package com.miro.widget.feed;
+
+import com.miro.widget.dto.WidgetChangeDTO;
+import com.miro.widget.model.WidgetChange;
+import com.miro.widget.repository.ChangeFeed;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams board changes to Server-Sent Events subscribers.
+ * A commit only schedules delivery, the events of a subscriber are read from the change feed and sent by a thread
+ * taken for that subscriber alone, so a slow subscriber holds up neither writers nor the other subscribers.
+ * The feed is the queue of every subscriber, bounded by its capacity: a subscriber which fell behind the feed gets a
+ * {@code resync} event with the current version and is disconnected, it has to reload the board and subscribe again.
+ * A subscriber whose send takes longer than {@code widget.feed.send-timeout} is dropped without further events, as
+ * a widget socket which can't keep up is.
+ */
+@Slf4j
+@Service
+public class ChangeStreamService {
+    static final String VERSION_EVENT = "version";
+    static final String RESYNC_EVENT = "resync";
+
+    private final AtomicInteger senderCount = new AtomicInteger();
+    // A thread per subscriber with events to send, a stalled subscriber keeps only its own one
+    private final ExecutorService sender = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "widget-change-stream-" + senderCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "widget-change-stream-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final long timeoutMillis;
+    private final long sendTimeoutNanos;
+
+    public ChangeStreamService(@Value("${widget.feed.subscription-timeout:30m}") Duration timeout,
+                               @Value("${widget.feed.send-timeout:5s}") Duration sendTimeout) {
+        this.timeoutMillis = timeout.toMillis();
+        this.sendTimeoutNanos = sendTimeout.toNanos();
+    }
+
+    @PostConstruct
+    public void start() {
+        long period = Math.max(sendTimeoutNanos / 2, TimeUnit.MILLISECONDS.toNanos(10));
+        watchdog.scheduleWithFixedDelay(this::dropStalled, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Subscribes to changes after the version, or to new changes only if the version is null.
+     * In the latter case the first event is {@code version} carrying the version the stream starts from.
+     */
+    public SseEmitter subscribe(ChangeFeed feed, Long lastVersion) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscription subscription = new Subscription(feed, emitter, lastVersion == null ? feed.getVersion() : lastVersion);
+
+        subscriptions.add(subscription);
+        emitter.onCompletion(subscription::abandon);
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(error -> emitter.complete());
+
+        if (lastVersion == null) {
+            subscription.send(SseEmitter.event().name(VERSION_EVENT).id(Long.toString(subscription.cursor)).data(subscription.cursor));
+        }
+        // Only now, so no change is sent before the version; the delivery below catches up on the commits in between
+        if (!subscription.closed) {
+            feed.addListener(subscription.listener);
+        }
+        subscription.schedule();
+
+        return emitter;
+    }
+
+    @PreDestroy
+    public void close() {
+        watchdog.shutdownNow();
+        sender.shutdownNow();
+    }
+
+    /**
+     * A send blocks in the emitter and the emitter can't be completed meanwhile, so a stalled subscriber is only
+     * cut off from the feed here and its emitter is completed once the container gives up on the write.
+     */
+    void dropStalled() {
+        long now = System.nanoTime();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.sending && now - subscription.sendStart > sendTimeoutNanos) {
+                log.debug("Change stream subscriber didn't take an event for {} ms, dropping it",
+                        TimeUnit.NANOSECONDS.toMillis(now - subscription.sendStart));
+                subscription.abandon();
+            }
+        }
+    }
+
+    private class Subscription {
+        private final ChangeFeed feed;
+        private final SseEmitter emitter;
+        // Deliveries requested since the running one started, the thread sending them goes on while there are any
+        private final AtomicInteger requested = new AtomicInteger();
+        private final Runnable listener = this::schedule;
+        private volatile long cursor;
+        private volatile boolean closed;
+        private volatile boolean sending;
+        private volatile long sendStart;
+
+        private Subscription(ChangeFeed feed, SseEmitter emitter, long cursor) {
+            this.feed = feed;
+            this.emitter = emitter;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Called by writers, starts a delivery unless one is running, which then sends the new changes too.
+         */
+        private void schedule() {
+            if (!closed && requested.getAndIncrement() == 0) {
+                sender.execute(this::deliver);
+            }
+        }
+
+        private void deliver() {
+            for (int missed = requested.get(); ; missed = requested.get()) {
+                sendChanges();
+                if (requested.addAndGet(-missed) == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void sendChanges() {
+            if (closed) {
+                return;
+            }
+
+            Optional<List<WidgetChange>> changes = feed.getChangesSince(cursor);
+            if (changes.isEmpty()) {
+                send(SseEmitter.event().name(RESYNC_EVENT).data(feed.getVersion()));
+                close();
+                return;
+            }
+
+            for (WidgetChange change : changes.get()) {
+                if (!send(SseEmitter.event()
+                        .name(change.getType().name())
+                        .id(Long.toString(change.getVersion()))
+                        .data(WidgetChangeDTO.fromChange(change)))) {
+                    return;
+                }
+                cursor = change.getVersion();
+            }
+        }
+
+        private boolean send(SseEmitter.SseEventBuilder event) {
+            if (closed) {
+                return false;
+            }
+
+            sendStart = System.nanoTime();
+            sending = true;
+            try {
+                emitter.send(event);
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Change stream subscriber is gone", e);
+                close();
+                return false;
+            } finally {
+                sending = false;
+            }
+
+            if (closed) {
+                // Dropped by the watchdog while the event was being sent
+                emitter.complete();
+                return false;
+            }
+            return true;
+        }
+
+        private void close() {
+            abandon();
+            emitter.complete();
+        }
+
+        /**
+         * Stops the deliveries to the subscriber without touching its emitter.
+         */
+        private void abandon() {
+            closed = true;
+            feed.removeListener(listener);
+            subscriptions.remove(this);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.miro.widget.metrics;
+
+import com.miro.widget.cache.WidgetResponseCache;
+import com.miro.widget.replication.ReplicationFollower;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStoreMetrics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the widget store statistics to Micrometer.
+ * Meters only read the counters kept by {@link WidgetStoreMetrics} when they are scraped, nothing is recorded
+ * through Micrometer on the write path.
+ */
+@Component
+@AllArgsConstructor
+public class WidgetMeterBinder implements MeterBinder {
+    private final WidgetStoreMetrics metrics;
+    private final ShardedWidgetRepository repository;
+    private final WidgetResponseCache responseCache;
+    private final Optional<ReplicationFollower> follower;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionTimer.builder("widget.lock.wait", metrics,
+                WidgetStoreMetrics::getLockWaitCount, WidgetStoreMetrics::getLockWaitNanos, TimeUnit.NANOSECONDS)
+                .description("Time writers waited for the write lock of a board")
+                .register(registry);
+        FunctionTimer.builder("widget.lock.hold", metrics,
+                WidgetStoreMetrics::getLockHoldCount, WidgetStoreMetrics::getLockHoldNanos, TimeUnit.NANOSECONDS)
+                .description("Time writers held the write lock of a board")
+                .register(registry);
+        FunctionCounter.builder("widget.read.optimistic.failures", metrics, WidgetStoreMetrics::getOptimisticReadFailures)
+                .description("Optimistic reads repeated under the read lock because of a concurrent write")
+                .register(registry);
+
+        FunctionCounter.builder("widget.shift.widgets", metrics, WidgetStoreMetrics::getShiftedWidgets)
+                .description("Widgets moved up by inserts into occupied z-indexes")
+                .register(registry);
+        for (int bucket = 0; bucket < WidgetStoreMetrics.SHIFT_BUCKETS; bucket++) {
+            int upTo = bucket;
+            FunctionCounter.builder("widget.shift.length", metrics, value -> value.getShiftsUpTo(upTo))
+                    .description("Inserts by the number of widgets they shifted, cumulative by the upper bound")
+                    .tag("le", Long.toString((1L << bucket) - 1))
+                    .register(registry);
+        }
+
+        Gauge.builder("widget.count", repository, ShardedWidgetRepository::countAllWidgets)
+                .description("Widgets on all boards in memory")
+                .register(registry);
+        Gauge.builder("widget.boards", repository, ShardedWidgetRepository::countBoards)
+                .description("Boards in memory")
+                .register(registry);
+        Gauge.builder("widget.index.span", repository, ShardedWidgetRepository::maxZIndexSpan)
+                .description("Largest distance between the lowest and the highest z-index of a board")
+                .register(registry);
+
+        follower.ifPresent(replica -> Gauge.builder("widget.replication.staleness", replica,
+                value -> value.getStaleness().map(staleness -> staleness.toNanos() / 1e9).orElse(Double.NaN))
+                .description("Time since the follower last knew it had everything the leader had, NaN before it caught up")
+                .baseUnit("seconds")
+                .register(registry));
+
+        // cache.gets tagged with result=hit|miss, cache.evictions and cache.size under cache=widget.response
+        CaffeineCacheMetrics.monitor(registry, responseCache.getCache(), "widget.response");
+    }
+}
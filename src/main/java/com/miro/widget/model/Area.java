@@ -0,0 +1,51 @@
+package com.miro.widget.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Axis-aligned rectangle given by its lower-left (x1, y1) and upper-right (x2, y2) corners.
+ */
+@AllArgsConstructor
+@Getter
+public class Area {
+    private int x1;
+    private int y1;
+    private int x2;
+    private int y2;
+
+    /**
+     * Checks that the widget lies fully inside the area, borders included.
+     * Coordinates are compared doubled, so odd width and height don't need rounding.
+     */
+    public boolean contains(Widget widget) {
+        long centerX = 2L * widget.getCenterX();
+        long centerY = 2L * widget.getCenterY();
+        long width = sizeOf(widget.getWidth());
+        long height = sizeOf(widget.getHeight());
+
+        return 2L * x1 <= centerX - width
+                && centerX + width <= 2L * x2
+                && 2L * y1 <= centerY - height
+                && centerY + height <= 2L * y2;
+    }
+
+    /**
+     * Checks that the widget and the area have at least one common point, borders included.
+     */
+    public boolean overlaps(Widget widget) {
+        long centerX = 2L * widget.getCenterX();
+        long centerY = 2L * widget.getCenterY();
+        long width = sizeOf(widget.getWidth());
+        long height = sizeOf(widget.getHeight());
+
+        return centerX - width <= 2L * x2
+                && 2L * x1 <= centerX + width
+                && centerY - height <= 2L * y2
+                && 2L * y1 <= centerY + height;
+    }
+
+    private static long sizeOf(Integer size) {
+        return size == null ? 0 : size;
+    }
+}
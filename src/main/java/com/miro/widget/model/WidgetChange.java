@@ -0,0 +1,24 @@
+package com.miro.widget.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Single change of a board. Creation and update carry the widget as stored, deletion only its id.
+ * A z-shift moves {@code count} widgets starting from {@code fromZIndex} up by one, it is published right before
+ * the change of the widget which caused it.
+ */
+@AllArgsConstructor
+@Getter
+public class WidgetChange {
+    private long version;
+    private Type type;
+    private String widgetId;
+    private Widget widget;
+    private Integer fromZIndex;
+    private Integer count;
+
+    public enum Type {
+        CREATE, UPDATE, DELETE, Z_SHIFT
+    }
+}
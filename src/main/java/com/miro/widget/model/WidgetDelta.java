@@ -0,0 +1,19 @@
+package com.miro.widget.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Widgets of a board changed since some version up to {@code version}, ordered by z-index, and ids of the deleted ones.
+ * A full delta holds the whole board instead, it replaces everything the client has.
+ */
+@AllArgsConstructor
+@Getter
+public class WidgetDelta {
+    private long version;
+    private boolean full;
+    private List<Widget> widgets;
+    private List<String> deletedIds;
+}
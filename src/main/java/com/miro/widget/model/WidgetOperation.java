@@ -0,0 +1,30 @@
+package com.miro.widget.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Single mutation of a batch. Creation needs only the widget, deletion only the id, update needs both and patch
+ * needs the id and the patch.
+ */
+@AllArgsConstructor
+@Getter
+public class WidgetOperation {
+    private Type type;
+    private String widgetId;
+    private Widget widget;
+    private WidgetPatch patch;
+
+    public WidgetOperation(Type type, String widgetId, Widget widget) {
+        this(type, widgetId, widget, null);
+    }
+
+    public static WidgetOperation patch(String widgetId, WidgetPatch patch) {
+        return new WidgetOperation(Type.PATCH, widgetId, null, patch);
+    }
+
+    // Stored in the write-ahead log by ordinal, new types go to the end
+    public enum Type {
+        CREATE, UPDATE, DELETE, PATCH
+    }
+}
@@ -0,0 +1,32 @@
+package com.miro.widget.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of a single batch operation.
+ * A batch is applied as a whole: if any operation fails, the rest are reported as skipped and nothing is changed.
+ */
+@AllArgsConstructor
+@Getter
+public class WidgetOperationResult {
+    private Status status;
+    private Widget widget;
+    private String error;
+
+    public static WidgetOperationResult applied(Widget widget) {
+        return new WidgetOperationResult(Status.APPLIED, widget, null);
+    }
+
+    public static WidgetOperationResult failed(String error) {
+        return new WidgetOperationResult(Status.FAILED, null, error);
+    }
+
+    public static WidgetOperationResult skipped() {
+        return new WidgetOperationResult(Status.SKIPPED, null, null);
+    }
+
+    public enum Status {
+        APPLIED, FAILED, SKIPPED
+    }
+}
@@ -0,0 +1,21 @@
+package com.miro.widget.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Slice of widgets in z-order together with its position in the whole ordering.
+ */
+@AllArgsConstructor
+@Getter
+public class WidgetPage {
+    private List<Widget> widgets;
+    private int offset;
+    private int totalCount;
+
+    public boolean hasMore() {
+        return offset + widgets.size() < totalCount;
+    }
+}
@@ -0,0 +1,52 @@
+package com.miro.widget.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+/**
+ * Partial change of a widget, null fields are left as they are.
+ */
+@AllArgsConstructor
+@Getter
+public class WidgetPatch {
+    private Integer centerX;
+    private Integer centerY;
+    private Integer zIndex;
+    private Integer height;
+    private Integer width;
+
+    public boolean isEmpty() {
+        return Stream.of(centerX, centerY, zIndex, height, width).allMatch(field -> field == null);
+    }
+
+    /**
+     * Returns the widget with the fields of the patch applied.
+     */
+    public Widget applyTo(Widget widget) {
+        return Widget.builder()
+                .id(widget.getId())
+                .centerX(centerX == null ? widget.getCenterX() : centerX)
+                .centerY(centerY == null ? widget.getCenterY() : centerY)
+                .zIndex(zIndex == null ? widget.getZIndex() : zIndex)
+                .height(height == null ? widget.getHeight() : height)
+                .width(width == null ? widget.getWidth() : width)
+                .lastModified(LocalDateTime.now())
+                .build();
+    }
+
+    /**
+     * Returns the patch which has the same effect as this one followed by the later one.
+     */
+    public WidgetPatch followedBy(WidgetPatch later) {
+        return new WidgetPatch(
+                later.centerX == null ? centerX : later.centerX,
+                later.centerY == null ? centerY : later.centerY,
+                later.zIndex == null ? zIndex : later.zIndex,
+                later.height == null ? height : later.height,
+                later.width == null ? width : later.width
+        );
+    }
+}
@@ -0,0 +1,17 @@
+package com.miro.widget.model;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Identifies the state of a widget: the board version of its last modification and its current z-index.
+ * Shifts move widgets without modifying them, the z-index tells the shifted states apart.
+ */
+@AllArgsConstructor
+@EqualsAndHashCode
+@Getter
+public class WidgetRevision {
+    private long version;
+    private int zIndex;
+}
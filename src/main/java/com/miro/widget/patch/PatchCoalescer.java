@@ -0,0 +1,119 @@
+package com.miro.widget.patch;
+
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+import com.miro.widget.repository.WidgetStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges bursts of patches to the same widget into one write, as sent by a client dragging the widget.
+ * The first patch of a burst opens a window of {@code widget.patch.coalesce-window}, patches arriving within it are
+ * merged into the pending one and all of them are answered with the widget written at the end of the window.
+ * Patches moving the widget in the z-order or expecting a revision are applied at once: merging them would change
+ * the shifts of other widgets or skip a revision check. A zero window turns coalescing off.
+ */
+@Service
+public class PatchCoalescer {
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "widget-patch-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentMap<Key, Pending> pending = new ConcurrentHashMap<>();
+    private final long windowNanos;
+
+    public PatchCoalescer(@Value("${widget.patch.coalesce-window:0}") Duration window) {
+        this.windowNanos = window.toNanos();
+    }
+
+    /**
+     * Applies the patch to the widget of the board, possibly together with other patches of the widget.
+     * A patch applied at once throws its failure, a merged one completes the result with it at the end of the window;
+     * nothing waits for the window meanwhile.
+     */
+    public CompletableFuture<Widget> patch(WidgetStore board, String widgetId, WidgetPatch patch, WidgetRevision expected) {
+        if (windowNanos <= 0 || expected != null || patch.getZIndex() != null) {
+            return CompletableFuture.completedFuture(board.patchWidget(widgetId, patch, expected));
+        }
+
+        Key key = new Key(board, widgetId);
+        Pending joined = pending.compute(key, (ignored, current) -> {
+            if (current == null) {
+                flusher.schedule(() -> flush(key), windowNanos, TimeUnit.NANOSECONDS);
+                return new Pending(patch);
+            }
+            current.patch = current.patch.followedBy(patch);
+            return current;
+        });
+        // A copy, so no caller can complete the result shared with the rest of the burst
+        return joined.result.thenApply(widget -> widget);
+    }
+
+    /**
+     * Applies the patches still waiting for their window before the application stops.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    private void flush(Key key) {
+        // Patches arriving after the removal start a new burst
+        Pending flushed = pending.remove(key);
+        try {
+            flushed.result.complete(key.board.patchWidget(key.widgetId, flushed.patch, null));
+        } catch (RuntimeException e) {
+            flushed.result.completeExceptionally(e);
+        }
+    }
+
+    private static final class Pending {
+        private final CompletableFuture<Widget> result = new CompletableFuture<>();
+        // Changed only inside compute of the map, which orders it before the removal by the flush
+        private WidgetPatch patch;
+
+        private Pending(WidgetPatch patch) {
+            this.patch = patch;
+        }
+    }
+
+    private static final class Key {
+        private final WidgetStore board;
+        private final String widgetId;
+
+        private Key(WidgetStore board, String widgetId) {
+            this.board = board;
+            this.widgetId = widgetId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return board == key.board && widgetId.equals(key.widgetId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(board), widgetId);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.miro.widget.persistence;
+
+import com.miro.widget.model.Widget;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Full copy of a board as of a log position, widgets are kept in z-order.
+ * The file is written through a memory mapping into a temporary file and renamed over the previous snapshot, so a
+ * crash leaves either the old or the new snapshot. Layout: magic, format version, LSN, board version, board id,
+ * count, widgets, CRC32. Snapshots of format 1 have no board version and restore the board at version 0.
+ */
+@AllArgsConstructor
+@Getter
+class BoardSnapshot {
+    private static final int MAGIC = 0x57444753;
+    private static final int VERSION = 2;
+    private static final int UNVERSIONED = 1;
+    private static final String SUFFIX = ".snapshot";
+
+    private String boardId;
+    private long lsn;
+    private long boardVersion;
+    private List<Widget> widgets;
+
+    static Path fileOf(Path directory, String boardId) {
+        String name = Base64.getUrlEncoder().withoutPadding().encodeToString(boardId.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve("board-" + name + SUFFIX);
+    }
+
+    static boolean isSnapshot(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith("board-") && name.endsWith(SUFFIX);
+    }
+
+    static void write(Path directory, String boardId, long lsn, long boardVersion, Collection<Widget> widgets)
+            throws IOException {
+        Path file = fileOf(directory, boardId);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        byte[] board = boardId.getBytes(StandardCharsets.UTF_8);
+        long size = 2 * Integer.BYTES + 2 * Long.BYTES + Short.BYTES + board.length + Integer.BYTES
+                + (long) widgets.size() * WidgetCodec.WIDGET_SIZE + Integer.BYTES;
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(lsn);
+            buffer.putLong(boardVersion);
+            buffer.putShort((short) board.length);
+            buffer.put(board);
+            buffer.putInt(widgets.size());
+            widgets.forEach(widget -> WidgetCodec.write(buffer, widget));
+            buffer.putInt((int) checksum(buffer, buffer.position()));
+            buffer.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static BoardSnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int end = buffer.limit() - Integer.BYTES;
+            int format = end < 0 || buffer.getInt() != MAGIC ? 0 : buffer.getInt();
+            if ((format != VERSION && format != UNVERSIONED) || buffer.getInt(end) != (int) checksum(buffer, end)) {
+                throw new IOException(String.format("Snapshot %s is corrupted", file.getFileName()));
+            }
+
+            long lsn = buffer.getLong();
+            long boardVersion = format == VERSION ? buffer.getLong() : 0;
+            byte[] board = new byte[buffer.getShort()];
+            buffer.get(board);
+            int count = buffer.getInt();
+            List<Widget> widgets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                widgets.add(WidgetCodec.read(buffer));
+            }
+
+            return new BoardSnapshot(new String(board, StandardCharsets.UTF_8), lsn, boardVersion, widgets);
+        }
+    }
+
+    private static long checksum(ByteBuffer buffer, int end) {
+        ByteBuffer content = buffer.duplicate();
+        content.position(0).limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+}
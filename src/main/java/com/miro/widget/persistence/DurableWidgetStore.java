@@ -0,0 +1,264 @@
+package com.miro.widget.persistence;
+
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetDelta;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+import com.miro.widget.repository.ChangeFeed;
+import com.miro.widget.repository.WidgetStore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Store of a board whose writes are recorded in the write-ahead log.
+ * A write is applied and logged under one lock, so the log has the same order as the store. The log is checked
+ * before the write is applied and the append can't fail after it, so the store never has a write the log doesn't.
+ * Waiting for the disk happens after the lock is released, writers waiting for the same flush don't block each other.
+ */
+class DurableWidgetStore implements WidgetStore {
+    private final String boardId;
+    private final WidgetStore delegate;
+    private final WriteAheadLog log;
+    private final Path directory;
+    private final boolean syncWrites;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long lastLsn;
+    private long snapshotLsn;
+    private boolean released;
+
+    DurableWidgetStore(String boardId, WidgetStore delegate, WriteAheadLog log, Path directory, boolean syncWrites,
+                       long lastLsn, long snapshotLsn) {
+        this.boardId = boardId;
+        this.delegate = delegate;
+        this.log = log;
+        this.directory = directory;
+        this.syncWrites = syncWrites;
+        this.lastLsn = lastLsn;
+        this.snapshotLsn = snapshotLsn;
+    }
+
+    @Override
+    public Widget addWidget(Widget newWidget) {
+        Widget widget;
+        long lsn;
+        lock.lock();
+        try {
+            checkWritable();
+            widget = delegate.addWidget(newWidget);
+            lsn = append(Collections.singletonList(
+                    new WidgetOperation(WidgetOperation.Type.CREATE, widget.getId().toString(), widget)));
+        } finally {
+            lock.unlock();
+        }
+
+        awaitDurable(lsn);
+        return widget;
+    }
+
+    @Override
+    public Widget updateWidget(String widgetId, Widget newWidget, WidgetRevision expected) {
+        Widget widget;
+        long lsn;
+        lock.lock();
+        try {
+            checkWritable();
+            widget = delegate.updateWidget(widgetId, newWidget, expected);
+            lsn = append(Collections.singletonList(
+                    new WidgetOperation(WidgetOperation.Type.UPDATE, widget.getId().toString(), widget)));
+        } finally {
+            lock.unlock();
+        }
+
+        awaitDurable(lsn);
+        return widget;
+    }
+
+    /**
+     * Logged as an update with the patched widget, replay doesn't need to know the patch.
+     */
+    @Override
+    public Widget patchWidget(String widgetId, WidgetPatch patch, WidgetRevision expected) {
+        Widget widget;
+        long lsn;
+        lock.lock();
+        try {
+            checkWritable();
+            widget = delegate.patchWidget(widgetId, patch, expected);
+            lsn = append(Collections.singletonList(
+                    new WidgetOperation(WidgetOperation.Type.UPDATE, widget.getId().toString(), widget)));
+        } finally {
+            lock.unlock();
+        }
+
+        awaitDurable(lsn);
+        return widget;
+    }
+
+    @Override
+    public void deleteWidget(String widgetId, WidgetRevision expected) {
+        long lsn;
+        lock.lock();
+        try {
+            checkWritable();
+            delegate.deleteWidget(widgetId, expected);
+            lsn = append(Collections.singletonList(new WidgetOperation(WidgetOperation.Type.DELETE, widgetId, null)));
+        } finally {
+            lock.unlock();
+        }
+
+        awaitDurable(lsn);
+    }
+
+    /**
+     * A batch is logged as one frame with the widgets it produced, so it is replayed as a whole or not at all.
+     */
+    @Override
+    public List<WidgetOperationResult> applyBatch(List<WidgetOperation> operations) {
+        List<WidgetOperationResult> results;
+        long lsn;
+        lock.lock();
+        try {
+            checkWritable();
+            results = delegate.applyBatch(operations);
+            if (results.stream().anyMatch(result -> result.getStatus() != WidgetOperationResult.Status.APPLIED)) {
+                return results;
+            }
+
+            List<WidgetOperation> applied = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                WidgetOperation operation = operations.get(i);
+                Widget widget = results.get(i).getWidget();
+                // A patch is logged as an update with the patched widget
+                WidgetOperation.Type type =
+                        operation.getType() == WidgetOperation.Type.PATCH ? WidgetOperation.Type.UPDATE : operation.getType();
+                applied.add(widget == null
+                        ? operation
+                        : new WidgetOperation(type, widget.getId().toString(), widget));
+            }
+            lsn = append(applied);
+        } finally {
+            lock.unlock();
+        }
+
+        awaitDurable(lsn);
+        return results;
+    }
+
+    @Override
+    public Widget getWidget(String widgetId) {
+        return delegate.getWidget(widgetId);
+    }
+
+    @Override
+    public Collection<Widget> getAllWidgets() {
+        return delegate.getAllWidgets();
+    }
+
+    @Override
+    public WidgetDelta getSnapshot() {
+        return delegate.getSnapshot();
+    }
+
+    @Override
+    public WidgetStore asOf(long version) {
+        return delegate.asOf(version);
+    }
+
+    @Override
+    public WidgetPage getWidgetsPage(int offset, int limit) {
+        return delegate.getWidgetsPage(offset, limit);
+    }
+
+    @Override
+    public WidgetPage getWidgetsAfter(Integer cursor, int limit) {
+        return delegate.getWidgetsAfter(cursor, limit);
+    }
+
+    @Override
+    public int countWidgets() {
+        return delegate.countWidgets();
+    }
+
+    @Override
+    public Collection<Widget> getWidgetsInArea(Area area) {
+        return delegate.getWidgetsInArea(area);
+    }
+
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y) {
+        return delegate.getWidgetsAt(x, y);
+    }
+
+    @Override
+    public ChangeFeed getChangeFeed() {
+        return delegate.getChangeFeed();
+    }
+
+    /**
+     * Writes a snapshot of the board if it changed since the previous one.
+     */
+    void checkpoint() throws IOException {
+        lock.lock();
+        try {
+            writeSnapshot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the final snapshot before the board is dropped from memory, later writes to this instance are rejected.
+     */
+    void release() throws IOException {
+        lock.lock();
+        try {
+            writeSnapshot();
+            released = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        if (lastLsn > snapshotLsn) {
+            BoardSnapshot.write(directory, boardId, lastLsn, delegate.getChangeFeed().getVersion(),
+                    delegate.getAllWidgets());
+            snapshotLsn = lastLsn;
+        }
+    }
+
+    /**
+     * Called under the lock right after the write, so the board is at the version the write took it to.
+     */
+    private long append(List<WidgetOperation> operations) {
+        lastLsn = log.append(boardId, delegate.getChangeFeed().getVersion(), operations);
+        return lastLsn;
+    }
+
+    private void awaitDurable(long lsn) {
+        if (syncWrites) {
+            log.awaitDurable(lsn);
+        }
+    }
+
+    /**
+     * Checked before the write is applied: once applied, the write is appended whatever happens to the log.
+     */
+    private void checkWritable() {
+        if (released) {
+            throw new IllegalStateException(String.format("Board %s was released", boardId));
+        }
+        log.checkWritable();
+    }
+}
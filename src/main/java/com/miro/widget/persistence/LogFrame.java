@@ -0,0 +1,112 @@
+package com.miro.widget.persistence;
+
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetOperation;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * One write of a board as stored in the log: all operations of a single call, so a batch is replayed as a whole.
+ * Operations carry resolved widgets (generated id, final z-index), replaying them over the same state gives the same
+ * result. The frame also carries the version of the board after the write, so a replayed board doesn't go back to
+ * versions it already had. Frame layout: payload length, CRC32 of the payload, payload. Replication ships the writes
+ * of the leader in the same frames.
+ */
+@AllArgsConstructor
+@Getter
+public class LogFrame {
+    public static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private long lsn;
+    private String boardId;
+    private long version;
+    private List<WidgetOperation> operations;
+
+    public int size() {
+        return HEADER_SIZE + payloadSize();
+    }
+
+    public void write(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.putInt(payloadSize());
+        buffer.putInt(0);
+
+        byte[] board = boardId.getBytes(StandardCharsets.UTF_8);
+        buffer.putLong(lsn);
+        buffer.putLong(version);
+        buffer.putShort((short) board.length);
+        buffer.put(board);
+        buffer.putInt(operations.size());
+        for (WidgetOperation operation : operations) {
+            buffer.put((byte) operation.getType().ordinal());
+            if (operation.getType() == WidgetOperation.Type.DELETE) {
+                WidgetCodec.writeId(buffer, UUID.fromString(operation.getWidgetId()));
+            } else {
+                WidgetCodec.write(buffer, operation.getWidget());
+            }
+        }
+
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(start + HEADER_SIZE).limit(buffer.position());
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+    }
+
+    /**
+     * Reads the next frame, or returns null if the rest of the buffer is a torn or corrupted write.
+     */
+    public static LogFrame read(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+            return null;
+        }
+
+        ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        buffer.position(buffer.position() + length);
+
+        long lsn = payload.getLong();
+        long version = payload.getLong();
+        byte[] board = new byte[payload.getShort()];
+        payload.get(board);
+        int count = payload.getInt();
+        List<WidgetOperation> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            WidgetOperation.Type type = WidgetOperation.Type.values()[payload.get()];
+            if (type == WidgetOperation.Type.DELETE) {
+                operations.add(new WidgetOperation(type, WidgetCodec.readId(payload).toString(), null));
+            } else {
+                Widget widget = WidgetCodec.read(payload);
+                operations.add(new WidgetOperation(type, widget.getId().toString(), widget));
+            }
+        }
+
+        return new LogFrame(lsn, new String(board, StandardCharsets.UTF_8), version, operations);
+    }
+
+    private int payloadSize() {
+        int size = 2 * Long.BYTES + Short.BYTES + boardId.getBytes(StandardCharsets.UTF_8).length + Integer.BYTES;
+        for (WidgetOperation operation : operations) {
+            size += 1 + (operation.getType() == WidgetOperation.Type.DELETE ? 16 : WidgetCodec.WIDGET_SIZE);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,75 @@
+package com.miro.widget.persistence;
+
+import com.miro.widget.model.Widget;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+/**
+ * Fixed-size binary layout of a widget shared by the log, the snapshots and replication.
+ */
+public final class WidgetCodec {
+    public static final int WIDGET_SIZE = 16 + 5 * Integer.BYTES + Long.BYTES + 1;
+
+    private static final byte NO_HEIGHT = 1;
+    private static final byte NO_WIDTH = 2;
+    private static final byte NO_LAST_MODIFIED = 4;
+
+    private WidgetCodec() {
+    }
+
+    public static void write(ByteBuffer buffer, Widget widget) {
+        byte flags = 0;
+        if (widget.getHeight() == null) {
+            flags |= NO_HEIGHT;
+        }
+        if (widget.getWidth() == null) {
+            flags |= NO_WIDTH;
+        }
+        if (widget.getLastModified() == null) {
+            flags |= NO_LAST_MODIFIED;
+        }
+
+        writeId(buffer, widget.getId());
+        buffer.putInt(widget.getCenterX());
+        buffer.putInt(widget.getCenterY());
+        buffer.putInt(widget.getZIndex());
+        buffer.putInt(widget.getHeight() == null ? 0 : widget.getHeight());
+        buffer.putInt(widget.getWidth() == null ? 0 : widget.getWidth());
+        buffer.putLong(widget.getLastModified() == null ? 0 : widget.getLastModified().toInstant(ZoneOffset.UTC).toEpochMilli());
+        buffer.put(flags);
+    }
+
+    public static Widget read(ByteBuffer buffer) {
+        UUID id = readId(buffer);
+        int centerX = buffer.getInt();
+        int centerY = buffer.getInt();
+        int zIndex = buffer.getInt();
+        int height = buffer.getInt();
+        int width = buffer.getInt();
+        long lastModified = buffer.getLong();
+        byte flags = buffer.get();
+
+        return new Widget(
+                id,
+                centerX,
+                centerY,
+                zIndex,
+                (flags & NO_HEIGHT) == 0 ? height : null,
+                (flags & NO_WIDTH) == 0 ? width : null,
+                (flags & NO_LAST_MODIFIED) == 0 ? LocalDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC) : null
+        );
+    }
+
+    static void writeId(ByteBuffer buffer, UUID id) {
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+    }
+
+    static UUID readId(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
@@ -0,0 +1,188 @@
+package com.miro.widget.persistence;
+
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.repository.WidgetStore;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps boards on disk: every write goes to the write-ahead log, boards are snapshotted on checkpoints and when
+ * they are released from memory. On startup boards are restored from their snapshots followed by the log tail.
+ * By default a write returns once it is in the log buffer and reaches the disk with the next group commit,
+ * {@code widget.persistence.sync-writes} makes every write wait for its fsync.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "widget.persistence.enabled", havingValue = "true")
+public class WidgetPersistence {
+    private final Path directory;
+    private final boolean syncWrites;
+    private WriteAheadLog writeAheadLog;
+
+    @Getter
+    private Duration recoveryTime = Duration.ZERO;
+
+    public WidgetPersistence(@Value("${widget.persistence.directory:data}") String directory,
+                             @Value("${widget.persistence.sync-writes:false}") boolean syncWrites) {
+        this.directory = Paths.get(directory);
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * Restores all boards kept on disk and starts a new log segment, must be called once before any other method.
+     */
+    public Map<String, WidgetStore> recover(Function<String, WidgetStore> storeFactory) {
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+
+            Map<String, WidgetStore> stores = new HashMap<>();
+            Map<String, Long> snapshotLsns = new HashMap<>();
+            for (BoardSnapshot snapshot : readSnapshots()) {
+                stores.put(snapshot.getBoardId(), load(snapshot, storeFactory.apply(snapshot.getBoardId())));
+                snapshotLsns.put(snapshot.getBoardId(), snapshot.getLsn());
+            }
+
+            Map<String, Long> lastLsns = new HashMap<>(snapshotLsns);
+            int[] replayed = new int[1];
+            long lastLsn = WriteAheadLog.replay(directory, frame -> {
+                if (frame.getLsn() <= snapshotLsns.getOrDefault(frame.getBoardId(), 0L)) {
+                    return;
+                }
+
+                WidgetStore store = stores.computeIfAbsent(frame.getBoardId(), storeFactory);
+                List<WidgetOperationResult> results = store.applyBatch(frame.getOperations());
+                if (results.stream().anyMatch(result -> result.getStatus() != WidgetOperationResult.Status.APPLIED)) {
+                    throw new IllegalStateException(String.format("Log frame %d doesn't apply to board %s",
+                            frame.getLsn(), frame.getBoardId()));
+                }
+                // Versions handed out after the frame continue from those it was written with
+                store.getChangeFeed().resumeAt(frame.getVersion());
+                lastLsns.put(frame.getBoardId(), frame.getLsn());
+                replayed[0]++;
+            });
+            writeAheadLog = new WriteAheadLog(directory, lastLsn);
+
+            Map<String, WidgetStore> recovered = stores.entrySet().stream().collect(Collectors.toMap(
+                    Map.Entry::getKey,
+                    entry -> durable(entry.getKey(), entry.getValue(), lastLsns.get(entry.getKey()),
+                            snapshotLsns.getOrDefault(entry.getKey(), 0L))));
+
+            recoveryTime = Duration.ofNanos(System.nanoTime() - start);
+            log.info("Recovered {} boards with {} widgets from {} snapshots and {} log frames in {} ms",
+                    recovered.size(), recovered.values().stream().mapToInt(WidgetStore::countWidgets).sum(),
+                    snapshotLsns.size(), replayed[0], recoveryTime.toMillis());
+
+            return recovered;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover widgets from " + directory, e);
+        }
+    }
+
+    /**
+     * Returns the store of a board which is not in memory, restoring it from its snapshot if it was released before.
+     */
+    public WidgetStore open(String boardId, Function<String, WidgetStore> storeFactory) {
+        Path file = BoardSnapshot.fileOf(directory, boardId);
+        try {
+            if (!Files.exists(file)) {
+                return durable(boardId, storeFactory.apply(boardId), 0, 0);
+            }
+
+            BoardSnapshot snapshot = BoardSnapshot.read(file);
+            return durable(boardId, load(snapshot, storeFactory.apply(boardId)), snapshot.getLsn(), snapshot.getLsn());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open board " + boardId, e);
+        }
+    }
+
+    /**
+     * Tells if a board which is not in memory was released before and can be opened with its widgets.
+     */
+    public boolean isKept(String boardId) {
+        return Files.exists(BoardSnapshot.fileOf(directory, boardId));
+    }
+
+    /**
+     * Snapshots a store returned by {@link #recover} or {@link #open} before it is dropped from memory.
+     */
+    public void release(WidgetStore store) {
+        try {
+            ((DurableWidgetStore) store).release();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to release board", e);
+        }
+    }
+
+    /**
+     * Snapshots the changed boards and deletes the log segments covered by the snapshots.
+     * The boards in memory are listed only once the log is rotated: a board opened later than that has all its
+     * frames in the new segment. Boards which are not among the stores were snapshotted on release.
+     */
+    public void checkpoint(Supplier<Collection<WidgetStore>> stores) {
+        try {
+            long coveredLsn = writeAheadLog.rotate();
+            for (WidgetStore store : stores.get()) {
+                ((DurableWidgetStore) store).checkpoint();
+            }
+            writeAheadLog.deleteSegmentsCoveredBy(coveredLsn);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Checkpoint failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+    }
+
+    private WidgetStore durable(String boardId, WidgetStore store, long lastLsn, long snapshotLsn) {
+        return new DurableWidgetStore(boardId, store, writeAheadLog, directory, syncWrites, lastLsn, snapshotLsn);
+    }
+
+    private List<BoardSnapshot> readSnapshots() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(BoardSnapshot::isSnapshot).collect(Collectors.toList());
+        }
+
+        List<BoardSnapshot> snapshots = new ArrayList<>(files.size());
+        for (Path file : files) {
+            snapshots.add(BoardSnapshot.read(file));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Snapshots keep widgets in z-order, so no insert shifts the others. The board goes on from the version it was
+     * snapshotted at: the inserts get versions after it, and the history is cut after them.
+     */
+    private static WidgetStore load(BoardSnapshot snapshot, WidgetStore store) {
+        store.getChangeFeed().resumeAt(snapshot.getBoardVersion());
+        snapshot.getWidgets().forEach(store::addWidget);
+        store.getChangeFeed().resumeAt(snapshot.getBoardVersion());
+        return store;
+    }
+}
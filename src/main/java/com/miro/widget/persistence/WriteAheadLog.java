@@ -0,0 +1,283 @@
+package com.miro.widget.persistence;
+
+import com.miro.widget.model.WidgetOperation;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of board writes split into segments named by their first LSN.
+ * Appends only copy the frame into a memory buffer; a single flusher thread writes whatever has accumulated and
+ * forces it to disk with one fsync, so concurrent writers share the cost of a sync (group commit).
+ */
+@Slf4j
+class WriteAheadLog implements Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final Object monitor = new Object();
+    private final Thread flusher;
+
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long lastLsn;
+    private long durableLsn;
+    private boolean rotationRequested;
+    private long rotatedLsn;
+    private boolean closed;
+    // Set by the flusher once it exits, frames appended after that never reach the disk
+    private boolean stopped;
+    private IOException failure;
+    private FileChannel channel;
+
+    /**
+     * Opens a new segment for LSNs following {@code lastLsn}, existing segments are only read by {@link #replay}.
+     */
+    WriteAheadLog(Path directory, long lastLsn) throws IOException {
+        this.directory = directory;
+        this.lastLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        this.channel = openSegment(lastLsn + 1);
+        this.flusher = new Thread(this::flushLoop, "widget-wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Feeds every intact frame of every segment to the consumer in LSN order.
+     * A torn or corrupted frame ends its segment: nothing after it in the same file was acknowledged as durable.
+     *
+     * @return LSN of the last frame read, 0 for an empty log
+     */
+    static long replay(Path directory, Consumer<LogFrame> consumer) throws IOException {
+        long lastLsn = 0;
+        for (Path segment : segments(directory)) {
+            try (FileChannel segmentChannel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                if (segmentChannel.size() == 0) {
+                    continue;
+                }
+
+                MappedByteBuffer buffer = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size());
+                LogFrame frame;
+                while ((frame = LogFrame.read(buffer)) != null) {
+                    lastLsn = Math.max(lastLsn, frame.getLsn());
+                    consumer.accept(frame);
+                }
+                if (buffer.hasRemaining()) {
+                    log.warn("Ignoring {} bytes of a torn write at the end of {}", buffer.remaining(), segment.getFileName());
+                }
+            }
+        }
+        return lastLsn;
+    }
+
+    /**
+     * Fails if the log doesn't take writes anymore. Stores check it before applying a write, so a write is refused
+     * before it changes the board.
+     */
+    void checkWritable() {
+        synchronized (monitor) {
+            if (failure != null) {
+                throw new UncheckedIOException("Write-ahead log is broken", failure);
+            }
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+        }
+    }
+
+    /**
+     * Queues the operations as one frame and returns its LSN without waiting for the disk. The version is the one of
+     * the board after the operations.
+     * Never fails: the write is already applied to the store, so its frame has to take its place in the log. A frame
+     * appended after the log broke or was closed never becomes durable and {@link #awaitDurable} of it fails, as for
+     * a frame whose flush failed.
+     */
+    long append(String boardId, long version, List<WidgetOperation> operations) {
+        synchronized (monitor) {
+            LogFrame frame = new LogFrame(++lastLsn, boardId, version, operations);
+            int size = frame.size();
+            if (pending.remaining() < size) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            frame.write(pending);
+            monitor.notifyAll();
+
+            return lastLsn;
+        }
+    }
+
+    /**
+     * Blocks until the frame with the LSN and all frames before it are on disk.
+     */
+    void awaitDurable(long lsn) {
+        synchronized (monitor) {
+            while (durableLsn < lsn && failure == null && !stopped) {
+                waitForFlusher();
+            }
+            if (durableLsn < lsn) {
+                throw failure != null
+                        ? new UncheckedIOException("Write-ahead log is broken", failure)
+                        : new IllegalStateException("Write-ahead log was closed before the write reached the disk");
+            }
+        }
+    }
+
+    /**
+     * Flushes the current segment and starts a new one.
+     *
+     * @return LSN of the last frame in the closed segments
+     */
+    long rotate() {
+        synchronized (monitor) {
+            rotationRequested = true;
+            monitor.notifyAll();
+            while (rotationRequested && failure == null && !stopped) {
+                waitForFlusher();
+            }
+            if (rotationRequested) {
+                throw failure != null
+                        ? new UncheckedIOException("Write-ahead log is broken", failure)
+                        : new IllegalStateException("Write-ahead log is closed");
+            }
+            return rotatedLsn;
+        }
+    }
+
+    /**
+     * Deletes closed segments whose frames all have LSN up to {@code lsn}.
+     */
+    void deleteSegmentsCoveredBy(long lsn) throws IOException {
+        List<Path> segments = segments(directory);
+        // The last segment is the one being written
+        for (int i = 0; i < segments.size() - 1; i++) {
+            if (startLsn(segments.get(i + 1)) - 1 <= lsn) {
+                Files.delete(segments.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (monitor) {
+            closed = true;
+            monitor.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void flushLoop() {
+        try {
+            flush();
+        } finally {
+            synchronized (monitor) {
+                stopped = true;
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    private void flush() {
+        ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        while (true) {
+            ByteBuffer batch;
+            long batchLsn;
+            boolean rotate;
+            synchronized (monitor) {
+                while (pending.position() == 0 && !rotationRequested && !closed) {
+                    waitForFlusher();
+                }
+                if (pending.position() == 0 && !rotationRequested) {
+                    return;
+                }
+
+                batch = pending;
+                pending = spare;
+                batchLsn = lastLsn;
+                rotate = rotationRequested;
+            }
+
+            try {
+                batch.flip();
+                if (batch.hasRemaining()) {
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    channel.force(false);
+                }
+                if (rotate) {
+                    channel.close();
+                    channel = openSegment(batchLsn + 1);
+                }
+            } catch (IOException e) {
+                log.error("Write-ahead log flush failed", e);
+                synchronized (monitor) {
+                    failure = e;
+                    monitor.notifyAll();
+                }
+                return;
+            }
+
+            batch.clear();
+            spare = batch.capacity() > INITIAL_BUFFER_SIZE ? ByteBuffer.allocate(INITIAL_BUFFER_SIZE) : batch;
+            synchronized (monitor) {
+                durableLsn = batchLsn;
+                if (rotate) {
+                    rotationRequested = false;
+                    rotatedLsn = batchLsn;
+                }
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    private void waitForFlusher() {
+        try {
+            monitor.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the write-ahead log", e);
+        }
+    }
+
+    /**
+     * A leftover file with the same name can't hold intact frames: they would have LSNs already replayed.
+     */
+    private FileChannel openSegment(long startLsn) throws IOException {
+        Path segment = directory.resolve(String.format("wal-%020d.log", startLsn));
+        return FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().matches("wal-\\d{20}\\.log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long startLsn(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("wal-".length(), name.length() - ".log".length()));
+    }
+}
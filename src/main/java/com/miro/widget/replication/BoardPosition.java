@@ -0,0 +1,15 @@
+package com.miro.widget.replication;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * How far a follower got in a board of the leader. The incarnation tells apart stores the leader had for the same
+ * board id, a board released and created again starts over with a new change feed.
+ */
+@AllArgsConstructor
+@Getter
+class BoardPosition {
+    private long incarnation;
+    private long version;
+}
@@ -0,0 +1,245 @@
+package com.miro.widget.replication;
+
+import com.miro.widget.error.StaleReplicaException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.persistence.LogFrame;
+import com.miro.widget.repository.ReplicaWidgetStore;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Follower of replication: keeps a copy of every board of the leader at {@code widget.replication.leader} and serves
+ * it read-only. A board starts from a snapshot sent by the leader and follows the frames of writes after it; a frame
+ * is applied as one batch, so readers see the writes of the leader whole. The follower reconnects after losing the
+ * leader and resumes from its positions, a restarted leader sends every board again.
+ * Reads are refused once the follower has gone {@code widget.replication.max-staleness} without knowing it has
+ * everything the leader had, and before it caught up for the first time.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "widget.replication.role", havingValue = "follower")
+public class ReplicationFollower {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    // The leader sends heartbeats far more often, a connection silent for that long is gone
+    private static final int READ_TIMEOUT_MILLIS = 10_000;
+    private static final long RECONNECT_DELAY_MILLIS = 1_000;
+
+    private final ShardedWidgetRepository repository;
+    private final Supplier<InetSocketAddress> leader;
+    private final Duration maxStaleness;
+    private final Thread thread = new Thread(this::run, "widget-replication-follower");
+    // Touched only by the replication thread
+    private final Map<String, BoardPosition> positions = new HashMap<>();
+    private long epoch;
+
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    // Time of the last heartbeat, 0 before the first one
+    private volatile long caughtUpAt;
+
+    @Autowired
+    public ReplicationFollower(ShardedWidgetRepository repository,
+                               @Value("${widget.replication.leader:localhost:7070}") String leader,
+                               @Value("${widget.replication.max-staleness:5s}") Duration maxStaleness) {
+        this(repository, parseLeader(leader), maxStaleness);
+    }
+
+    /**
+     * @param leader address of the leader, asked again before every connection
+     */
+    ReplicationFollower(ShardedWidgetRepository repository, Supplier<InetSocketAddress> leader, Duration maxStaleness) {
+        this.repository = repository;
+        this.leader = leader;
+        this.maxStaleness = maxStaleness;
+        this.thread.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        thread.start();
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+        thread.interrupt();
+        thread.join();
+    }
+
+    /**
+     * Time since the follower last knew it had everything the leader had, empty before it caught up for the first time.
+     */
+    public Optional<Duration> getStaleness() {
+        long at = caughtUpAt;
+        return at == 0 ? Optional.empty() : Optional.of(Duration.ofNanos(System.nanoTime() - at));
+    }
+
+    /**
+     * Fails if reads would be staler than {@code widget.replication.max-staleness}.
+     */
+    public void checkStaleness() {
+        Optional<Duration> staleness = getStaleness();
+        if (staleness.isEmpty()) {
+            throw new StaleReplicaException("Replica hasn't caught up with the leader yet");
+        }
+        if (staleness.get().compareTo(maxStaleness) > 0) {
+            throw new StaleReplicaException(String.format("Replica is %d ms behind the leader",
+                    staleness.get().toMillis()));
+        }
+    }
+
+    private void run() {
+        while (running) {
+            InetSocketAddress leader = this.leader.get();
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(new InetSocketAddress(leader.getHostString(), leader.getPort()),
+                        CONNECT_TIMEOUT_MILLIS);
+                connection.setTcpNoDelay(true);
+                connection.setSoTimeout(READ_TIMEOUT_MILLIS);
+                replicate(connection, leader);
+            } catch (IOException | RuntimeException e) {
+                if (running) {
+                    log.warn("Replication from {} failed, reconnecting: {}", leader, e.toString());
+                }
+            }
+
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void replicate(Socket connection, InetSocketAddress leader) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        ReplicationProtocol.writeHello(out, epoch, positions);
+        out.flush();
+
+        if (in.readByte() != ReplicationProtocol.WELCOME) {
+            throw new IOException("Leader didn't welcome the follower");
+        }
+        long leaderEpoch = in.readLong();
+        if (leaderEpoch != epoch) {
+            // The leader doesn't know the positions, every board it has comes as a snapshot
+            positions.clear();
+            epoch = leaderEpoch;
+        }
+        log.info("Connected to leader {}, resuming {} boards", leader, positions.size());
+
+        boolean caughtUp = false;
+        while (running) {
+            byte type = in.readByte();
+            switch (type) {
+                case ReplicationProtocol.SNAPSHOT:
+                    applySnapshot(in);
+                    break;
+                case ReplicationProtocol.FRAME:
+                    applyFrame(in);
+                    break;
+                case ReplicationProtocol.HEARTBEAT:
+                    if (!caughtUp) {
+                        // The first round sent every board of the leader, the others are gone there
+                        dropBoardsWithoutPosition();
+                        caughtUp = true;
+                    }
+                    caughtUpAt = System.nanoTime();
+                    break;
+                default:
+                    throw new IOException(String.format("Unknown replication message %d", type));
+            }
+        }
+    }
+
+    /**
+     * Replaces the board with the snapshot in one batch: readers see either the old or the new board.
+     */
+    private void applySnapshot(DataInputStream in) throws IOException {
+        String boardId = in.readUTF();
+        BoardPosition position = new BoardPosition(in.readLong(), in.readLong());
+        List<Widget> widgets = ReplicationProtocol.readWidgets(in);
+
+        ReplicaWidgetStore replica = repository.getReplica(boardId);
+        List<WidgetOperation> operations = deleteAll(replica);
+        // In z-order into an empty board, nothing is shifted
+        widgets.forEach(widget -> operations.add(
+                new WidgetOperation(WidgetOperation.Type.CREATE, widget.getId().toString(), widget)));
+        replica.replicate(operations);
+        positions.put(boardId, position);
+    }
+
+    private void applyFrame(DataInputStream in) throws IOException {
+        long incarnation = in.readLong();
+        LogFrame frame = ReplicationProtocol.readFrame(in);
+        BoardPosition position = positions.get(frame.getBoardId());
+        if (position == null || position.getIncarnation() != incarnation) {
+            throw new IOException(String.format("Frame %d of board %s doesn't follow a snapshot",
+                    frame.getLsn(), frame.getBoardId()));
+        }
+
+        try {
+            repository.getReplica(frame.getBoardId()).replicate(frame.getOperations());
+        } catch (RuntimeException e) {
+            // Reconnecting without the position gets a snapshot of the board
+            positions.remove(frame.getBoardId());
+            throw e;
+        }
+        positions.put(frame.getBoardId(), new BoardPosition(incarnation, frame.getLsn()));
+    }
+
+    private void dropBoardsWithoutPosition() {
+        for (String boardId : repository.getBoards().keySet()) {
+            if (!positions.containsKey(boardId)) {
+                ReplicaWidgetStore replica = repository.getReplica(boardId);
+                replica.replicate(deleteAll(replica));
+            }
+        }
+    }
+
+    private static List<WidgetOperation> deleteAll(ReplicaWidgetStore replica) {
+        List<WidgetOperation> operations = new ArrayList<>();
+        for (Widget widget : replica.getAllWidgets()) {
+            operations.add(new WidgetOperation(WidgetOperation.Type.DELETE, widget.getId().toString(), null));
+        }
+        return operations;
+    }
+
+    private static Supplier<InetSocketAddress> parseLeader(String leader) {
+        int separator = leader.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException(String.format("Leader %s should be host:port", leader));
+        }
+
+        InetSocketAddress address = InetSocketAddress.createUnresolved(leader.substring(0, separator),
+                Integer.parseInt(leader.substring(separator + 1)));
+        return () -> address;
+    }
+}
@@ -0,0 +1,216 @@
+package com.miro.widget.replication;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.miro.widget.model.WidgetChange;
+import com.miro.widget.model.WidgetDelta;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.persistence.LogFrame;
+import com.miro.widget.repository.ChangeFeed;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Leader of replication: streams the writes of all boards to the followers connected to
+ * {@code widget.replication.port}. Every follower has a thread of its own which goes through the boards and sends
+ * each one the changes committed since the follower's position, or the whole board if the change feed doesn't have
+ * them anymore. The thread sleeps until the next commit of any board or {@code widget.replication.heartbeat-interval},
+ * a slow follower never holds up the writers.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "widget.replication.role", havingValue = "leader")
+public class ReplicationLeader {
+    private final ShardedWidgetRepository repository;
+    private final int port;
+    private final long heartbeatNanos;
+    // A follower of a restarted leader has to start over
+    private final long epoch = new SecureRandom().nextLong();
+    private final AtomicLong incarnations = new AtomicLong();
+    // Change feeds are dropped together with the boards released from memory
+    private final Cache<ChangeFeed, Long> feeds = Caffeine.newBuilder().weakKeys().build();
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+
+    public ReplicationLeader(ShardedWidgetRepository repository,
+                             @Value("${widget.replication.port:7070}") int port,
+                             @Value("${widget.replication.heartbeat-interval:100ms}") Duration heartbeatInterval) {
+        this.repository = repository;
+        this.port = port;
+        this.heartbeatNanos = heartbeatInterval.toNanos();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        // A restarted leader gets its port back while connections of the previous one are closing
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        Thread acceptor = new Thread(this::accept, "widget-replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Replicating to followers connecting to port {}", getPort());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        serverSocket.close();
+        sessions.forEach(Session::close);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int countFollowers() {
+        return sessions.size();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Session session = new Session(serverSocket.accept());
+                sessions.add(session);
+                session.thread.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Accepting a follower failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Numbers the change feeds of the boards, the first call for a feed starts waking the sessions on its commits.
+     */
+    private long incarnationOf(ChangeFeed feed) {
+        return feeds.get(feed, key -> {
+            key.addListener(() -> sessions.forEach(session -> LockSupport.unpark(session.thread)));
+            return incarnations.incrementAndGet();
+        });
+    }
+
+    /**
+     * Writes of a board as operations which replay them: creations and updates carry the widgets with their final
+     * z-index, so a follower in the same state shifts the same widgets. Shifts themselves need no operation.
+     */
+    private static List<WidgetOperation> operationsOf(List<WidgetChange> changes) {
+        List<WidgetOperation> operations = new ArrayList<>(changes.size());
+        for (WidgetChange change : changes) {
+            switch (change.getType()) {
+                case CREATE:
+                    operations.add(new WidgetOperation(WidgetOperation.Type.CREATE, change.getWidgetId(), change.getWidget()));
+                    break;
+                case UPDATE:
+                    operations.add(new WidgetOperation(WidgetOperation.Type.UPDATE, change.getWidgetId(), change.getWidget()));
+                    break;
+                case DELETE:
+                    operations.add(new WidgetOperation(WidgetOperation.Type.DELETE, change.getWidgetId(), null));
+                    break;
+                case Z_SHIFT:
+                    break;
+            }
+        }
+        return operations;
+    }
+
+    private final class Session implements Runnable {
+        private final Socket socket;
+        private final Thread thread;
+        // Touched only by the thread of the session
+        private final Map<String, BoardPosition> positions = new HashMap<>();
+
+        private Session(Socket socket) {
+            this.socket = socket;
+            this.thread = new Thread(this, "widget-replication-" + socket.getRemoteSocketAddress());
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                positions.putAll(ReplicationProtocol.readHello(in, epoch));
+                ReplicationProtocol.writeWelcome(out, epoch);
+                log.info("Follower {} connected, resuming {} boards", socket.getRemoteSocketAddress(), positions.size());
+
+                while (!socket.isClosed()) {
+                    for (Map.Entry<String, WidgetStore> board : repository.getBoards().entrySet()) {
+                        ship(out, board.getKey(), board.getValue());
+                    }
+                    ReplicationProtocol.writeHeartbeat(out);
+                    out.flush();
+                    // Woken by the next commit, the permit of a commit during the round makes this return at once
+                    LockSupport.parkNanos(heartbeatNanos);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!socket.isClosed()) {
+                    log.warn("Replication to follower {} failed", socket.getRemoteSocketAddress(), e);
+                }
+            } finally {
+                close();
+                sessions.remove(this);
+            }
+        }
+
+        private void ship(DataOutputStream out, String boardId, WidgetStore store) throws IOException {
+            ChangeFeed feed = store.getChangeFeed();
+            long incarnation = incarnationOf(feed);
+            BoardPosition position = positions.get(boardId);
+            if (position != null && position.getIncarnation() == incarnation) {
+                Optional<List<WidgetChange>> changes = feed.getChangesSince(position.getVersion());
+                if (changes.isPresent()) {
+                    if (!changes.get().isEmpty()) {
+                        // Changes up to the current version end with a commit, the frame is applied as one batch
+                        long version = changes.get().get(changes.get().size() - 1).getVersion();
+                        ReplicationProtocol.writeFrame(out, incarnation,
+                                new LogFrame(version, boardId, version, operationsOf(changes.get())));
+                        positions.put(boardId, new BoardPosition(incarnation, version));
+                    }
+                    return;
+                }
+            }
+
+            WidgetDelta snapshot = store.getSnapshot();
+            BoardPosition snapshotPosition = new BoardPosition(incarnation, snapshot.getVersion());
+            ReplicationProtocol.writeSnapshot(out, boardId, snapshotPosition, snapshot.getWidgets());
+            positions.put(boardId, snapshotPosition);
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Closing the socket of follower {} failed", socket.getRemoteSocketAddress(), e);
+            }
+        }
+    }
+}
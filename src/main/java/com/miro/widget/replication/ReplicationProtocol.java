@@ -0,0 +1,139 @@
+package com.miro.widget.replication;
+
+import com.miro.widget.model.Widget;
+import com.miro.widget.persistence.LogFrame;
+import com.miro.widget.persistence.WidgetCodec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages of the replication socket.
+ * A follower opens the connection with a hello: the epoch of the leader it replicated from before and its position
+ * in every board. The leader answers with its own epoch, positions of another epoch don't count. Then the leader
+ * streams, per board, a snapshot when the follower has to start the board over and frames with the writes following
+ * the follower's position. A heartbeat tells the follower it has everything the leader had when the heartbeat was
+ * sent. Widgets and writes are encoded as in the write-ahead log.
+ */
+final class ReplicationProtocol {
+    static final byte WELCOME = 1;
+    static final byte SNAPSHOT = 2;
+    static final byte FRAME = 3;
+    static final byte HEARTBEAT = 4;
+
+    private static final int MAGIC = 0x57445250;
+    private static final int WIDGETS_PER_CHUNK = 1024;
+
+    private ReplicationProtocol() {
+    }
+
+    static void writeHello(DataOutputStream out, long epoch, Map<String, BoardPosition> positions) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(epoch);
+        out.writeInt(positions.size());
+        for (Map.Entry<String, BoardPosition> entry : positions.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue().getIncarnation());
+            out.writeLong(entry.getValue().getVersion());
+        }
+    }
+
+    /**
+     * Reads the hello, returns the positions only if the follower replicated from the epoch before.
+     */
+    static Map<String, BoardPosition> readHello(DataInputStream in, long epoch) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a replication follower");
+        }
+
+        boolean sameEpoch = in.readLong() == epoch;
+        int count = in.readInt();
+        Map<String, BoardPosition> positions = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String boardId = in.readUTF();
+            BoardPosition position = new BoardPosition(in.readLong(), in.readLong());
+            if (sameEpoch) {
+                positions.put(boardId, position);
+            }
+        }
+        return positions;
+    }
+
+    static void writeWelcome(DataOutputStream out, long epoch) throws IOException {
+        out.writeByte(WELCOME);
+        out.writeLong(epoch);
+    }
+
+    static void writeHeartbeat(DataOutputStream out) throws IOException {
+        out.writeByte(HEARTBEAT);
+    }
+
+    /**
+     * Writes the board header and its widgets in z-order, encoded in chunks so a large board isn't copied at once.
+     */
+    static void writeSnapshot(DataOutputStream out, String boardId, BoardPosition position, List<Widget> widgets)
+            throws IOException {
+        out.writeByte(SNAPSHOT);
+        out.writeUTF(boardId);
+        out.writeLong(position.getIncarnation());
+        out.writeLong(position.getVersion());
+        out.writeInt(widgets.size());
+
+        ByteBuffer chunk = ByteBuffer.allocate(WIDGETS_PER_CHUNK * WidgetCodec.WIDGET_SIZE);
+        for (Widget widget : widgets) {
+            if (!chunk.hasRemaining()) {
+                out.write(chunk.array(), 0, chunk.position());
+                chunk.clear();
+            }
+            WidgetCodec.write(chunk, widget);
+        }
+        out.write(chunk.array(), 0, chunk.position());
+    }
+
+    /**
+     * Reads the widgets of a snapshot whose board header was read already.
+     */
+    static List<Widget> readWidgets(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Widget> widgets = new ArrayList<>(count);
+        byte[] chunk = new byte[WIDGETS_PER_CHUNK * WidgetCodec.WIDGET_SIZE];
+        while (widgets.size() < count) {
+            int length = Math.min(count - widgets.size(), WIDGETS_PER_CHUNK) * WidgetCodec.WIDGET_SIZE;
+            in.readFully(chunk, 0, length);
+            ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+            while (buffer.hasRemaining()) {
+                widgets.add(WidgetCodec.read(buffer));
+            }
+        }
+        return widgets;
+    }
+
+    static void writeFrame(DataOutputStream out, long incarnation, LogFrame frame) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(frame.size());
+        frame.write(buffer);
+
+        out.writeByte(FRAME);
+        out.writeLong(incarnation);
+        out.writeInt(buffer.capacity());
+        out.write(buffer.array());
+    }
+
+    /**
+     * Reads a frame whose incarnation was read already.
+     */
+    static LogFrame readFrame(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        LogFrame frame = LogFrame.read(ByteBuffer.wrap(bytes));
+        if (frame == null) {
+            throw new IOException("Corrupted replication frame");
+        }
+        return frame;
+    }
+}
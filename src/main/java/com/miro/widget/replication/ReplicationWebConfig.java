@@ -0,0 +1,38 @@
+package com.miro.widget.replication;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reads of a follower fail with 503 when it is staler than {@code widget.replication.max-staleness}, a client can
+ * go to another instance. Writes are refused by the boards themselves, see
+ * {@link com.miro.widget.repository.ReplicaWidgetStore}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "widget.replication.role", havingValue = "follower")
+public class ReplicationWebConfig implements WebMvcConfigurer {
+    private final ReplicationFollower follower;
+
+    public ReplicationWebConfig(ReplicationFollower follower) {
+        this.follower = follower;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                if ("GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod())) {
+                    follower.checkStaleness();
+                }
+                return true;
+            }
+        }).addPathPatterns("/api/**");
+    }
+}
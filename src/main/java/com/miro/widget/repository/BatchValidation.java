@@ -0,0 +1,63 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Checks a batch before it is applied, so the stores never have to roll back a partially applied batch.
+ */
+final class BatchValidation {
+
+    private BatchValidation() {
+    }
+
+    /**
+     * Checks that every update and delete refers to a widget which still exists at its position in the batch: it is
+     * in the store or created earlier in the batch, and not deleted earlier in the batch. Creations with an id come
+     * from replicated and replayed writes, a client can't name the widget it creates.
+     *
+     * @return results with the failed operations and the rest skipped, or empty if the batch can be applied
+     */
+    static Optional<List<WidgetOperationResult>> findFailures(List<WidgetOperation> operations, Predicate<UUID> exists) {
+        // Widgets created or deleted by the batch so far
+        Map<UUID, Boolean> present = new HashMap<>();
+        Map<Integer, String> failures = new HashMap<>();
+
+        for (int i = 0; i < operations.size(); i++) {
+            WidgetOperation operation = operations.get(i);
+            if (operation.getType() == WidgetOperation.Type.CREATE) {
+                if (operation.getWidget() != null && operation.getWidget().getId() != null) {
+                    present.put(operation.getWidget().getId(), true);
+                }
+                continue;
+            }
+
+            try {
+                UUID id = UUID.fromString(operation.getWidgetId());
+                if (!present.computeIfAbsent(id, exists::test)) {
+                    throw new WidgetNotFoundException(operation.getWidgetId());
+                }
+                if (operation.getType() == WidgetOperation.Type.DELETE) {
+                    present.put(id, false);
+                }
+            } catch (RuntimeException e) {
+                failures.put(i, e.getMessage());
+            }
+        }
+
+        if (failures.isEmpty()) {
+            return Optional.empty();
+        }
+
+        List<WidgetOperationResult> results = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            String failure = failures.get(i);
+            results.add(failure == null ? WidgetOperationResult.skipped() : WidgetOperationResult.failed(failure));
+        }
+        return Optional.of(results);
+    }
+}
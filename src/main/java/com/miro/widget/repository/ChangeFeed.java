@@ -0,0 +1,205 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.PreconditionFailedException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetChange;
+import com.miro.widget.model.WidgetRevision;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Versioned changes of a board kept in a bounded ring buffer.
+ * Every change gets the next version of the board. Stores record changes under their write lock and commit them once
+ * the write succeeds, so the changes of a write (a batch included) become visible together and in the order the
+ * board went through them. Writers never wait for readers: the oldest changes are overwritten, and a reader whose
+ * position was overwritten has to reload the board.
+ * Committed changes also maintain a {@link ModificationIndex}, so widgets changed since an old version are found
+ * without going through the changes one by one.
+ */
+public class ChangeFeed {
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_TOMBSTONE_WINDOW = 100_000;
+
+    private final WidgetChange[] ring;
+    private final List<WidgetChange> pending = new ArrayList<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final ModificationIndex modifications;
+    // Written under the monitor, read without it
+    private volatile long version;
+    // Version the board was restored at, changes before it are not in the ring
+    private volatile long firstVersion;
+
+    public ChangeFeed() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ChangeFeed(int capacity) {
+        this(capacity, DEFAULT_TOMBSTONE_WINDOW);
+    }
+
+    /**
+     * @param tombstoneWindow number of versions for which deletions and z-shifts are kept in the modification index
+     */
+    public ChangeFeed(int capacity, long tombstoneWindow) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive");
+        }
+        this.ring = new WidgetChange[capacity];
+        this.modifications = new ModificationIndex(tombstoneWindow);
+    }
+
+    /**
+     * Version of the last committed change, 0 for a board which never changed.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Oldest version the changes after which are known, the version the board was restored at by {@link #resumeAt}.
+     */
+    public long getFirstVersion() {
+        return firstVersion;
+    }
+
+    /**
+     * Continues the versions of a board restored from storage. The board goes on at the version if it is behind it,
+     * and the history is cut at the current version: the changes recorded so far only rebuilt the board, so a version
+     * before it is answered as overwritten, and widgets with no change after it count as changed at it.
+     * A board is stored together with its version, so restoring it at that version before it is loaded keeps the
+     * versions of the board, and with them widget revisions and delta cursors, from repeating those it had before.
+     * Must be called by whoever restores the board before it is shared, with no write in progress.
+     */
+    public synchronized void resumeAt(long restoredVersion) {
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException("Changes of a write are pending");
+        }
+
+        version = Math.max(version, restoredVersion);
+        firstVersion = version;
+        modifications.resumeAt(version);
+    }
+
+    /**
+     * Returns changes committed after the version in order, or nothing if some of them were already overwritten.
+     */
+    public synchronized Optional<List<WidgetChange>> getChangesSince(long sinceVersion) {
+        if (sinceVersion >= version) {
+            return Optional.of(Collections.emptyList());
+        }
+        if (version - sinceVersion > ring.length || sinceVersion < firstVersion) {
+            return Optional.empty();
+        }
+
+        List<WidgetChange> changes = new ArrayList<>((int) (version - sinceVersion));
+        for (long next = sinceVersion + 1; next <= version; next++) {
+            changes.add(ring[slot(next)]);
+        }
+        return Optional.of(changes);
+    }
+
+    /**
+     * Returns ids of widgets modified after the version up to the current one, or nothing if the version is older than
+     * the tombstone window or newer than the board.
+     */
+    synchronized Optional<ModificationIndex.Modifications> getModificationsSince(long sinceVersion) {
+        if (sinceVersion > version || sinceVersion < 0) {
+            return Optional.empty();
+        }
+        return modifications.since(sinceVersion, version);
+    }
+
+    /**
+     * Version of the last modification of the widget, the version the board was restored at if it isn't known.
+     */
+    public long getWidgetVersion(String widgetId) {
+        return modifications.versionOf(widgetId);
+    }
+
+    /**
+     * Fails if the widget is at another revision than expected. Called by stores under their write lock before
+     * the widget is changed; a missing widget ({@code zIndex} null) is left for the store to report.
+     */
+    void checkRevision(String widgetId, Integer zIndex, WidgetRevision expected) {
+        if (expected != null && zIndex != null
+                && !expected.equals(new WidgetRevision(getWidgetVersion(widgetId), zIndex))) {
+            throw new PreconditionFailedException(widgetId);
+        }
+    }
+
+    /**
+     * Registers a callback run after every commit. It runs on the writing thread and must not block.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    void created(Widget widget) {
+        record(WidgetChange.Type.CREATE, widget.getId().toString(), widget, null, null);
+    }
+
+    void updated(Widget widget) {
+        record(WidgetChange.Type.UPDATE, widget.getId().toString(), widget, null, null);
+    }
+
+    void deleted(String widgetId) {
+        record(WidgetChange.Type.DELETE, widgetId, null, null, null);
+    }
+
+    void shifted(int fromZIndex, int count) {
+        if (count > 0) {
+            record(WidgetChange.Type.Z_SHIFT, null, null, fromZIndex, count);
+        }
+    }
+
+    /**
+     * Publishes the changes recorded by the current write.
+     */
+    void commit() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            for (WidgetChange change : pending) {
+                ring[slot(change.getVersion())] = change;
+                modifications.apply(change);
+            }
+            version = pending.get(pending.size() - 1).getVersion();
+            modifications.expire(version);
+        }
+        pending.clear();
+        listeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Drops the changes recorded by a write which failed without changing the board.
+     */
+    void rollback() {
+        pending.clear();
+    }
+
+    /**
+     * Version the current write will be committed at, the current version if it recorded no changes.
+     */
+    long getPendingVersion() {
+        return pending.isEmpty() ? getVersion() : pending.get(pending.size() - 1).getVersion();
+    }
+
+    private void record(WidgetChange.Type type, String widgetId, Widget widget, Integer fromZIndex, Integer count) {
+        long next = getPendingVersion() + 1;
+        pending.add(new WidgetChange(next, type, widgetId, widget, fromZIndex, count));
+    }
+
+    private int slot(long changeVersion) {
+        return (int) (changeVersion % ring.length);
+    }
+}
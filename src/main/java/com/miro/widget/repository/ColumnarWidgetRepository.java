@@ -0,0 +1,430 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetDelta;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * In-memory widget storage keeping every field in a primitive column indexed by slot.
+ * Ids map to slots through an open-addressing {@link SlotMap} and z-order is a {@link SlotZIndexTree} over the same
+ * slots, so a stored widget costs no objects at all; {@link Widget}s are only created for the results of reads.
+ * Timestamps are kept as UTC epoch milliseconds. Area queries and hit-tests go through a {@link SlotGrid} of slot
+ * numbers and check the candidates on the coordinate columns.
+ */
+public class ColumnarWidgetRepository implements WidgetStore {
+    private static final byte LIVE = 1;
+    private static final byte NO_HEIGHT = 2;
+    private static final byte NO_WIDTH = 4;
+    private static final byte NO_LAST_MODIFIED = 8;
+
+    private final WidgetStoreMetrics metrics;
+    private final ChangeFeed changeFeed;
+    private final StampedLock lock = new StampedLock();
+    private final SlotMap slots = new SlotMap();
+    private final SlotZIndexTree index = new SlotZIndexTree();
+    private final SlotGrid grid = new SlotGrid();
+
+    private long[] idMostBits = new long[0];
+    private long[] idLeastBits = new long[0];
+    private int[] centerX = new int[0];
+    private int[] centerY = new int[0];
+    private int[] height = new int[0];
+    private int[] width = new int[0];
+    private long[] lastModified = new long[0];
+    private byte[] flags = new byte[0];
+    // Slots below the watermark which were freed by deletes
+    private int[] freeSlots = new int[0];
+    private int freeCount;
+    private int watermark;
+
+    public ColumnarWidgetRepository() {
+        this(new WidgetStoreMetrics(), new ChangeFeed());
+    }
+
+    public ColumnarWidgetRepository(WidgetStoreMetrics metrics, ChangeFeed changeFeed) {
+        this.metrics = metrics;
+        this.changeFeed = changeFeed;
+    }
+
+    @Override
+    public Widget addWidget(Widget newWidget) {
+        return write(() -> add(newWidget));
+    }
+
+    @Override
+    public Widget updateWidget(String widgetId, Widget newWidget, WidgetRevision expected) {
+        return write(() -> {
+            checkRevision(widgetId, expected);
+            return update(widgetId, newWidget);
+        });
+    }
+
+    @Override
+    public Widget patchWidget(String widgetId, WidgetPatch patch, WidgetRevision expected) {
+        return write(() -> {
+            checkRevision(widgetId, expected);
+            return patch(widgetId, patch);
+        });
+    }
+
+    @Override
+    public void deleteWidget(String widgetId, WidgetRevision expected) {
+        write(() -> {
+            checkRevision(widgetId, expected);
+            delete(widgetId);
+            return null;
+        });
+    }
+
+    /**
+     * The whole batch is checked and applied under one write lock acquisition.
+     */
+    @Override
+    public List<WidgetOperationResult> applyBatch(List<WidgetOperation> operations) {
+        return write(() -> {
+            Optional<List<WidgetOperationResult>> failures =
+                    BatchValidation.findFailures(operations, id -> slots.get(id) != SlotMap.NONE);
+            if (failures.isPresent()) {
+                return failures.get();
+            }
+
+            List<WidgetOperationResult> results = new ArrayList<>(operations.size());
+            for (WidgetOperation operation : operations) {
+                switch (operation.getType()) {
+                    case CREATE:
+                        results.add(WidgetOperationResult.applied(add(operation.getWidget())));
+                        break;
+                    case UPDATE:
+                        results.add(WidgetOperationResult.applied(update(operation.getWidgetId(), operation.getWidget())));
+                        break;
+                    case PATCH:
+                        results.add(WidgetOperationResult.applied(patch(operation.getWidgetId(), operation.getPatch())));
+                        break;
+                    case DELETE:
+                        delete(operation.getWidgetId());
+                        results.add(WidgetOperationResult.applied(null));
+                        break;
+                }
+            }
+            return results;
+        });
+    }
+
+    @Override
+    public Widget getWidget(String widgetId) {
+        UUID id = UUID.fromString(widgetId);
+        Widget result = read(() -> {
+            int slot = slots.get(id);
+            return slot == SlotMap.NONE ? null : materialize(slot, index.zIndexOf(slot));
+        });
+
+        if (result == null) {
+            throw new WidgetNotFoundException(widgetId);
+        }
+
+        return result;
+    }
+
+    @Override
+    public Collection<Widget> getAllWidgets() {
+        return read(() -> readPage(0, Integer.MAX_VALUE).getWidgets());
+    }
+
+    @Override
+    public WidgetDelta getSnapshot() {
+        return read(() -> new WidgetDelta(
+                changeFeed.getVersion(), true, readPage(0, Integer.MAX_VALUE).getWidgets(), Collections.emptyList()));
+    }
+
+    @Override
+    public WidgetPage getWidgetsPage(int offset, int limit) {
+        return read(() -> readPage(offset, limit));
+    }
+
+    @Override
+    public WidgetPage getWidgetsAfter(Integer cursor, int limit) {
+        if (cursor != null && cursor == Integer.MAX_VALUE) {
+            return read(() -> new WidgetPage(Collections.emptyList(), index.size(), index.size()));
+        }
+
+        return read(() -> readPage(cursor == null ? 0 : index.rankOf(cursor + 1), limit));
+    }
+
+    @Override
+    public int countWidgets() {
+        return read(index::size);
+    }
+
+    @Override
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Candidates of the grid are checked on the coordinate columns, only matching widgets are materialized.
+     */
+    @Override
+    public Collection<Widget> getWidgetsInArea(Area area) {
+        return read(() -> {
+            List<Widget> result = new ArrayList<>();
+            for (int slot : grid.candidates(area)) {
+                if (contains(area, slot)) {
+                    result.add(materialize(slot, index.zIndexOf(slot)));
+                }
+            }
+            result.sort(Comparator.comparing(Widget::getZIndex));
+            return result;
+        });
+    }
+
+    /**
+     * Checks the candidates of the grid cells under the point like {@link #getWidgetsInArea}.
+     */
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y) {
+        return read(() -> {
+            List<Widget> result = new ArrayList<>();
+            for (int slot : grid.candidates(new Area(x, y, x, y))) {
+                if (covers(slot, x, y)) {
+                    result.add(materialize(slot, index.zIndexOf(slot)));
+                }
+            }
+            result.sort(Comparator.comparing(Widget::getZIndex).reversed());
+            return result;
+        });
+    }
+
+    private Widget add(Widget newWidget) {
+        Integer zIndex = newWidget.getZIndex();
+        if (zIndex == null) {
+            zIndex = index.isEmpty() ? 0 : index.lastZIndex() + 1;
+        }
+
+        Widget widget = newWidget.updateZIndex(zIndex);
+        int slot = allocateSlot();
+        store(slot, widget);
+        slots.put(widget.getId(), slot);
+        shifted(zIndex, index.insert(slot, zIndex));
+        changeFeed.created(widget);
+
+        return widget;
+    }
+
+    private Widget update(String widgetId, Widget newWidget) {
+        UUID id = UUID.fromString(widgetId);
+        int slot = slots.get(id);
+        if (slot == SlotMap.NONE) {
+            throw new WidgetNotFoundException(widgetId);
+        }
+
+        int oldZIndex = index.zIndexOf(slot);
+        Widget widget = newWidget.updateId(id);
+        if (widget.getZIndex() == null) {
+            widget = widget.updateZIndex(index.lastZIndex() + 1);
+        }
+
+        if (oldZIndex != widget.getZIndex()) {
+            index.remove(slot);
+            shifted(widget.getZIndex(), index.insert(slot, widget.getZIndex()));
+        }
+        store(slot, widget);
+        changeFeed.updated(widget);
+
+        return widget;
+    }
+
+    private Widget patch(String widgetId, WidgetPatch patch) {
+        int slot = slots.get(UUID.fromString(widgetId));
+        if (slot == SlotMap.NONE) {
+            throw new WidgetNotFoundException(widgetId);
+        }
+
+        return update(widgetId, patch.applyTo(materialize(slot, index.zIndexOf(slot))));
+    }
+
+    private void delete(String widgetId) {
+        UUID id = UUID.fromString(widgetId);
+        int slot = slots.get(id);
+        if (slot == SlotMap.NONE) {
+            throw new WidgetNotFoundException(widgetId);
+        }
+
+        index.remove(slot);
+        slots.remove(id);
+        removeFromGrid(slot);
+        flags[slot] = 0;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(16, freeCount * 2));
+        }
+        freeSlots[freeCount++] = slot;
+        changeFeed.deleted(widgetId);
+    }
+
+    private void checkRevision(String widgetId, WidgetRevision expected) {
+        if (expected != null) {
+            int slot = slots.get(UUID.fromString(widgetId));
+            changeFeed.checkRevision(widgetId, slot == SlotMap.NONE ? null : index.zIndexOf(slot), expected);
+        }
+    }
+
+    private void shifted(int zIndex, int count) {
+        metrics.recordShift(count);
+        changeFeed.shifted(zIndex, count);
+    }
+
+    private WidgetPage readPage(int offset, int limit) {
+        int size = index.size();
+        List<Widget> widgets = new ArrayList<>(Math.min(limit, Math.max(size - offset, 0)));
+        SlotZIndexTree.SlotIterator iterator = index.iterator(offset);
+        while (iterator.hasNext() && widgets.size() < limit) {
+            int slot = iterator.next();
+            widgets.add(materialize(slot, iterator.zIndex()));
+        }
+
+        return new WidgetPage(widgets, offset, size);
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+
+        if (watermark == flags.length) {
+            int capacity = Math.max(16, watermark + (watermark >> 1));
+            idMostBits = Arrays.copyOf(idMostBits, capacity);
+            idLeastBits = Arrays.copyOf(idLeastBits, capacity);
+            centerX = Arrays.copyOf(centerX, capacity);
+            centerY = Arrays.copyOf(centerY, capacity);
+            height = Arrays.copyOf(height, capacity);
+            width = Arrays.copyOf(width, capacity);
+            lastModified = Arrays.copyOf(lastModified, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        return watermark++;
+    }
+
+    /**
+     * Keeps the grid in step with the columns: a live slot leaves the cells of its old bounding box first.
+     */
+    private void store(int slot, Widget widget) {
+        if ((flags[slot] & LIVE) != 0) {
+            removeFromGrid(slot);
+        }
+
+        byte slotFlags = LIVE;
+        if (widget.getHeight() == null) {
+            slotFlags |= NO_HEIGHT;
+        }
+        if (widget.getWidth() == null) {
+            slotFlags |= NO_WIDTH;
+        }
+        if (widget.getLastModified() == null) {
+            slotFlags |= NO_LAST_MODIFIED;
+        }
+
+        idMostBits[slot] = widget.getId().getMostSignificantBits();
+        idLeastBits[slot] = widget.getId().getLeastSignificantBits();
+        centerX[slot] = widget.getCenterX();
+        centerY[slot] = widget.getCenterY();
+        height[slot] = widget.getHeight() == null ? 0 : widget.getHeight();
+        width[slot] = widget.getWidth() == null ? 0 : widget.getWidth();
+        lastModified[slot] = widget.getLastModified() == null
+                ? 0 : widget.getLastModified().toInstant(ZoneOffset.UTC).toEpochMilli();
+        flags[slot] = slotFlags;
+        grid.add(slot, centerX[slot], centerY[slot], slotWidth(slot), slotHeight(slot));
+    }
+
+    private void removeFromGrid(int slot) {
+        grid.remove(slot, centerX[slot], centerY[slot], slotWidth(slot), slotHeight(slot));
+    }
+
+    private long slotWidth(int slot) {
+        return (flags[slot] & NO_WIDTH) == 0 ? width[slot] : 0;
+    }
+
+    private long slotHeight(int slot) {
+        return (flags[slot] & NO_HEIGHT) == 0 ? height[slot] : 0;
+    }
+
+    private Widget materialize(int slot, int zIndex) {
+        byte slotFlags = flags[slot];
+        return new Widget(
+                new UUID(idMostBits[slot], idLeastBits[slot]),
+                centerX[slot],
+                centerY[slot],
+                zIndex,
+                (slotFlags & NO_HEIGHT) == 0 ? height[slot] : null,
+                (slotFlags & NO_WIDTH) == 0 ? width[slot] : null,
+                (slotFlags & NO_LAST_MODIFIED) == 0
+                        ? LocalDateTime.ofInstant(Instant.ofEpochMilli(lastModified[slot]), ZoneOffset.UTC) : null
+        );
+    }
+
+    /**
+     * Same check as {@link Area#contains} done on the columns, coordinates are doubled to stay in integers.
+     */
+    private boolean contains(Area area, int slot) {
+        long slotWidth = slotWidth(slot);
+        long slotHeight = slotHeight(slot);
+        long doubledX = 2L * centerX[slot];
+        long doubledY = 2L * centerY[slot];
+
+        return doubledX - slotWidth >= 2L * area.getX1() && doubledX + slotWidth <= 2L * area.getX2()
+                && doubledY - slotHeight >= 2L * area.getY1() && doubledY + slotHeight <= 2L * area.getY2();
+    }
+
+    private boolean covers(int slot, int x, int y) {
+        long slotWidth = slotWidth(slot);
+        long slotHeight = slotHeight(slot);
+        long doubledX = 2L * centerX[slot];
+        long doubledY = 2L * centerY[slot];
+
+        return Math.abs(2L * x - doubledX) <= slotWidth && Math.abs(2L * y - doubledY) <= slotHeight;
+    }
+
+    /**
+     * Writes fail only before changing anything, so the changes of a failed write are dropped.
+     */
+    private <T> T write(Supplier<T> write) {
+        long requested = System.nanoTime();
+        long stamp = lock.writeLock();
+        long acquired = System.nanoTime();
+        metrics.recordLockWait(acquired - requested);
+        try {
+            T result = write.get();
+            changeFeed.commit();
+            return result;
+        } catch (RuntimeException e) {
+            changeFeed.rollback();
+            throw e;
+        } finally {
+            lock.unlockWrite(stamp);
+            metrics.recordLockHold(System.nanoTime() - acquired);
+        }
+    }
+
+    /**
+     * Reads take the read lock: an optimistic walk over arrays rewritten in place could loop on a torn tree.
+     */
+    private <T> T read(Supplier<T> read) {
+        long stamp = lock.readLock();
+        try {
+            return read.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetDelta;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Widget storage of one board kept in the {@link WidgetDatabase}.
+ * Writers of the board serialize on a lock and every write is one database transaction, so readers, which go to the
+ * database without locking, see a batch either whole or not at all. An insert into an occupied z-index finds the end
+ * of the run with one query and moves the run with one set-based UPDATE. Within a batch, deletes and updates which
+ * keep the z-index are sent as JDBC batches until an operation needs to read the board. The version of the board is
+ * stored by the transaction of every write, a store created for the board later goes on from it.
+ */
+public class JdbcWidgetStore implements WidgetStore {
+    private static final String COLUMNS = "id, center_x, center_y, z_index, height, width, last_modified";
+    private static final String SELECT = "SELECT " + COLUMNS + " FROM widget WHERE board_id = ?";
+    private static final String INSERT = "INSERT INTO widget (center_x, center_y, z_index, height, width, last_modified, "
+            + "min_x, min_y, max_x, max_y, board_id, id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE widget SET center_x = ?, center_y = ?, z_index = ?, height = ?, "
+            + "width = ?, last_modified = ?, min_x = ?, min_y = ?, max_x = ?, max_y = ? WHERE board_id = ? AND id = ?";
+    private static final String DELETE = "DELETE FROM widget WHERE board_id = ? AND id = ?";
+    private static final String UPDATE_VERSION = "UPDATE board SET version = ? WHERE board_id = ?";
+    private static final String INSERT_VERSION = "INSERT INTO board (version, board_id) VALUES (?, ?)";
+
+    private final WidgetDatabase database;
+    private final String boardId;
+    private final WidgetStoreMetrics metrics;
+    private final ChangeFeed changeFeed;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public JdbcWidgetStore(WidgetDatabase database, String boardId) {
+        this(database, boardId, new WidgetStoreMetrics(), new ChangeFeed());
+    }
+
+    public JdbcWidgetStore(WidgetDatabase database, String boardId, WidgetStoreMetrics metrics, ChangeFeed changeFeed) {
+        this.database = database;
+        this.boardId = boardId;
+        this.metrics = metrics;
+        this.changeFeed = changeFeed;
+        changeFeed.resumeAt(database.getBoardVersion(boardId));
+    }
+
+    @Override
+    public Widget addWidget(Widget newWidget) {
+        return write(transaction -> transaction.add(newWidget));
+    }
+
+    @Override
+    public Widget updateWidget(String widgetId, Widget newWidget, WidgetRevision expected) {
+        return write(transaction -> {
+            transaction.checkRevision(widgetId, expected);
+            return transaction.update(widgetId, newWidget);
+        });
+    }
+
+    @Override
+    public Widget patchWidget(String widgetId, WidgetPatch patch, WidgetRevision expected) {
+        return write(transaction -> {
+            transaction.checkRevision(widgetId, expected);
+            return transaction.patch(widgetId, patch);
+        });
+    }
+
+    @Override
+    public void deleteWidget(String widgetId, WidgetRevision expected) {
+        write(transaction -> {
+            transaction.checkRevision(widgetId, expected);
+            transaction.delete(widgetId);
+            return null;
+        });
+    }
+
+    /**
+     * The whole batch is checked and applied in one transaction.
+     */
+    @Override
+    public List<WidgetOperationResult> applyBatch(List<WidgetOperation> operations) {
+        return write(transaction -> {
+            Optional<List<WidgetOperationResult>> failures =
+                    BatchValidation.findFailures(operations, id -> transaction.exists(id));
+            if (failures.isPresent()) {
+                return failures.get();
+            }
+
+            List<WidgetOperationResult> results = new ArrayList<>(operations.size());
+            for (WidgetOperation operation : operations) {
+                switch (operation.getType()) {
+                    case CREATE:
+                        results.add(WidgetOperationResult.applied(transaction.add(operation.getWidget())));
+                        break;
+                    case UPDATE:
+                        results.add(WidgetOperationResult.applied(transaction.update(operation.getWidgetId(), operation.getWidget())));
+                        break;
+                    case PATCH:
+                        results.add(WidgetOperationResult.applied(transaction.patch(operation.getWidgetId(), operation.getPatch())));
+                        break;
+                    case DELETE:
+                        transaction.delete(operation.getWidgetId());
+                        results.add(WidgetOperationResult.applied(null));
+                        break;
+                }
+            }
+            return results;
+        });
+    }
+
+    @Override
+    public Widget getWidget(String widgetId) {
+        UUID id = UUID.fromString(widgetId);
+        List<Widget> found = read(connection -> query(connection, SELECT + " AND id = ?", id));
+        if (found.isEmpty()) {
+            throw new WidgetNotFoundException(widgetId);
+        }
+
+        return found.get(0);
+    }
+
+    @Override
+    public Collection<Widget> getAllWidgets() {
+        return read(connection -> query(connection, SELECT + " ORDER BY z_index"));
+    }
+
+    /**
+     * Taken under the write lock: a write commits its transaction before its changes.
+     */
+    @Override
+    public WidgetDelta getSnapshot() {
+        writeLock.lock();
+        try {
+            return new WidgetDelta(changeFeed.getVersion(), true, new ArrayList<>(getAllWidgets()),
+                    Collections.emptyList());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public WidgetPage getWidgetsPage(int offset, int limit) {
+        return read(connection -> new WidgetPage(
+                query(connection, SELECT + " ORDER BY z_index LIMIT ? OFFSET ?", limit, offset),
+                offset,
+                count(connection, "")));
+    }
+
+    @Override
+    public WidgetPage getWidgetsAfter(Integer cursor, int limit) {
+        if (cursor == null) {
+            return getWidgetsPage(0, limit);
+        }
+
+        return read(connection -> new WidgetPage(
+                query(connection, SELECT + " AND z_index > ? ORDER BY z_index LIMIT ?", cursor, limit),
+                count(connection, " AND z_index <= ?", cursor),
+                count(connection, "")));
+    }
+
+    @Override
+    public int countWidgets() {
+        return read(connection -> count(connection, ""));
+    }
+
+    @Override
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Ranges over the bounding box index, a widget inside the area has its lower corner inside it as well.
+     */
+    @Override
+    public Collection<Widget> getWidgetsInArea(Area area) {
+        return read(connection -> query(connection, SELECT
+                        + " AND min_x BETWEEN ? AND ? AND min_y BETWEEN ? AND ? AND max_x <= ? AND max_y <= ?"
+                        + " ORDER BY z_index",
+                2L * area.getX1(), 2L * area.getX2(), 2L * area.getY1(), 2L * area.getY2(),
+                2L * area.getX2(), 2L * area.getY2()));
+    }
+
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y) {
+        return read(connection -> query(connection, SELECT
+                        + " AND min_x <= ? AND min_y <= ? AND max_x >= ? AND max_y >= ? ORDER BY z_index DESC",
+                2L * x, 2L * y, 2L * x, 2L * y));
+    }
+
+    private List<Widget> query(Connection connection, String sql, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, parameters);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                List<Widget> widgets = new ArrayList<>();
+                while (resultSet.next()) {
+                    widgets.add(toWidget(resultSet));
+                }
+                return widgets;
+            }
+        }
+    }
+
+    private int count(Connection connection, String condition, Object... parameters) throws SQLException {
+        try (PreparedStatement statement =
+                     connection.prepareStatement("SELECT COUNT(*) FROM widget WHERE board_id = ?" + condition)) {
+            bind(statement, parameters);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Binds the board id followed by the parameters.
+     */
+    private void bind(PreparedStatement statement, Object... parameters) throws SQLException {
+        statement.setString(1, boardId);
+        for (int i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 2, parameters[i]);
+        }
+    }
+
+    /**
+     * Runs the write in a transaction under the write lock, recording how long it waited for the lock and how long
+     * it held it. The change feed is committed together with the transaction and rolled back with it.
+     */
+    private <T> T write(SqlFunction<Transaction, T> write) {
+        long requested = System.nanoTime();
+        writeLock.lock();
+        long acquired = System.nanoTime();
+        metrics.recordLockWait(acquired - requested);
+        try (Connection connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Transaction transaction = new Transaction(connection)) {
+                T result = write.apply(transaction);
+                transaction.flush();
+                transaction.storeVersion(changeFeed.getPendingVersion());
+                connection.commit();
+                changeFeed.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                changeFeed.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(String.format("Write to board %s failed", boardId), e);
+        } finally {
+            writeLock.unlock();
+            metrics.recordLockHold(System.nanoTime() - acquired);
+        }
+    }
+
+    private <T> T read(SqlFunction<Connection, T> read) {
+        try (Connection connection = database.getConnection()) {
+            return read.apply(connection);
+        } catch (SQLException e) {
+            throw new IllegalStateException(String.format("Read of board %s failed", boardId), e);
+        }
+    }
+
+    private static Widget toWidget(ResultSet resultSet) throws SQLException {
+        return new Widget(
+                resultSet.getObject(1, UUID.class),
+                resultSet.getInt(2),
+                resultSet.getInt(3),
+                resultSet.getInt(4),
+                resultSet.getObject(5, Integer.class),
+                resultSet.getObject(6, Integer.class),
+                resultSet.getObject(7, LocalDateTime.class)
+        );
+    }
+
+    @FunctionalInterface
+    private interface SqlFunction<T, R> {
+        R apply(T value) throws SQLException;
+    }
+
+    /**
+     * Writes of one transaction. Statements are prepared once per transaction and reused by the operations of a batch.
+     */
+    private final class Transaction implements AutoCloseable {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private int pendingDeletes;
+        private int pendingUpdates;
+
+        private Transaction(Connection connection) {
+            this.connection = connection;
+        }
+
+        private Widget add(Widget newWidget) throws SQLException {
+            flush();
+            Integer zIndex = newWidget.getZIndex();
+            if (zIndex == null) {
+                Integer lastZIndex = lastZIndex();
+                zIndex = lastZIndex == null ? 0 : lastZIndex + 1;
+            }
+
+            Widget widget = newWidget.updateZIndex(zIndex);
+            shifted(zIndex, shift(zIndex));
+            insert(widget);
+            changeFeed.created(widget);
+
+            return widget;
+        }
+
+        /**
+         * A widget keeping its z-index is rewritten in place by a batched statement, a moved one is removed from
+         * the z-order and inserted back at its new z-index.
+         */
+        private Widget update(String widgetId, Widget newWidget) throws SQLException {
+            UUID id = UUID.fromString(widgetId);
+            // Pending statements never change a z-index, so this one is current
+            Integer oldZIndex = zIndexOf(id);
+            if (oldZIndex == null) {
+                throw new WidgetNotFoundException(widgetId);
+            }
+
+            Widget widget = newWidget.updateId(id);
+            if (widget.getZIndex() == null) {
+                flush();
+                widget = widget.updateZIndex(lastZIndex() + 1);
+            }
+
+            if (oldZIndex.equals(widget.getZIndex())) {
+                PreparedStatement statement = statement(UPDATE);
+                setFields(statement, 1, widget);
+                statement.setString(11, boardId);
+                statement.setObject(12, id);
+                statement.addBatch();
+                pendingUpdates++;
+            } else {
+                flush();
+                deleteRow(id);
+                shifted(widget.getZIndex(), shift(widget.getZIndex()));
+                insert(widget);
+            }
+            changeFeed.updated(widget);
+
+            return widget;
+        }
+
+        /**
+         * The patched widget keeps its z-index unless the patch sets one, so the update doesn't touch the z-order.
+         */
+        private Widget patch(String widgetId, WidgetPatch patch) throws SQLException {
+            flush();
+            Widget widget = find(UUID.fromString(widgetId));
+            if (widget == null) {
+                throw new WidgetNotFoundException(widgetId);
+            }
+
+            return update(widgetId, patch.applyTo(widget));
+        }
+
+        private void delete(String widgetId) throws SQLException {
+            UUID id = UUID.fromString(widgetId);
+            if (zIndexOf(id) == null) {
+                throw new WidgetNotFoundException(widgetId);
+            }
+
+            PreparedStatement statement = statement(DELETE);
+            statement.setString(1, boardId);
+            statement.setObject(2, id);
+            statement.addBatch();
+            pendingDeletes++;
+            changeFeed.deleted(widgetId);
+        }
+
+        private void checkRevision(String widgetId, WidgetRevision expected) throws SQLException {
+            if (expected != null) {
+                changeFeed.checkRevision(widgetId, zIndexOf(UUID.fromString(widgetId)), expected);
+            }
+        }
+
+        private boolean exists(UUID id) {
+            try {
+                return zIndexOf(id) != null;
+            } catch (SQLException e) {
+                throw new IllegalStateException(String.format("Read of board %s failed", boardId), e);
+            }
+        }
+
+        /**
+         * Sends the batched statements, must be called before anything that reads more than a single row.
+         */
+        private void flush() throws SQLException {
+            if (pendingDeletes > 0) {
+                statement(DELETE).executeBatch();
+                pendingDeletes = 0;
+            }
+            if (pendingUpdates > 0) {
+                statement(UPDATE).executeBatch();
+                pendingUpdates = 0;
+            }
+        }
+
+        /**
+         * Stores the version the write takes the board to, unless it changed nothing.
+         */
+        private void storeVersion(long version) throws SQLException {
+            if (version == changeFeed.getVersion()) {
+                return;
+            }
+
+            PreparedStatement update = statement(UPDATE_VERSION);
+            update.setLong(1, version);
+            update.setString(2, boardId);
+            if (update.executeUpdate() == 0) {
+                PreparedStatement insert = statement(INSERT_VERSION);
+                insert.setLong(1, version);
+                insert.setString(2, boardId);
+                insert.executeUpdate();
+            }
+        }
+
+        /**
+         * Moves the run of z-indexes starting from the given one up by one.
+         *
+         * @return length of the run, zero if the z-index is free
+         */
+        private int shift(int zIndex) throws SQLException {
+            if (single("SELECT z_index FROM widget WHERE board_id = ? AND z_index = ?", zIndex) == null) {
+                return 0;
+            }
+
+            // The last widget of the run is the first one from the z-index whose successor is free
+            int runEnd = single("SELECT z_index FROM widget w WHERE board_id = ? AND z_index >= ? AND NOT EXISTS "
+                    + "(SELECT 1 FROM widget n WHERE n.board_id = w.board_id AND n.z_index = CAST(w.z_index AS BIGINT) + 1) "
+                    + "ORDER BY z_index LIMIT 1", zIndex);
+            PreparedStatement statement = statement(
+                    "UPDATE widget SET z_index = z_index + 1 WHERE board_id = ? AND z_index BETWEEN ? AND ?");
+            statement.setString(1, boardId);
+            statement.setInt(2, zIndex);
+            statement.setInt(3, runEnd);
+            statement.executeUpdate();
+
+            return runEnd - zIndex + 1;
+        }
+
+        private void shifted(int zIndex, int count) {
+            metrics.recordShift(count);
+            changeFeed.shifted(zIndex, count);
+        }
+
+        private void insert(Widget widget) throws SQLException {
+            PreparedStatement statement = statement(INSERT);
+            setFields(statement, 1, widget);
+            statement.setString(11, boardId);
+            statement.setObject(12, widget.getId());
+            statement.executeUpdate();
+        }
+
+        private void deleteRow(UUID id) throws SQLException {
+            // A statement of its own, the batched one may hold pending deletes
+            try (PreparedStatement statement = connection.prepareStatement(DELETE)) {
+                statement.setString(1, boardId);
+                statement.setObject(2, id);
+                statement.executeUpdate();
+            }
+        }
+
+        private Widget find(UUID id) throws SQLException {
+            PreparedStatement statement = statement(SELECT + " AND id = ?");
+            statement.setString(1, boardId);
+            statement.setObject(2, id);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? toWidget(resultSet) : null;
+            }
+        }
+
+        private Integer zIndexOf(UUID id) throws SQLException {
+            return single("SELECT z_index FROM widget WHERE board_id = ? AND id = ?", id);
+        }
+
+        private Integer lastZIndex() throws SQLException {
+            return single("SELECT MAX(z_index) FROM widget WHERE board_id = ?");
+        }
+
+        /**
+         * Runs a query for a single int value bound to the board id and the parameter, null if there is no row.
+         */
+        private Integer single(String sql, Object... parameters) throws SQLException {
+            PreparedStatement statement = statement(sql);
+            bind(statement, parameters);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getObject(1, Integer.class) : null;
+            }
+        }
+
+        private PreparedStatement statement(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Binds the stored fields of the widget starting from the given parameter, ten parameters in all.
+     */
+    private static void setFields(PreparedStatement statement, int from, Widget widget) throws SQLException {
+        long doubledX = 2L * widget.getCenterX();
+        long doubledY = 2L * widget.getCenterY();
+        long width = widget.getWidth() == null ? 0 : widget.getWidth();
+        long height = widget.getHeight() == null ? 0 : widget.getHeight();
+
+        statement.setInt(from, widget.getCenterX());
+        statement.setInt(from + 1, widget.getCenterY());
+        statement.setInt(from + 2, widget.getZIndex());
+        setNullableInt(statement, from + 3, widget.getHeight());
+        setNullableInt(statement, from + 4, widget.getWidth());
+        statement.setObject(from + 5, widget.getLastModified());
+        statement.setLong(from + 6, doubledX - width);
+        statement.setLong(from + 7, doubledY - height);
+        statement.setLong(from + 8, doubledX + width);
+        statement.setLong(from + 9, doubledY + height);
+    }
+
+    private static void setNullableInt(PreparedStatement statement, int index, Integer value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setInt(index, value);
+        }
+    }
+}
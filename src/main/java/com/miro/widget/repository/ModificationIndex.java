@@ -0,0 +1,163 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.model.WidgetChange;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Version of the last modification of every widget, ordered by version.
+ * Deleted widgets stay in the index as tombstones and z-shifts are kept as ranges, both for the last
+ * {@code window} versions; a version older than that can't be answered incrementally. The index is not thread safe,
+ * {@link ChangeFeed} guards it together with the version; only {@link #versionOf} may be called without the guard,
+ * versions of widgets are kept in a concurrent map so that reading a revision never waits for a commit.
+ */
+class ModificationIndex {
+    private final long window;
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private final TreeMap<Long, String> modified = new TreeMap<>();
+    private final TreeMap<Long, String> tombstones = new TreeMap<>();
+    // Version, first z-index and length of every shift, oldest first
+    private final ArrayDeque<long[]> shifts = new ArrayDeque<>();
+    // Oldest version which can still be answered
+    private long horizon;
+    // Version of the widgets which weren't modified since the board was restored
+    private volatile long restoredVersion;
+
+    ModificationIndex(long window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Tombstone window should be positive");
+        }
+        this.window = window;
+    }
+
+    void apply(WidgetChange change) {
+        switch (change.getType()) {
+            case CREATE:
+            case UPDATE:
+                modify(change.getVersion(), change.getWidgetId());
+                break;
+            case DELETE:
+                modify(change.getVersion(), change.getWidgetId());
+                tombstones.put(change.getVersion(), change.getWidgetId());
+                break;
+            case Z_SHIFT:
+                shifts.add(new long[]{change.getVersion(), change.getFromZIndex(), change.getCount()});
+                break;
+        }
+    }
+
+    long versionOf(String widgetId) {
+        return versions.getOrDefault(widgetId, restoredVersion);
+    }
+
+    /**
+     * Forgets the modifications up to the version of a restored board, see {@link ChangeFeed#resumeAt}.
+     */
+    void resumeAt(long version) {
+        versions.clear();
+        modified.clear();
+        tombstones.clear();
+        shifts.clear();
+        horizon = version;
+        restoredVersion = version;
+    }
+
+    /**
+     * Drops tombstones and shifts which fell out of the window.
+     */
+    void expire(long version) {
+        long oldest = version - window;
+        while (!tombstones.isEmpty() && tombstones.firstKey() <= oldest) {
+            Map.Entry<Long, String> tombstone = tombstones.pollFirstEntry();
+            modified.remove(tombstone.getKey());
+            versions.remove(tombstone.getValue());
+            horizon = tombstone.getKey();
+        }
+        while (!shifts.isEmpty() && shifts.peek()[0] <= oldest) {
+            horizon = shifts.poll()[0];
+        }
+    }
+
+    /**
+     * Returns what changed after the version up to the current one, or nothing if tombstones or shifts after it were
+     * already dropped.
+     */
+    Optional<Modifications> since(long sinceVersion, long version) {
+        if (sinceVersion < horizon) {
+            return Optional.empty();
+        }
+
+        List<String> changedIds = new ArrayList<>();
+        List<String> deletedIds = new ArrayList<>();
+        for (Map.Entry<Long, String> entry : modified.tailMap(sinceVersion, false).entrySet()) {
+            (tombstones.containsKey(entry.getKey()) ? deletedIds : changedIds).add(entry.getValue());
+        }
+
+        return Optional.of(new Modifications(version, changedIds, deletedIds, shiftedRanges(sinceVersion)));
+    }
+
+    /**
+     * Z-index ranges holding every widget moved by the shifts after the version.
+     * A shift moves its run up by one and every later shift moves a widget up by one at most, so the run of a shift is
+     * now within its original bounds stretched by the number of shifts which followed it. The ranges may cover
+     * widgets which weren't moved, they are returned as changed too.
+     */
+    private List<long[]> shiftedRanges(long sinceVersion) {
+        List<long[]> ranges = new ArrayList<>();
+        int later = 0;
+        for (Iterator<long[]> iterator = shifts.descendingIterator(); iterator.hasNext(); later++) {
+            long[] shift = iterator.next();
+            if (shift[0] <= sinceVersion) {
+                break;
+            }
+            ranges.add(new long[]{shift[1] + 1, Math.min(shift[1] + shift[2] + later, Integer.MAX_VALUE)});
+        }
+
+        ranges.sort((first, second) -> Long.compare(first[0], second[0]));
+        List<long[]> merged = new ArrayList<>(ranges.size());
+        for (long[] range : ranges) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    private void modify(long version, String widgetId) {
+        Long previous = versions.put(widgetId, version);
+        if (previous != null) {
+            modified.remove(previous);
+            tombstones.remove(previous);
+        }
+        modified.put(version, widgetId);
+    }
+
+    /**
+     * Ids of widgets changed and deleted between two versions, together with disjoint z-index ranges of shifted
+     * widgets in ascending order.
+     */
+    static class Modifications {
+        final long version;
+        final List<String> changedIds;
+        final List<String> deletedIds;
+        final List<long[]> shiftedRanges;
+
+        private Modifications(long version, List<String> changedIds, List<String> deletedIds,
+                              List<long[]> shiftedRanges) {
+            this.version = version;
+            this.changedIds = changedIds;
+            this.deletedIds = deletedIds;
+            this.shiftedRanges = shiftedRanges;
+        }
+    }
+}
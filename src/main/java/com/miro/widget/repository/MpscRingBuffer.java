@@ -0,0 +1,81 @@
+package com.miro.widget.repository;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * Producers claim a position by a CAS on the tail and publish the element through the sequence of its slot, the
+ * consumer takes elements whose slot sequence says they are published. Slots are reused in rounds, so the buffer
+ * never allocates after construction.
+ */
+class MpscRingBuffer<T> {
+    private final Object[] elements;
+    // Position + 1 once the element at the position is published, position + capacity once the slot is free again
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final int mask;
+    private long head;
+
+    MpscRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity should be a positive power of two");
+        }
+
+        this.elements = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds the element unless the buffer is full. Can be called from any thread.
+     */
+    boolean offer(T element) {
+        while (true) {
+            long position = tail.get();
+            int slot = (int) (position & mask);
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[slot] = element;
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@code limit} published elements to the list in order. Must be called from the consumer thread only.
+     *
+     * @return number of moved elements
+     */
+    @SuppressWarnings("unchecked")
+    int drainTo(List<T> target, int limit) {
+        int drained = 0;
+        while (drained < limit) {
+            int slot = (int) (head & mask);
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+
+            target.add((T) elements[slot]);
+            elements[slot] = null;
+            sequences.set(slot, head + elements.length);
+            head++;
+            drained++;
+        }
+
+        return drained;
+    }
+
+    boolean isEmpty() {
+        return sequences.get((int) (head & mask)) != head + 1;
+    }
+}
@@ -0,0 +1,98 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Vector;
+
+import java.util.Set;
+import java.util.UUID;
+
+import static com.miro.widget.repository.SpatialIndex.cellSize;
+import static com.miro.widget.repository.SpatialIndex.cellsOf;
+import static com.miro.widget.repository.SpatialIndex.key;
+import static com.miro.widget.repository.SpatialIndex.levelOf;
+
+/**
+ * Immutable counterpart of {@link SpatialIndex} built on persistent hash maps.
+ * Levels and cells are laid out the same way; every modification returns a new version sharing untouched cells
+ * with the old one.
+ */
+public final class PersistentSpatialIndex {
+    public static final PersistentSpatialIndex EMPTY = new PersistentSpatialIndex(Vector.empty());
+
+    private final int minCellSize = SpatialIndex.DEFAULT_MIN_CELL_SIZE;
+    private final Vector<HashMap<Long, HashSet<UUID>>> levels;
+
+    private PersistentSpatialIndex(Vector<HashMap<Long, HashSet<UUID>>> levels) {
+        this.levels = levels;
+    }
+
+    public PersistentSpatialIndex add(Widget widget) {
+        int level = levelOf(widget, minCellSize);
+        Vector<HashMap<Long, HashSet<UUID>>> grown = levels;
+        while (grown.size() <= level) {
+            grown = grown.append(HashMap.empty());
+        }
+
+        HashMap<Long, HashSet<UUID>> result = grown.get(level);
+        SpatialIndex.CellRange range = cellsOf(widget, cellSize(level, minCellSize));
+        for (long x = range.minX; x <= range.maxX; x++) {
+            for (long y = range.minY; y <= range.maxY; y++) {
+                Long key = key(x, y);
+                result = result.put(key, result.get(key).getOrElse(HashSet.empty()).add(widget.getId()));
+            }
+        }
+        return new PersistentSpatialIndex(grown.update(level, result));
+    }
+
+    public PersistentSpatialIndex remove(Widget widget) {
+        int level = levelOf(widget, minCellSize);
+        if (level >= levels.size()) {
+            return this;
+        }
+
+        HashMap<Long, HashSet<UUID>> result = levels.get(level);
+        SpatialIndex.CellRange range = cellsOf(widget, cellSize(level, minCellSize));
+        for (long x = range.minX; x <= range.maxX; x++) {
+            for (long y = range.minY; y <= range.maxY; y++) {
+                Long key = key(x, y);
+                HashSet<UUID> cell = result.get(key).getOrElse(HashSet.empty()).remove(widget.getId());
+                result = cell.isEmpty() ? result.remove(key) : result.put(key, cell);
+            }
+        }
+        return new PersistentSpatialIndex(levels.update(level, result));
+    }
+
+    /**
+     * Returns ids of the widgets whose bounding box may intersect the area, see {@link SpatialIndex#candidates(Area)}.
+     */
+    public Set<UUID> candidates(Area area) {
+        Set<UUID> result = new java.util.HashSet<>();
+
+        for (int level = 0; level < levels.size(); level++) {
+            HashMap<Long, HashSet<UUID>> cells = levels.get(level);
+            if (cells.isEmpty()) {
+                continue;
+            }
+
+            SpatialIndex.CellRange range = cellsOf(area, cellSize(level, minCellSize));
+            if (range.count() > cells.size()) {
+                cells.forEach((key, ids) -> {
+                    if (range.contains(key)) {
+                        ids.forEach(result::add);
+                    }
+                });
+            } else {
+                for (long x = range.minX; x <= range.maxX; x++) {
+                    for (long y = range.minY; y <= range.maxY; y++) {
+                        cells.get(key(x, y)).forEach(ids -> ids.forEach(result::add));
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+}
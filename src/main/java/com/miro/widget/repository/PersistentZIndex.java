@@ -0,0 +1,417 @@
+package com.miro.widget.repository;
+
+import io.vavr.collection.HashMap;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable z-order of widget ids kept as a treap ordered by sparse keys.
+ * Every id gets a long key when it is inserted and the key doesn't change when other ids are inserted around it.
+ * Z-indexes are not stored at all: like in {@link SlotZIndexTree}, every node knows the number of free z-indexes in front
+ * of it, so an insert into an occupied z-index closes the first gap after the run instead of moving the run.
+ * A new key is taken from the middle between the keys of its neighbours. When the neighbours are adjacent, the keys of
+ * a window around the insert are spread evenly again, doubling the window until it has enough room.
+ * Every modification copies only the nodes on the touched paths and shares the rest with the previous version,
+ * so old versions stay valid and can be read concurrently without any locking.
+ */
+public final class PersistentZIndex {
+    public static final PersistentZIndex EMPTY = new PersistentZIndex(null, HashMap.empty());
+
+    // The gap of the first node is counted from this value, so any int z-index can be stored
+    private static final long BASE = Integer.MIN_VALUE;
+    // Exclusive bounds of the keys, a distance between any two keys fits into a long
+    private static final long MIN_KEY = -(1L << 61);
+    private static final long MAX_KEY = 1L << 61;
+    // Distance from the neighbour for a key put at either end of the order
+    private static final long STEP = 1L << 32;
+
+    private final Node root;
+    private final HashMap<UUID, Long> keys;
+
+    private PersistentZIndex(Node root, HashMap<UUID, Long> keys) {
+        this.root = root;
+        this.keys = keys;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public Integer lastZIndex() {
+        return root == null ? null : toZIndex(span(root));
+    }
+
+    /**
+     * Returns the z-index of the id or null if it is not in the index.
+     */
+    public Integer zIndexOf(UUID id) {
+        Long key = keys.get(id).getOrNull();
+        if (key == null) {
+            return null;
+        }
+
+        long position = 0;
+        Node node = root;
+        while (node.key != key) {
+            if (key < node.key) {
+                node = node.left;
+            } else {
+                position += span(node.left) + node.gap + 1;
+                node = node.right;
+            }
+        }
+        return toZIndex(position + span(node.left) + node.gap + 1);
+    }
+
+    /**
+     * Number of ids with z-index lower than the given one.
+     */
+    public int rankOf(int zIndex) {
+        long position = zIndex - BASE;
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            long leftSpan = span(node.left);
+            if (position <= leftSpan + node.gap) {
+                node = node.left;
+            } else {
+                position -= leftSpan + node.gap + 1;
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+
+        return rank;
+    }
+
+    /**
+     * Returns a version with the id put at the z-index. If the z-index is occupied, the contiguous run of z-indexes
+     * starting from it is shifted up by one and its length is reported to the listener, zero is reported otherwise.
+     * The id must not be in the index.
+     */
+    public PersistentZIndex insert(UUID id, int zIndex, IntConsumer shiftListener) {
+        int rank = rankOf(zIndex);
+        PersistentZIndex target = hasRoomAt(rank) ? this : spread(rank);
+        long key = target.keyAt(rank);
+
+        Node[] split = split(target.root, rank);
+        Node before = split[0];
+        Node after = split[1];
+        // Position of the predecessor is the span of everything before it
+        long gap = zIndex - BASE - span(before);
+        int shifted = 0;
+
+        if (after != null) {
+            Node[] first = split(after, 1);
+            Node next = first[0];
+            Node tail = first[1];
+            if (next.gap > gap) {
+                // Free z-index: the node takes a part of the gap in front of its successor
+                next = next.withGap(next.gap - gap - 1);
+            } else {
+                // Occupied z-index: the node takes the place of its successor and the first gap after the run is closed
+                next = next.withGap(0);
+                int gapIndex = firstGapIndex(tail);
+                shifted = 1 + (gapIndex < 0 ? size(tail) : gapIndex);
+                if (gapIndex >= 0) {
+                    Node[] run = split(tail, gapIndex);
+                    Node[] closed = split(run[1], 1);
+                    tail = merge(run[0], merge(closed[0].withGap(closed[0].gap - 1), closed[1]));
+                }
+            }
+            after = merge(next, tail);
+        }
+        shiftListener.accept(shifted);
+
+        Node node = new Node(key, id, ThreadLocalRandom.current().nextInt(), gap, null, null);
+        return new PersistentZIndex(merge(merge(before, node), after), target.keys.put(id, key));
+    }
+
+    /**
+     * Returns a version without the id, z-indexes of the rest stay unchanged.
+     */
+    public PersistentZIndex remove(UUID id) {
+        Long key = keys.get(id).getOrNull();
+        if (key == null) {
+            return this;
+        }
+
+        Node[] split = split(root, rankOfKey(key));
+        Node[] removed = split(split[1], 1);
+        Node tail = removed[1];
+        if (tail != null) {
+            Node[] next = split(tail, 1);
+            tail = merge(next[0].withGap(next[0].gap + removed[0].gap + 1), next[1]);
+        }
+
+        return new PersistentZIndex(merge(split[0], tail), keys.remove(id));
+    }
+
+    /**
+     * Iterates over (z-index, id) pairs in z-order starting from the given rank.
+     */
+    public Iterator<Map.Entry<Integer, UUID>> iterator(int fromRank) {
+        Deque<Node> stack = new ArrayDeque<>();
+        long start = 0;
+        Node node = root;
+        int rank = fromRank;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (rank < leftSize) {
+                stack.push(node);
+                node = node.left;
+            } else if (rank == leftSize) {
+                stack.push(node);
+                start += span(node.left);
+                break;
+            } else {
+                rank -= leftSize + 1;
+                start += span(node.left) + node.gap + 1;
+                node = node.right;
+            }
+        }
+
+        long startPosition = start;
+        return new Iterator<>() {
+            private long position = startPosition;
+
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<Integer, UUID> next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+
+                Node next = stack.pop();
+                position += next.gap + 1;
+                for (Node child = next.right; child != null; child = child.left) {
+                    stack.push(child);
+                }
+                return new AbstractMap.SimpleImmutableEntry<>(toZIndex(position), next.id);
+            }
+        };
+    }
+
+    private boolean hasRoomAt(int rank) {
+        return upperKey(rank) - lowerKey(rank) > 1;
+    }
+
+    /**
+     * Key for a node inserted at the rank, there must be room for it.
+     */
+    private long keyAt(int rank) {
+        long lower = lowerKey(rank);
+        long upper = upperKey(rank);
+        long middle = lower + (upper - lower) / 2;
+        if (lower == MIN_KEY && upper == MAX_KEY) {
+            return 0;
+        }
+        // At the ends of the order the keys are spread by steps, halving the room every time would soon exhaust it
+        if (upper == MAX_KEY) {
+            return Math.min(lower + STEP, middle);
+        }
+        if (lower == MIN_KEY) {
+            return Math.max(upper - STEP, middle);
+        }
+        return middle;
+    }
+
+    private long lowerKey(int rank) {
+        return rank == 0 ? MIN_KEY : nodeAt(rank - 1).key;
+    }
+
+    private long upperKey(int rank) {
+        return rank == size() ? MAX_KEY : nodeAt(rank).key;
+    }
+
+    /**
+     * Returns a version where keys around the rank are spread evenly and leave room for a node inserted at the rank.
+     * The window is doubled until the distance between its keys is larger than its width, so spreading a large window
+     * is followed by many inserts which find room.
+     */
+    private PersistentZIndex spread(int rank) {
+        int size = size();
+        for (int width = 2; ; width *= 2) {
+            int from = Math.max(0, Math.min(rank - width / 2, size - width));
+            int to = Math.min(size, from + width);
+            long lower = from == 0 ? MIN_KEY : nodeAt(from - 1).key;
+            long upper = to == size ? MAX_KEY : nodeAt(to).key;
+            long spacing = (upper - lower) / (to - from + 2);
+            if (spacing > to - from) {
+                Node[] head = split(root, from);
+                Node[] window = split(head[1], to - from);
+                Respacing respacing = new Respacing(lower, spacing, rank - from, keys);
+                Node spread = respacing.apply(window[0]);
+
+                return new PersistentZIndex(merge(merge(head[0], spread), window[1]), respacing.keys);
+            }
+        }
+    }
+
+    private Node nodeAt(int rank) {
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (rank < leftSize) {
+                node = node.left;
+            } else if (rank == leftSize) {
+                return node;
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private int rankOfKey(long key) {
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            if (key < node.key) {
+                node = node.left;
+            } else if (key > node.key) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return rank + size(node.left);
+            }
+        }
+
+        return rank;
+    }
+
+    private static int firstGapIndex(Node node) {
+        int offset = 0;
+        while (node != null && node.maxGap > 0) {
+            if (node.left != null && node.left.maxGap > 0) {
+                node = node.left;
+            } else if (node.gap > 0) {
+                return offset + size(node.left);
+            } else {
+                offset += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Splits the tree into the first {@code count} nodes and the rest.
+     */
+    private static Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+
+        int leftSize = size(node.left);
+        if (count <= leftSize) {
+            Node[] split = split(node.left, count);
+            return new Node[]{split[0], node.with(split[1], node.right)};
+        }
+
+        Node[] split = split(node.right, count - leftSize - 1);
+        return new Node[]{node.with(node.left, split[0]), split[1]};
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        }
+        return right.with(merge(left, right.left), right.right);
+    }
+
+    private static int toZIndex(long position) {
+        return (int) (BASE + position - 1);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static long span(Node node) {
+        return node == null ? 0 : node.gapSum + node.size;
+    }
+
+    /**
+     * Copies a window of nodes in order giving them evenly spread keys, one step is skipped for the inserted node.
+     */
+    private static final class Respacing {
+        private final long lower;
+        private final long spacing;
+        private final int skipped;
+        private HashMap<UUID, Long> keys;
+        private int next;
+
+        private Respacing(long lower, long spacing, int skipped, HashMap<UUID, Long> keys) {
+            this.lower = lower;
+            this.spacing = spacing;
+            this.skipped = skipped;
+            this.keys = keys;
+        }
+
+        private Node apply(Node node) {
+            if (node == null) {
+                return null;
+            }
+
+            Node left = apply(node.left);
+            long key = lower + spacing * (next < skipped ? next + 1 : next + 2);
+            next++;
+            keys = keys.put(node.id, key);
+            Node right = apply(node.right);
+
+            return new Node(key, node.id, node.priority, node.gap, left, right);
+        }
+    }
+
+    private static final class Node {
+        private final long key;
+        private final UUID id;
+        private final int priority;
+        // Number of free z-indexes between the node and its predecessor
+        private final long gap;
+        private final Node left;
+        private final Node right;
+        private final int size;
+        private final long gapSum;
+        private final long maxGap;
+
+        private Node(long key, UUID id, int priority, long gap, Node left, Node right) {
+            this.key = key;
+            this.id = id;
+            this.priority = priority;
+            this.gap = gap;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+            this.gapSum = gap + (left == null ? 0 : left.gapSum) + (right == null ? 0 : right.gapSum);
+            this.maxGap = Math.max(gap, Math.max(left == null ? 0 : left.maxGap, right == null ? 0 : right.maxGap));
+        }
+
+        private Node with(Node left, Node right) {
+            return left == this.left && right == this.right ? this : new Node(key, id, priority, gap, left, right);
+        }
+
+        private Node withGap(long gap) {
+            return gap == this.gap ? this : new Node(key, id, priority, gap, left, right);
+        }
+    }
+}
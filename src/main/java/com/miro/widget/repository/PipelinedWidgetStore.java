@@ -0,0 +1,103 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetDelta;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * {@link WidgetRepository} whose writes go through the {@link WritePipeline} instead of taking the lock in the calling
+ * thread. Reads go to the repository directly and stay optimistic.
+ */
+public class PipelinedWidgetStore implements WidgetStore {
+    private final WidgetRepository repository;
+    private final WritePipeline pipeline;
+
+    PipelinedWidgetStore(WidgetRepository repository, WritePipeline pipeline) {
+        this.repository = repository;
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public Widget addWidget(Widget newWidget) {
+        return (Widget) pipeline.submit(WidgetCommand.add(repository, newWidget));
+    }
+
+    @Override
+    public Widget updateWidget(String widgetId, Widget newWidget, WidgetRevision expected) {
+        return (Widget) pipeline.submit(WidgetCommand.update(repository, widgetId, newWidget, expected));
+    }
+
+    @Override
+    public Widget patchWidget(String widgetId, WidgetPatch patch, WidgetRevision expected) {
+        return (Widget) pipeline.submit(WidgetCommand.patch(repository, widgetId, patch, expected));
+    }
+
+    @Override
+    public void deleteWidget(String widgetId, WidgetRevision expected) {
+        pipeline.submit(WidgetCommand.delete(repository, widgetId, expected));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<WidgetOperationResult> applyBatch(List<WidgetOperation> operations) {
+        return (List<WidgetOperationResult>) pipeline.submit(WidgetCommand.batch(repository, operations));
+    }
+
+    @Override
+    public Widget getWidget(String widgetId) {
+        return repository.getWidget(widgetId);
+    }
+
+    @Override
+    public Collection<Widget> getAllWidgets() {
+        return repository.getAllWidgets();
+    }
+
+    @Override
+    public WidgetDelta getSnapshot() {
+        return repository.getSnapshot();
+    }
+
+    @Override
+    public WidgetStore asOf(long version) {
+        return repository.asOf(version);
+    }
+
+    @Override
+    public WidgetPage getWidgetsPage(int offset, int limit) {
+        return repository.getWidgetsPage(offset, limit);
+    }
+
+    @Override
+    public WidgetPage getWidgetsAfter(Integer cursor, int limit) {
+        return repository.getWidgetsAfter(cursor, limit);
+    }
+
+    @Override
+    public int countWidgets() {
+        return repository.countWidgets();
+    }
+
+    @Override
+    public Collection<Widget> getWidgetsInArea(Area area) {
+        return repository.getWidgetsInArea(area);
+    }
+
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y) {
+        return repository.getWidgetsAt(x, y);
+    }
+
+    @Override
+    public ChangeFeed getChangeFeed() {
+        return repository.getChangeFeed();
+    }
+}
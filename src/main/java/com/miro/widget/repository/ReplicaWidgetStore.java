@@ -0,0 +1,118 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.ReadOnlyReplicaException;
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetDelta;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Store of a board on a follower. Clients only read it, writes of any kind fail with {@link ReadOnlyReplicaException};
+ * the writes of the leader are applied through {@link #replicate}. Changes still go through the change feed of the
+ * board, so the sockets and subscribers of a follower see them as on the leader.
+ */
+public class ReplicaWidgetStore implements WidgetStore {
+    private final String boardId;
+    private final WidgetStore delegate;
+
+    ReplicaWidgetStore(String boardId, WidgetStore delegate) {
+        this.boardId = boardId;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Applies writes of the leader as one batch, fails if any of them doesn't apply: the replica has diverged.
+     */
+    public void replicate(List<WidgetOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        List<WidgetOperationResult> results = delegate.applyBatch(operations);
+        if (results.stream().anyMatch(result -> result.getStatus() != WidgetOperationResult.Status.APPLIED)) {
+            throw new IllegalStateException(String.format("Replicated writes don't apply to board %s", boardId));
+        }
+    }
+
+    @Override
+    public Widget addWidget(Widget newWidget) {
+        throw new ReadOnlyReplicaException(boardId);
+    }
+
+    @Override
+    public Widget updateWidget(String widgetId, Widget newWidget, WidgetRevision expected) {
+        throw new ReadOnlyReplicaException(boardId);
+    }
+
+    @Override
+    public Widget patchWidget(String widgetId, WidgetPatch patch, WidgetRevision expected) {
+        throw new ReadOnlyReplicaException(boardId);
+    }
+
+    @Override
+    public void deleteWidget(String widgetId, WidgetRevision expected) {
+        throw new ReadOnlyReplicaException(boardId);
+    }
+
+    @Override
+    public List<WidgetOperationResult> applyBatch(List<WidgetOperation> operations) {
+        throw new ReadOnlyReplicaException(boardId);
+    }
+
+    @Override
+    public Widget getWidget(String widgetId) {
+        return delegate.getWidget(widgetId);
+    }
+
+    @Override
+    public Collection<Widget> getAllWidgets() {
+        return delegate.getAllWidgets();
+    }
+
+    @Override
+    public WidgetDelta getSnapshot() {
+        return delegate.getSnapshot();
+    }
+
+    @Override
+    public WidgetStore asOf(long version) {
+        return delegate.asOf(version);
+    }
+
+    @Override
+    public WidgetPage getWidgetsPage(int offset, int limit) {
+        return delegate.getWidgetsPage(offset, limit);
+    }
+
+    @Override
+    public WidgetPage getWidgetsAfter(Integer cursor, int limit) {
+        return delegate.getWidgetsAfter(cursor, limit);
+    }
+
+    @Override
+    public int countWidgets() {
+        return delegate.countWidgets();
+    }
+
+    @Override
+    public Collection<Widget> getWidgetsInArea(Area area) {
+        return delegate.getWidgetsInArea(area);
+    }
+
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y) {
+        return delegate.getWidgetsAt(x, y);
+    }
+
+    @Override
+    public ChangeFeed getChangeFeed() {
+        return delegate.getChangeFeed();
+    }
+}
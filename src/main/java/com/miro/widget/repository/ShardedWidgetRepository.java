@@ -0,0 +1,269 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.BadRequestException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.persistence.WidgetPersistence;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Widget stores sharded by board.
+ * Every board has its own storage, z-index and lock, so writes to different boards never wait for each other.
+ * Boards are created on first access. Boards other than the default one are released from memory after being idle
+ * for {@code widget.boards.idle-timeout}, which needs somewhere to load them back from: with persistence enabled
+ * boards are restored on startup and an evicted board is snapshotted and loaded back on next access, in the jdbc
+ * mode boards live in the {@link WidgetDatabase} and an evicted board only loses the changes of its feed. Either way
+ * a board loaded back goes on from the version it was stored at, see {@link ChangeFeed#resumeAt}. Without either an
+ * idle timeout would delete the widgets of idle boards, so it is refused. A board is touched atomically with its
+ * lookup, so it can't be evicted between being returned and written. Reads of a board which doesn't exist anywhere
+ * go to an empty store and don't create it, only writes and subscriptions do.
+ * On a replication follower every board is a {@link ReplicaWidgetStore} which only the leader's writes change.
+ * In the pipelined mode boards are spread by id over one {@link WritePipeline} per CPU: a writer thread serves only
+ * its group of boards, and more writers than CPUs would only preempt each other.
+ */
+@Repository
+public class ShardedWidgetRepository {
+    public static final String DEFAULT_BOARD = "default";
+
+    private final ConcurrentMap<String, Board> boards = new ConcurrentHashMap<>();
+    private final Function<String, WidgetStore> storeFactory;
+    // Never written, reads of boards which don't exist go to it
+    private final WidgetStore emptyBoard;
+    private final WidgetDatabase database;
+    private final long idleTimeoutNanos;
+    private final WidgetPersistence persistence;
+    private final List<WritePipeline> pipelines;
+
+    public ShardedWidgetRepository(String mode, Duration idleTimeout) {
+        this(mode, idleTimeout, ChangeFeed.DEFAULT_CAPACITY, ChangeFeed.DEFAULT_TOMBSTONE_WINDOW,
+                VersionHistory.DEFAULT_RETENTION, VersionHistory.DEFAULT_MAX_VERSIONS, "none", Optional.empty(),
+                Optional.empty(), new WidgetStoreMetrics());
+    }
+
+    @Autowired
+    public ShardedWidgetRepository(@Value("${widget.repository.mode:locking}") String mode,
+                                   @Value("${widget.boards.idle-timeout:0}") Duration idleTimeout,
+                                   @Value("${widget.feed.capacity:4096}") int feedCapacity,
+                                   @Value("${widget.sync.tombstone-window:100000}") long tombstoneWindow,
+                                   @Value("${widget.history.retention:5m}") Duration historyRetention,
+                                   @Value("${widget.history.max-versions:10000}") int historyMaxVersions,
+                                   @Value("${widget.replication.role:none}") String replicationRole,
+                                   Optional<WidgetPersistence> persistence,
+                                   Optional<WidgetDatabase> database,
+                                   WidgetStoreMetrics metrics) {
+        if ("jdbc".equals(mode) && persistence.isPresent()) {
+            // Replaying the log would apply the writes once more to the boards already kept in the database
+            throw new IllegalArgumentException("Repository mode jdbc keeps boards in the database, "
+                    + "widget.persistence.enabled should be false");
+        }
+        if (!idleTimeout.isZero() && persistence.isEmpty() && !"jdbc".equals(mode)) {
+            throw new IllegalArgumentException("Evicted boards could not be loaded back, "
+                    + "widget.boards.idle-timeout needs widget.persistence.enabled or repository mode jdbc");
+        }
+        boolean follower = "follower".equals(replicationRole);
+        if (!follower && !"leader".equals(replicationRole) && !"none".equals(replicationRole)) {
+            throw new IllegalArgumentException(String.format("Unknown replication role %s", replicationRole));
+        }
+        if (follower && (persistence.isPresent() || !idleTimeout.isZero())) {
+            // The leader doesn't send again what it already sent, a follower can't drop or restore boards on its own
+            throw new IllegalArgumentException("A follower keeps all boards it got from the leader in memory, "
+                    + "widget.persistence.enabled should be false and widget.boards.idle-timeout 0");
+        }
+
+        this.pipelines = "pipelined".equals(mode)
+                ? IntStream.range(0, Runtime.getRuntime().availableProcessors())
+                        .mapToObj(i -> new WritePipeline(WritePipeline.DEFAULT_CAPACITY, "widget-writer-" + i))
+                        .collect(Collectors.toList())
+                : Collections.emptyList();
+        Function<String, WidgetStore> stores = storeFactory(mode, metrics,
+                () -> new ChangeFeed(feedCapacity, tombstoneWindow), historyRetention, historyMaxVersions, pipelines,
+                database.orElse(null));
+        this.storeFactory = follower ? boardId -> new ReplicaWidgetStore(boardId, stores.apply(boardId)) : stores;
+        this.database = database.orElse(null);
+        this.emptyBoard = "jdbc".equals(mode) ? new WidgetRepository() : storeFactory.apply(DEFAULT_BOARD);
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.persistence = persistence.orElse(null);
+        if (this.persistence != null) {
+            this.persistence.recover(storeFactory).forEach((id, store) -> boards.put(id, new Board(store)));
+        }
+    }
+
+    /**
+     * Returns the store of the board to write to, creating the board if needed. A null id stands for the default board.
+     */
+    public WidgetStore getBoard(String boardId) {
+        // Touched inside the compute, so an eviction of the board either happens before and the board is loaded back,
+        // or sees the access and keeps it
+        return boards.compute(boardId(boardId), (key, board) -> {
+            Board current = board != null ? board : new Board(
+                    persistence == null ? storeFactory.apply(key) : persistence.open(key, storeFactory));
+            current.lastAccess = System.nanoTime();
+            return current;
+        }).store;
+    }
+
+    /**
+     * Returns the store of the board to read from. A board in memory or kept on disk or in the database is returned
+     * as by {@link #getBoard}, any other board reads as empty without being created.
+     */
+    public WidgetStore readBoard(String boardId) {
+        String id = boardId(boardId);
+        Board board = boards.computeIfPresent(id, (key, current) -> {
+            current.lastAccess = System.nanoTime();
+            return current;
+        });
+        if (board != null) {
+            return board.store;
+        }
+
+        boolean kept = DEFAULT_BOARD.equals(id)
+                || (persistence != null && persistence.isKept(id))
+                || (database != null && database.hasBoard(id));
+        return kept ? getBoard(id) : emptyBoard;
+    }
+
+    /**
+     * Returns the store of the board on a follower, through which the writes of the leader are applied.
+     */
+    public ReplicaWidgetStore getReplica(String boardId) {
+        WidgetStore store = getBoard(boardId);
+        if (!(store instanceof ReplicaWidgetStore)) {
+            throw new IllegalStateException("Boards are replicas only on a replication follower");
+        }
+        return (ReplicaWidgetStore) store;
+    }
+
+    /**
+     * Returns the boards in memory by id.
+     */
+    public Map<String, WidgetStore> getBoards() {
+        return boards.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().store));
+    }
+
+    public int countBoards() {
+        return boards.size();
+    }
+
+    public long countAllWidgets() {
+        return boards.values().stream().mapToLong(board -> board.store.countWidgets()).sum();
+    }
+
+    /**
+     * Returns the largest distance between the lowest and the highest z-index on a board.
+     */
+    public long maxZIndexSpan() {
+        return boards.values().stream().mapToLong(board -> zIndexSpan(board.store)).max().orElse(0);
+    }
+
+    @Scheduled(fixedDelayString = "${widget.boards.eviction-interval:60000}")
+    public void evictIdleBoards() {
+        evictIdleBoards(System.nanoTime());
+    }
+
+    void evictIdleBoards(long now) {
+        if (idleTimeoutNanos <= 0) {
+            return;
+        }
+
+        // Removal goes through the map, so it can't interleave with a concurrent getBoard of the same board
+        boards.keySet().forEach(id -> boards.computeIfPresent(id, (key, board) -> {
+            if (DEFAULT_BOARD.equals(key) || now - board.lastAccess <= idleTimeoutNanos) {
+                return board;
+            }
+            if (persistence != null) {
+                persistence.release(board.store);
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Snapshots the boards kept in memory so the write-ahead log can be truncated.
+     */
+    @Scheduled(fixedDelayString = "${widget.persistence.checkpoint-interval:60000}")
+    public void checkpoint() {
+        if (persistence != null) {
+            persistence.checkpoint(
+                    () -> boards.values().stream().map(board -> board.store).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Stops the writer threads of the pipelined mode once the submitted writes are applied.
+     */
+    @PreDestroy
+    public void close() {
+        pipelines.forEach(WritePipeline::close);
+    }
+
+    private static String boardId(String boardId) {
+        String id = boardId == null ? DEFAULT_BOARD : boardId;
+        if (id.isBlank()) {
+            throw new BadRequestException("Board id should not be blank");
+        }
+        return id;
+    }
+
+    private static long zIndexSpan(WidgetStore store) {
+        int count = store.countWidgets();
+        if (count == 0) {
+            return 0;
+        }
+
+        List<Widget> first = store.getWidgetsPage(0, 1).getWidgets();
+        List<Widget> last = store.getWidgetsPage(count - 1, 1).getWidgets();
+        // The board may change between the reads
+        return first.isEmpty() || last.isEmpty() ? 0 : Math.max((long) last.get(0).getZIndex() - first.get(0).getZIndex(), 0);
+    }
+
+    private static Function<String, WidgetStore> storeFactory(String mode, WidgetStoreMetrics metrics,
+                                                              Supplier<ChangeFeed> changeFeeds,
+                                                              Duration historyRetention, int historyMaxVersions,
+                                                              List<WritePipeline> pipelines,
+                                                              WidgetDatabase database) {
+        switch (mode) {
+            case "locking":
+                return boardId -> new WidgetRepository(metrics, changeFeeds.get());
+            case "pipelined":
+                return boardId -> new PipelinedWidgetStore(new WidgetRepository(metrics, changeFeeds.get()),
+                        pipelines.get(Math.floorMod(boardId.hashCode(), pipelines.size())));
+            case "snapshot":
+                return boardId -> new SnapshotWidgetRepository(metrics, changeFeeds.get(), historyRetention,
+                        historyMaxVersions);
+            case "columnar":
+                return boardId -> new ColumnarWidgetRepository(metrics, changeFeeds.get());
+            case "jdbc":
+                if (database == null) {
+                    throw new IllegalArgumentException("Repository mode jdbc needs a widget database");
+                }
+                return boardId -> new JdbcWidgetStore(database, boardId, metrics, changeFeeds.get());
+            default:
+                throw new IllegalArgumentException(String.format("Unknown repository mode %s", mode));
+        }
+    }
+
+    private static class Board {
+        private final WidgetStore store;
+        private volatile long lastAccess;
+
+        private Board(WidgetStore store) {
+            this.store = store;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.model.Area;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical grid over the bounding boxes of the slots of a {@link ColumnarWidgetRepository}.
+ * Levels and cells are those of {@link SpatialIndex}, but a cell keeps slot numbers in an int array instead of ids in
+ * a set, so the grid adds no objects per widget.
+ * The grid is not thread safe, callers are expected to guard it with the repository lock.
+ */
+class SlotGrid {
+    private final int minCellSize;
+    private final List<Map<Long, Cell>> levels = new ArrayList<>();
+
+    SlotGrid() {
+        this(SpatialIndex.DEFAULT_MIN_CELL_SIZE);
+    }
+
+    SlotGrid(int minCellSize) {
+        if (minCellSize <= 0) {
+            throw new IllegalArgumentException("Cell size should be positive");
+        }
+        this.minCellSize = minCellSize;
+    }
+
+    void add(int slot, int centerX, int centerY, long width, long height) {
+        int level = SpatialIndex.levelOf(width, height, minCellSize);
+        while (levels.size() <= level) {
+            levels.add(new HashMap<>());
+        }
+
+        Map<Long, Cell> cells = levels.get(level);
+        SpatialIndex.CellRange range = SpatialIndex.cellsOf(centerX, centerY, width, height,
+                SpatialIndex.cellSize(level, minCellSize));
+        for (long x = range.minX; x <= range.maxX; x++) {
+            for (long y = range.minY; y <= range.maxY; y++) {
+                cells.computeIfAbsent(SpatialIndex.key(x, y), key -> new Cell()).add(slot);
+            }
+        }
+    }
+
+    /**
+     * Removes the slot from the cells of the bounding box it was added with.
+     */
+    void remove(int slot, int centerX, int centerY, long width, long height) {
+        int level = SpatialIndex.levelOf(width, height, minCellSize);
+        if (level >= levels.size()) {
+            return;
+        }
+
+        Map<Long, Cell> cells = levels.get(level);
+        SpatialIndex.CellRange range = SpatialIndex.cellsOf(centerX, centerY, width, height,
+                SpatialIndex.cellSize(level, minCellSize));
+        for (long x = range.minX; x <= range.maxX; x++) {
+            for (long y = range.minY; y <= range.maxY; y++) {
+                Long key = SpatialIndex.key(x, y);
+                Cell cell = cells.get(key);
+                if (cell != null && cell.remove(slot) && cell.size == 0) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the slots whose bounding box may intersect the area, sorted and without duplicates.
+     * The result is a superset of the matching slots and has to be filtered by the caller.
+     */
+    int[] candidates(Area area) {
+        Cell result = new Cell();
+
+        for (int level = 0; level < levels.size(); level++) {
+            Map<Long, Cell> cells = levels.get(level);
+            if (cells.isEmpty()) {
+                continue;
+            }
+
+            SpatialIndex.CellRange range = SpatialIndex.cellsOf(area, SpatialIndex.cellSize(level, minCellSize));
+            if (range.count() > cells.size()) {
+                // The area covers more cells than are occupied, so walking the occupied ones is cheaper
+                cells.forEach((key, cell) -> {
+                    if (range.contains(key)) {
+                        result.addAll(cell);
+                    }
+                });
+            } else {
+                for (long x = range.minX; x <= range.maxX; x++) {
+                    for (long y = range.minY; y <= range.maxY; y++) {
+                        Cell cell = cells.get(SpatialIndex.key(x, y));
+                        if (cell != null) {
+                            result.addAll(cell);
+                        }
+                    }
+                }
+            }
+        }
+
+        return result.distinct();
+    }
+
+    /**
+     * Unordered slots of a cell.
+     */
+    private static final class Cell {
+        private int[] slots = new int[4];
+        private int size;
+
+        private void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        private void addAll(Cell other) {
+            if (size + other.size > slots.length) {
+                slots = Arrays.copyOf(slots, Math.max(size + other.size, slots.length * 2));
+            }
+            System.arraycopy(other.slots, 0, slots, size, other.size);
+            size += other.size;
+        }
+
+        private boolean remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int[] distinct() {
+            // A slot spanning several cells was collected from each of them
+            Arrays.sort(slots, 0, size);
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (count == 0 || slots[i] != slots[count - 1]) {
+                    slots[count++] = slots[i];
+                }
+            }
+            return Arrays.copyOf(slots, count);
+        }
+    }
+}
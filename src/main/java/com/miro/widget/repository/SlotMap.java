@@ -0,0 +1,122 @@
+package com.miro.widget.repository;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Open-addressing map from a widget id to its slot in the columns.
+ * Ids are kept as two longs in parallel arrays with linear probing, so the map holds no object per entry.
+ * The map is not thread safe, callers are expected to guard it with the repository lock.
+ */
+class SlotMap {
+    static final int NONE = -1;
+
+    private long[] mostBits = new long[16];
+    private long[] leastBits = new long[16];
+    private int[] slots = filled(16);
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    int get(UUID id) {
+        return get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    int get(long most, long least) {
+        int mask = slots.length - 1;
+        for (int i = hash(most, least) & mask; slots[i] != NONE; i = (i + 1) & mask) {
+            if (mostBits[i] == most && leastBits[i] == least) {
+                return slots[i];
+            }
+        }
+        return NONE;
+    }
+
+    void put(UUID id, int slot) {
+        if (2 * (size + 1) > slots.length) {
+            resize(slots.length * 2);
+        }
+
+        long most = id.getMostSignificantBits();
+        long least = id.getLeastSignificantBits();
+        int mask = slots.length - 1;
+        int i = hash(most, least) & mask;
+        while (slots[i] != NONE) {
+            if (mostBits[i] == most && leastBits[i] == least) {
+                slots[i] = slot;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        mostBits[i] = most;
+        leastBits[i] = least;
+        slots[i] = slot;
+        size++;
+    }
+
+    /**
+     * Removes the id and moves the following entries of its probe run back, so no tombstones are needed.
+     */
+    void remove(UUID id) {
+        long most = id.getMostSignificantBits();
+        long least = id.getLeastSignificantBits();
+        int mask = slots.length - 1;
+        int i = hash(most, least) & mask;
+        while (slots[i] != NONE && (mostBits[i] != most || leastBits[i] != least)) {
+            i = (i + 1) & mask;
+        }
+        if (slots[i] == NONE) {
+            return;
+        }
+
+        int free = i;
+        for (int j = (free + 1) & mask; slots[j] != NONE; j = (j + 1) & mask) {
+            int home = hash(mostBits[j], leastBits[j]) & mask;
+            // The entry may fill the hole only if its home isn't cyclically between the hole and its position
+            if (((j - home) & mask) >= ((j - free) & mask)) {
+                mostBits[free] = mostBits[j];
+                leastBits[free] = leastBits[j];
+                slots[free] = slots[j];
+                free = j;
+            }
+        }
+        slots[free] = NONE;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldMost = mostBits;
+        long[] oldLeast = leastBits;
+        int[] oldSlots = slots;
+
+        mostBits = new long[capacity];
+        leastBits = new long[capacity];
+        slots = filled(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] != NONE) {
+                int j = hash(oldMost[i], oldLeast[i]) & mask;
+                while (slots[j] != NONE) {
+                    j = (j + 1) & mask;
+                }
+                mostBits[j] = oldMost[i];
+                leastBits[j] = oldLeast[i];
+                slots[j] = oldSlots[i];
+            }
+        }
+    }
+
+    private static int hash(long most, long least) {
+        long hash = (most ^ least) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static int[] filled(int capacity) {
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, NONE);
+        return slots;
+    }
+}
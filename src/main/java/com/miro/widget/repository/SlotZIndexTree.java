@@ -0,0 +1,412 @@
+package com.miro.widget.repository;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Z-order of slots kept as an implicit treap in primitive arrays.
+ * Nodes don't store their z-index. Each node keeps the gap to its predecessor instead, so the z-index of a node is
+ * derived from the gaps and the number of nodes before it. Inserting into an occupied z-index then only has to
+ * close the first gap after the contiguous run, and the whole run moves up by one in O(log n) without visiting it.
+ * A node is the slot number itself, so the tree allocates no object per entry; {@link ZIndexTree} maps widget ids
+ * to slots on top of it.
+ * The tree is not thread safe, callers are expected to guard it with the repository lock. A reader may still run
+ * unguarded and validate afterwards, so every walk is bounded by the number of nodes: links torn by a concurrent write
+ * fail the read with {@link ConcurrentModificationException} instead of looping forever.
+ */
+public class SlotZIndexTree {
+    public static final int NONE = -1;
+
+    // The gap of the first node is counted from this value, so any int z-index can be stored
+    private static final long BASE = Integer.MIN_VALUE;
+
+    private final Random random = new Random();
+    private int[] left = new int[0];
+    private int[] right = new int[0];
+    private int[] parent = new int[0];
+    private int[] size = new int[0];
+    private int[] priority = new int[0];
+    // Number of free z-indexes between the node and its predecessor
+    private long[] gap = new long[0];
+    private long[] gapSum = new long[0];
+    private long[] maxGap = new long[0];
+    private int root = NONE;
+    // Number of slots in the tree, the bound of every walk
+    private int count;
+
+    // Results of the last split, kept in fields to avoid allocating a pair per call
+    private int splitLeft;
+    private int splitRight;
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == NONE;
+    }
+
+    public void clear() {
+        root = NONE;
+        count = 0;
+    }
+
+    public Integer lastZIndex() {
+        return root == NONE ? null : toZIndex(span(root));
+    }
+
+    /**
+     * Returns the slot stored at the z-index or {@link #NONE} if it is free.
+     */
+    public int get(int zIndex) {
+        long position = zIndex - BASE + 1;
+        int node = root;
+        for (int steps = 0; node != NONE; steps++) {
+            checkSteps(steps);
+            long leftSpan = span(left[node]);
+            if (position <= leftSpan) {
+                node = left[node];
+                continue;
+            }
+            position -= leftSpan;
+            if (position == gap[node] + 1) {
+                return node;
+            }
+            if (position <= gap[node]) {
+                return NONE;
+            }
+            position -= gap[node] + 1;
+            node = right[node];
+        }
+
+        return NONE;
+    }
+
+    /**
+     * Returns the z-index of a slot which is in the tree.
+     */
+    public int zIndexOf(int slot) {
+        long position = span(left[slot]) + gap[slot] + 1;
+        int steps = 0;
+        for (int child = slot, node = parent[slot]; node != NONE; child = node, node = parent[node]) {
+            checkSteps(steps++);
+            if (right[node] == child) {
+                position += span(left[node]) + gap[node] + 1;
+            }
+        }
+
+        return toZIndex(position);
+    }
+
+    /**
+     * Number of slots with z-index lower than the given one.
+     */
+    public int rankOf(int zIndex) {
+        long position = zIndex - BASE;
+        int rank = 0;
+        int node = root;
+        for (int steps = 0; node != NONE; steps++) {
+            checkSteps(steps);
+            long leftSpan = span(left[node]);
+            if (position <= leftSpan + gap[node]) {
+                node = left[node];
+            } else {
+                position -= leftSpan + gap[node] + 1;
+                rank += size(left[node]) + 1;
+                node = right[node];
+            }
+        }
+
+        return rank;
+    }
+
+    /**
+     * Puts the slot at the z-index. If the z-index is occupied, the contiguous run of z-indexes starting from it is
+     * shifted up by one. The slot must not be in the tree.
+     *
+     * @return number of shifted slots
+     */
+    public int insert(int slot, int zIndex) {
+        ensureCapacity(slot + 1);
+        left[slot] = NONE;
+        right[slot] = NONE;
+        parent[slot] = NONE;
+        priority[slot] = random.nextInt();
+        count++;
+
+        split(root, rankOf(zIndex));
+        int before = splitLeft;
+        int after = splitRight;
+        // Position of the predecessor is the span of everything before it
+        gap[slot] = zIndex - BASE - span(before);
+        update(slot);
+
+        if (after == NONE) {
+            root = attach(merge(before, slot));
+            return 0;
+        }
+
+        split(after, 1);
+        int next = splitLeft;
+        int tail = splitRight;
+        if (gap[next] > gap[slot]) {
+            // Free slot: the node takes a part of the gap in front of its successor
+            gap[next] -= gap[slot] + 1;
+            update(next);
+            root = attach(merge(merge(before, slot), merge(next, tail)));
+            return 0;
+        }
+
+        // Occupied slot: the node takes the place of its successor and the first gap after the run is closed by one
+        gap[next] = 0;
+        update(next);
+        int gapIndex = firstGapIndex(tail);
+        int shifted = 1 + (gapIndex < 0 ? size(tail) : gapIndex);
+        if (gapIndex >= 0) {
+            split(tail, gapIndex);
+            int run = splitLeft;
+            split(splitRight, 1);
+            int closed = splitLeft;
+            int afterRun = splitRight;
+            gap[closed] -= 1;
+            update(closed);
+            tail = merge(run, merge(closed, afterRun));
+        }
+        root = attach(merge(merge(before, slot), merge(next, tail)));
+
+        return shifted;
+    }
+
+    /**
+     * Removes a slot which is in the tree, z-indexes of the rest stay unchanged.
+     */
+    public void remove(int slot) {
+        split(root, rankOfSlot(slot));
+        int before = splitLeft;
+        split(splitRight, 1);
+        int tail = splitRight;
+        if (tail != NONE) {
+            split(tail, 1);
+            int next = splitLeft;
+            int rest = splitRight;
+            gap[next] += gap[slot] + 1;
+            update(next);
+            tail = merge(next, rest);
+        }
+        root = attach(merge(before, tail));
+        count--;
+    }
+
+    /**
+     * Iterates over slots in z-order starting from the given rank.
+     */
+    public SlotIterator iterator(int fromRank) {
+        return new SlotIterator(fromRank);
+    }
+
+    private int rankOfSlot(int slot) {
+        int rank = size(left[slot]);
+        int steps = 0;
+        for (int child = slot, node = parent[slot]; node != NONE; child = node, node = parent[node]) {
+            checkSteps(steps++);
+            if (right[node] == child) {
+                rank += size(left[node]) + 1;
+            }
+        }
+
+        return rank;
+    }
+
+    /**
+     * No walk over a consistent tree takes more steps than it has nodes.
+     */
+    private void checkSteps(int steps) {
+        if (steps > count) {
+            throw new ConcurrentModificationException("Z-index tree changed during the walk");
+        }
+    }
+
+    private int firstGapIndex(int node) {
+        int offset = 0;
+        while (node != NONE && maxGap[node] > 0) {
+            if (left[node] != NONE && maxGap[left[node]] > 0) {
+                node = left[node];
+            } else if (gap[node] > 0) {
+                return offset + size(left[node]);
+            } else {
+                offset += size(left[node]) + 1;
+                node = right[node];
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Splits the tree into the first {@code count} nodes and the rest, stored to {@code splitLeft}/{@code splitRight}.
+     */
+    private void split(int node, int count) {
+        if (node == NONE) {
+            splitLeft = NONE;
+            splitRight = NONE;
+            return;
+        }
+
+        int leftSize = size(left[node]);
+        if (count <= leftSize) {
+            split(left[node], count);
+            left[node] = splitRight;
+            update(node);
+            splitRight = node;
+        } else {
+            split(right[node], count - leftSize - 1);
+            right[node] = splitLeft;
+            update(node);
+            splitLeft = node;
+        }
+    }
+
+    private int merge(int first, int second) {
+        if (first == NONE) {
+            return second;
+        }
+        if (second == NONE) {
+            return first;
+        }
+
+        if (priority[first] > priority[second]) {
+            right[first] = merge(right[first], second);
+            update(first);
+            return first;
+        }
+
+        left[second] = merge(first, left[second]);
+        update(second);
+        return second;
+    }
+
+    private int attach(int node) {
+        if (node != NONE) {
+            parent[node] = NONE;
+        }
+        return node;
+    }
+
+    private void update(int node) {
+        size[node] = 1;
+        gapSum[node] = gap[node];
+        maxGap[node] = gap[node];
+        int child = left[node];
+        if (child != NONE) {
+            parent[child] = node;
+            size[node] += size[child];
+            gapSum[node] += gapSum[child];
+            maxGap[node] = Math.max(maxGap[node], maxGap[child]);
+        }
+        child = right[node];
+        if (child != NONE) {
+            parent[child] = node;
+            size[node] += size[child];
+            gapSum[node] += gapSum[child];
+            maxGap[node] = Math.max(maxGap[node], maxGap[child]);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= left.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, Math.max(16, left.length + (left.length >> 1)));
+        left = Arrays.copyOf(left, newCapacity);
+        right = Arrays.copyOf(right, newCapacity);
+        parent = Arrays.copyOf(parent, newCapacity);
+        size = Arrays.copyOf(size, newCapacity);
+        priority = Arrays.copyOf(priority, newCapacity);
+        gap = Arrays.copyOf(gap, newCapacity);
+        gapSum = Arrays.copyOf(gapSum, newCapacity);
+        maxGap = Arrays.copyOf(maxGap, newCapacity);
+    }
+
+    private static int toZIndex(long position) {
+        return (int) (BASE + position - 1);
+    }
+
+    private int size(int node) {
+        return node == NONE ? 0 : size[node];
+    }
+
+    private long span(int node) {
+        return node == NONE ? 0 : gapSum[node] + size[node];
+    }
+
+    /**
+     * In-order walk reporting the slot and its z-index without boxing.
+     */
+    public class SlotIterator {
+        private int[] stack = new int[32];
+        private int depth;
+        private long position;
+        private int zIndex;
+        private int returned;
+
+        private SlotIterator(int fromRank) {
+            int node = root;
+            int rank = fromRank;
+            for (int steps = 0; node != NONE; steps++) {
+                checkSteps(steps);
+                int leftSize = size(left[node]);
+                if (rank < leftSize) {
+                    push(node);
+                    node = left[node];
+                } else if (rank == leftSize) {
+                    push(node);
+                    position += span(left[node]);
+                    break;
+                } else {
+                    rank -= leftSize + 1;
+                    position += span(left[node]) + gap[node] + 1;
+                    node = right[node];
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        /**
+         * Moves to the next slot and returns it, its z-index is then available from {@link #zIndex()}.
+         */
+        public int next() {
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+
+            checkSteps(returned++);
+            int node = stack[--depth];
+            position += gap[node] + 1;
+            zIndex = toZIndex(position);
+            int steps = 0;
+            for (int child = right[node]; child != NONE; child = left[child]) {
+                checkSteps(steps++);
+                push(child);
+            }
+
+            return node;
+        }
+
+        public int zIndex() {
+            return zIndex;
+        }
+
+        private void push(int node) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = node;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.BadRequestException;
+import com.miro.widget.error.ReadOnlyVersionException;
+import com.miro.widget.error.VersionExpiredException;
+import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetDelta;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+import io.vavr.collection.HashMap;
+import io.vavr.control.Option;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory widget storage where readers never lock.
+ * The board is an immutable {@link BoardState} built from persistent collections. Writers serialize on a lock,
+ * derive a new state sharing the untouched parts with the current one and publish it through a volatile field.
+ * Each read takes the current state once, so it always sees a consistent board no matter what writers do meanwhile.
+ * Z-indexes are owned by the {@link PersistentZIndex}, which orders widgets by sparse keys: an insert into an occupied
+ * z-index copies a few paths of the index and never rewrites the shifted run. The z-index kept in a stored widget may
+ * be stale, every read takes the actual value from the index of the same state.
+ * Published states are kept in a {@link VersionHistory} for a while, so the board can also be read as it was at an
+ * earlier version. A past state shares all but the paths its later writes copied with the current one.
+ */
+public class SnapshotWidgetRepository implements WidgetStore {
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final WidgetStoreMetrics metrics;
+    private final ChangeFeed changeFeed;
+    private final VersionHistory<BoardState> history;
+    private volatile BoardState state;
+
+    public SnapshotWidgetRepository() {
+        this(new WidgetStoreMetrics(), new ChangeFeed(), VersionHistory.DEFAULT_RETENTION,
+                VersionHistory.DEFAULT_MAX_VERSIONS);
+    }
+
+    /**
+     * @param historyRetention how long a past version of the board is kept after it was superseded or last read
+     * @param historyMaxVersions number of versions kept at most, the current one included
+     */
+    public SnapshotWidgetRepository(WidgetStoreMetrics metrics, ChangeFeed changeFeed, Duration historyRetention,
+                                    int historyMaxVersions) {
+        this.metrics = metrics;
+        this.changeFeed = changeFeed;
+        this.history = new VersionHistory<>(historyRetention, historyMaxVersions);
+        this.state = BoardState.EMPTY.atVersion(changeFeed.getVersion());
+        this.history.record(state.version, state, System.nanoTime());
+    }
+
+    @Override
+    public Widget addWidget(Widget newWidget) {
+        return write(draft -> draft.add(newWidget));
+    }
+
+    @Override
+    public Widget updateWidget(String widgetId, Widget newWidget, WidgetRevision expected) {
+        return write(draft -> {
+            draft.checkRevision(widgetId, expected);
+            return draft.update(widgetId, newWidget);
+        });
+    }
+
+    @Override
+    public Widget patchWidget(String widgetId, WidgetPatch patch, WidgetRevision expected) {
+        return write(draft -> {
+            draft.checkRevision(widgetId, expected);
+            return draft.patch(widgetId, patch);
+        });
+    }
+
+    @Override
+    public void deleteWidget(String widgetId, WidgetRevision expected) {
+        write(draft -> {
+            draft.checkRevision(widgetId, expected);
+            draft.delete(widgetId);
+            return null;
+        });
+    }
+
+    /**
+     * The whole batch is applied to one draft, so readers switch from the old board to the new one at once.
+     */
+    @Override
+    public List<WidgetOperationResult> applyBatch(List<WidgetOperation> operations) {
+        return write(draft -> {
+            Optional<List<WidgetOperationResult>> failures =
+                    BatchValidation.findFailures(operations, id -> draft.state.widgets.containsKey(id));
+            if (failures.isPresent()) {
+                return failures.get();
+            }
+
+            List<WidgetOperationResult> results = new ArrayList<>(operations.size());
+            for (WidgetOperation operation : operations) {
+                switch (operation.getType()) {
+                    case CREATE:
+                        results.add(WidgetOperationResult.applied(draft.add(operation.getWidget())));
+                        break;
+                    case UPDATE:
+                        results.add(WidgetOperationResult.applied(draft.update(operation.getWidgetId(), operation.getWidget())));
+                        break;
+                    case PATCH:
+                        results.add(WidgetOperationResult.applied(draft.patch(operation.getWidgetId(), operation.getPatch())));
+                        break;
+                    case DELETE:
+                        draft.delete(operation.getWidgetId());
+                        results.add(WidgetOperationResult.applied(null));
+                        break;
+                }
+            }
+            return results;
+        });
+    }
+
+    @Override
+    public Widget getWidget(String widgetId) {
+        return state.getWidget(widgetId);
+    }
+
+    @Override
+    public Collection<Widget> getAllWidgets() {
+        return state.all();
+    }
+
+    /**
+     * A published state carries the version it was committed at, so one read of it gives both.
+     */
+    @Override
+    public WidgetDelta getSnapshot() {
+        BoardState current = state;
+
+        return new WidgetDelta(current.version, true, current.all(), Collections.emptyList());
+    }
+
+    /**
+     * The view reads the state published by the last write committed up to the version. Versions before the one
+     * the board was restored at are gone, the states recorded while it was loaded are only partial boards.
+     */
+    @Override
+    public WidgetStore asOf(long version) {
+        if (version > changeFeed.getVersion()) {
+            throw new BadRequestException(String.format("Board has no version %d yet", version));
+        }
+        if (version < changeFeed.getFirstVersion()) {
+            throw new VersionExpiredException(version);
+        }
+
+        return new PastBoard(version, history.readAt(version, System.nanoTime()));
+    }
+
+    @Override
+    public WidgetPage getWidgetsPage(int offset, int limit) {
+        return state.page(offset, limit);
+    }
+
+    @Override
+    public WidgetPage getWidgetsAfter(Integer cursor, int limit) {
+        return state.after(cursor, limit);
+    }
+
+    @Override
+    public int countWidgets() {
+        return state.index.size();
+    }
+
+    @Override
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    @Override
+    public Collection<Widget> getWidgetsInArea(Area area) {
+        return state.inArea(area);
+    }
+
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y) {
+        return state.at(x, y);
+    }
+
+    /**
+     * Applies the change to a draft of the current board under the write lock and publishes the draft together with
+     * its changes. A change failing with an exception publishes nothing. The new state goes to the history before
+     * the changes are committed, so the board can be read at a version as soon as the feed has it.
+     */
+    private <T> T write(Function<Draft, T> change) {
+        long requested = System.nanoTime();
+        writeLock.lock();
+        long acquired = System.nanoTime();
+        metrics.recordLockWait(acquired - requested);
+        try {
+            Draft draft = new Draft(state, metrics, changeFeed);
+            T result = change.apply(draft);
+            if (draft.state != state) {
+                state = draft.state.atVersion(changeFeed.getPendingVersion());
+                history.record(state.version, state, System.nanoTime());
+            }
+            changeFeed.commit();
+
+            return result;
+        } catch (RuntimeException e) {
+            changeFeed.rollback();
+            throw e;
+        } finally {
+            writeLock.unlock();
+            metrics.recordLockHold(System.nanoTime() - acquired);
+        }
+    }
+
+    /**
+     * Next version of the board being built by a writer under the write lock.
+     */
+    private static final class Draft {
+        private final WidgetStoreMetrics metrics;
+        private final ChangeFeed changeFeed;
+        private BoardState state;
+
+        private Draft(BoardState state, WidgetStoreMetrics metrics, ChangeFeed changeFeed) {
+            this.state = state;
+            this.metrics = metrics;
+            this.changeFeed = changeFeed;
+        }
+
+        private Widget add(Widget newWidget) {
+            Integer zIndex = newWidget.getZIndex();
+            if (zIndex == null) {
+                zIndex = state.index.isEmpty() ? 0 : state.index.lastZIndex() + 1;
+            }
+
+            Widget widget = newWidget.updateZIndex(zIndex);
+            state = state.insert(widget, this::shifted);
+            changeFeed.created(widget);
+
+            return widget;
+        }
+
+        private Widget update(String widgetId, Widget newWidget) {
+            UUID id = UUID.fromString(widgetId);
+            Widget oldWidget = state.widgets.get(id).getOrElseThrow(() -> new WidgetNotFoundException(widgetId));
+
+            Widget widget = newWidget.updateId(id);
+            if (widget.getZIndex() == null) {
+                widget = widget.updateZIndex(state.index.lastZIndex() + 1);
+            }
+            if (widget.getZIndex().equals(state.index.zIndexOf(id))) {
+                state = state.replace(oldWidget, widget);
+            } else {
+                state = state.remove(oldWidget).insert(widget, this::shifted);
+            }
+            changeFeed.updated(widget);
+
+            return widget;
+        }
+
+        private Widget patch(String widgetId, WidgetPatch patch) {
+            Widget widget = state.get(UUID.fromString(widgetId)).getOrElseThrow(() -> new WidgetNotFoundException(widgetId));
+
+            return update(widgetId, patch.applyTo(widget));
+        }
+
+        private void delete(String widgetId) {
+            UUID id = UUID.fromString(widgetId);
+            Widget widget = state.widgets.get(id).getOrElseThrow(() -> new WidgetNotFoundException(widgetId));
+
+            state = state.remove(widget);
+            changeFeed.deleted(widgetId);
+        }
+
+        private void checkRevision(String widgetId, WidgetRevision expected) {
+            if (expected != null) {
+                changeFeed.checkRevision(widgetId, state.index.zIndexOf(UUID.fromString(widgetId)), expected);
+            }
+        }
+
+        private void shifted(int zIndex, int count) {
+            metrics.recordShift(count);
+            changeFeed.shifted(zIndex, count);
+        }
+    }
+
+    /**
+     * Immutable version of the board. The states of a draft keep the version of the state they started from until
+     * the draft is published.
+     */
+    private static final class BoardState {
+        private static final BoardState EMPTY =
+                new BoardState(0, HashMap.empty(), PersistentZIndex.EMPTY, PersistentSpatialIndex.EMPTY);
+
+        private final long version;
+        private final HashMap<UUID, Widget> widgets;
+        private final PersistentZIndex index;
+        private final PersistentSpatialIndex spatialIndex;
+
+        private BoardState(long version, HashMap<UUID, Widget> widgets, PersistentZIndex index,
+                           PersistentSpatialIndex spatialIndex) {
+            this.version = version;
+            this.widgets = widgets;
+            this.index = index;
+            this.spatialIndex = spatialIndex;
+        }
+
+        private BoardState atVersion(long committedVersion) {
+            return new BoardState(committedVersion, widgets, index, spatialIndex);
+        }
+
+        /**
+         * Returns the widget with its actual z-index.
+         */
+        private Option<Widget> get(UUID id) {
+            return widgets.get(id).map(widget -> withActualZIndex(widget, index.zIndexOf(id)));
+        }
+
+        private Widget getWidget(String widgetId) {
+            return get(UUID.fromString(widgetId)).getOrElseThrow(() -> new WidgetNotFoundException(widgetId));
+        }
+
+        private List<Widget> all() {
+            return page(0, index.size()).getWidgets();
+        }
+
+        private WidgetPage after(Integer cursor, int limit) {
+            if (cursor == null) {
+                return page(0, limit);
+            }
+
+            return page(cursor == Integer.MAX_VALUE ? index.size() : index.rankOf(cursor + 1), limit);
+        }
+
+        private List<Widget> inArea(Area area) {
+            return spatialIndex.candidates(area).stream()
+                    .map(id -> get(id).get())
+                    .filter(area::contains)
+                    .sorted(Comparator.comparing(Widget::getZIndex))
+                    .collect(Collectors.toList());
+        }
+
+        private List<Widget> at(int x, int y) {
+            Area point = new Area(x, y, x, y);
+
+            return spatialIndex.candidates(point).stream()
+                    .map(id -> get(id).get())
+                    .filter(point::overlaps)
+                    .sorted(Comparator.comparing(Widget::getZIndex).reversed())
+                    .collect(Collectors.toList());
+        }
+
+        /**
+         * Reports the z-index and the length of the shifted run to the listener, zero if nothing was shifted.
+         */
+        private BoardState insert(Widget widget, ShiftListener listener) {
+            int zIndex = widget.getZIndex();
+
+            return new BoardState(
+                    version,
+                    widgets.put(widget.getId(), widget),
+                    index.insert(widget.getId(), zIndex, count -> listener.shifted(zIndex, count)),
+                    spatialIndex.add(widget)
+            );
+        }
+
+        /**
+         * Replaces the widget keeping its place in the z-order.
+         */
+        private BoardState replace(Widget oldWidget, Widget widget) {
+            return new BoardState(
+                    version,
+                    widgets.put(widget.getId(), widget),
+                    index,
+                    spatialIndex.remove(oldWidget).add(widget)
+            );
+        }
+
+        private BoardState remove(Widget widget) {
+            return new BoardState(
+                    version,
+                    widgets.remove(widget.getId()),
+                    index.remove(widget.getId()),
+                    spatialIndex.remove(widget)
+            );
+        }
+
+        private WidgetPage page(int offset, int limit) {
+            List<Widget> result = new ArrayList<>(Math.min(limit, Math.max(index.size() - offset, 0)));
+            Iterator<Map.Entry<Integer, UUID>> iterator = index.iterator(offset);
+            while (iterator.hasNext() && result.size() < limit) {
+                Map.Entry<Integer, UUID> entry = iterator.next();
+                result.add(withActualZIndex(widgets.get(entry.getValue()).get(), entry.getKey()));
+            }
+
+            return new WidgetPage(result, offset, index.size());
+        }
+    }
+
+    /**
+     * Read-only view of a past state of the board.
+     */
+    private final class PastBoard implements WidgetStore {
+        private final long version;
+        private final BoardState past;
+
+        private PastBoard(long version, BoardState past) {
+            this.version = version;
+            this.past = past;
+        }
+
+        @Override
+        public Widget addWidget(Widget newWidget) {
+            throw readOnly();
+        }
+
+        @Override
+        public Widget updateWidget(String widgetId, Widget newWidget, WidgetRevision expected) {
+            throw readOnly();
+        }
+
+        @Override
+        public Widget patchWidget(String widgetId, WidgetPatch patch, WidgetRevision expected) {
+            throw readOnly();
+        }
+
+        @Override
+        public void deleteWidget(String widgetId, WidgetRevision expected) {
+            throw readOnly();
+        }
+
+        @Override
+        public List<WidgetOperationResult> applyBatch(List<WidgetOperation> operations) {
+            throw readOnly();
+        }
+
+        @Override
+        public Widget getWidget(String widgetId) {
+            return past.getWidget(widgetId);
+        }
+
+        @Override
+        public Collection<Widget> getAllWidgets() {
+            return past.all();
+        }
+
+        @Override
+        public WidgetDelta getSnapshot() {
+            return new WidgetDelta(version, true, past.all(), Collections.emptyList());
+        }
+
+        @Override
+        public WidgetStore asOf(long version) {
+            return SnapshotWidgetRepository.this.asOf(version);
+        }
+
+        @Override
+        public WidgetPage getWidgetsPage(int offset, int limit) {
+            return past.page(offset, limit);
+        }
+
+        @Override
+        public WidgetPage getWidgetsAfter(Integer cursor, int limit) {
+            return past.after(cursor, limit);
+        }
+
+        @Override
+        public int countWidgets() {
+            return past.index.size();
+        }
+
+        @Override
+        public Collection<Widget> getWidgetsInArea(Area area) {
+            return past.inArea(area);
+        }
+
+        @Override
+        public List<Widget> getWidgetsAt(int x, int y) {
+            return past.at(x, y);
+        }
+
+        /**
+         * Changes of the board itself, they go on after the version of the view.
+         */
+        @Override
+        public ChangeFeed getChangeFeed() {
+            return changeFeed;
+        }
+
+        private ReadOnlyVersionException readOnly() {
+            return new ReadOnlyVersionException(version);
+        }
+    }
+
+    private static Widget withActualZIndex(Widget widget, Integer zIndex) {
+        return zIndex.equals(widget.getZIndex()) ? widget : widget.updateZIndex(zIndex);
+    }
+
+    private interface ShiftListener {
+        void shifted(int zIndex, int count);
+    }
+}
@@ -0,0 +1,189 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+
+import java.util.*;
+
+/**
+ * Hierarchical grid over widget bounding boxes.
+ * Level k is a uniform grid of cells {@code minCellSize * 2^k} wide, and a widget goes into the finest level whose
+ * cells are at least as large as its bounding box, so it is registered in at most 3x3 cells whatever its size.
+ * A cell then holds only widgets of about its size overlapping it, and a hit-test visits one cell per occupied level:
+ * its cost depends on how many widgets overlap near the point, not on how many the board holds.
+ * The index is not thread safe, callers are expected to guard it with the repository lock.
+ */
+public class SpatialIndex {
+    public static final int DEFAULT_MIN_CELL_SIZE = 16;
+
+    private final int minCellSize;
+    // Cells of a level by key, the list grows up to the level of the largest widget ever added
+    private final List<Map<Long, Set<UUID>>> levels = new ArrayList<>();
+
+    public SpatialIndex() {
+        this(DEFAULT_MIN_CELL_SIZE);
+    }
+
+    public SpatialIndex(int minCellSize) {
+        if (minCellSize <= 0) {
+            throw new IllegalArgumentException("Cell size should be positive");
+        }
+        this.minCellSize = minCellSize;
+    }
+
+    public void add(Widget widget) {
+        int level = levelOf(widget, minCellSize);
+        while (levels.size() <= level) {
+            levels.add(new HashMap<>());
+        }
+
+        Map<Long, Set<UUID>> cells = levels.get(level);
+        CellRange range = cellsOf(widget, cellSize(level, minCellSize));
+        for (long x = range.minX; x <= range.maxX; x++) {
+            for (long y = range.minY; y <= range.maxY; y++) {
+                cells.computeIfAbsent(key(x, y), k -> new HashSet<>()).add(widget.getId());
+            }
+        }
+    }
+
+    public void remove(Widget widget) {
+        int level = levelOf(widget, minCellSize);
+        if (level >= levels.size()) {
+            return;
+        }
+
+        Map<Long, Set<UUID>> cells = levels.get(level);
+        CellRange range = cellsOf(widget, cellSize(level, minCellSize));
+        for (long x = range.minX; x <= range.maxX; x++) {
+            for (long y = range.minY; y <= range.maxY; y++) {
+                Long key = key(x, y);
+                Set<UUID> cell = cells.get(key);
+                if (cell != null) {
+                    cell.remove(widget.getId());
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns ids of the widgets whose bounding box may intersect the area.
+     * The result is a superset of the matching widgets and has to be filtered by the caller.
+     */
+    public Set<UUID> candidates(Area area) {
+        Set<UUID> result = new HashSet<>();
+
+        for (int level = 0; level < levels.size(); level++) {
+            Map<Long, Set<UUID>> cells = levels.get(level);
+            if (cells.isEmpty()) {
+                continue;
+            }
+
+            CellRange range = cellsOf(area, cellSize(level, minCellSize));
+            if (range.count() > cells.size()) {
+                // The area covers more cells than are occupied, so walking the occupied ones is cheaper
+                cells.forEach((key, ids) -> {
+                    if (range.contains(key)) {
+                        result.addAll(ids);
+                    }
+                });
+            } else {
+                for (long x = range.minX; x <= range.maxX; x++) {
+                    for (long y = range.minY; y <= range.maxY; y++) {
+                        Set<UUID> cell = cells.get(key(x, y));
+                        if (cell != null) {
+                            result.addAll(cell);
+                        }
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public void clear() {
+        levels.clear();
+    }
+
+    /**
+     * Finest level whose cells are at least as large as the bounding box of the widget.
+     */
+    static int levelOf(Widget widget, int minCellSize) {
+        return levelOf(widget.getWidth() == null ? 0 : widget.getWidth(),
+                widget.getHeight() == null ? 0 : widget.getHeight(),
+                minCellSize);
+    }
+
+    static int levelOf(long width, long height, int minCellSize) {
+        long extent = Math.max(width, height);
+        return extent <= minCellSize ? 0 : 64 - Long.numberOfLeadingZeros((extent - 1) / minCellSize);
+    }
+
+    static long cellSize(int level, int minCellSize) {
+        return (long) minCellSize << level;
+    }
+
+    static CellRange cellsOf(Area area, long cellSize) {
+        return cellRange(area.getX1(), area.getY1(), area.getX2(), area.getY2(), cellSize);
+    }
+
+    static CellRange cellsOf(Widget widget, long cellSize) {
+        return cellsOf(widget.getCenterX(), widget.getCenterY(),
+                widget.getWidth() == null ? 0 : widget.getWidth(),
+                widget.getHeight() == null ? 0 : widget.getHeight(),
+                cellSize);
+    }
+
+    static CellRange cellsOf(int centerX, int centerY, long width, long height, long cellSize) {
+        long doubledX = 2L * centerX;
+        long doubledY = 2L * centerY;
+
+        return cellRange(
+                Math.floorDiv(doubledX - width, 2),
+                Math.floorDiv(doubledY - height, 2),
+                -Math.floorDiv(-(doubledX + width), 2),
+                -Math.floorDiv(-(doubledY + height), 2),
+                cellSize
+        );
+    }
+
+    private static CellRange cellRange(long x1, long y1, long x2, long y2, long cellSize) {
+        return new CellRange(
+                Math.floorDiv(x1, cellSize),
+                Math.floorDiv(y1, cellSize),
+                Math.floorDiv(x2, cellSize),
+                Math.floorDiv(y2, cellSize)
+        );
+    }
+
+    static Long key(long x, long y) {
+        return (x << 32) | (y & 0xffffffffL);
+    }
+
+    static class CellRange {
+        final long minX;
+        final long minY;
+        final long maxX;
+        final long maxY;
+
+        private CellRange(long minX, long minY, long maxX, long maxY) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        long count() {
+            return (maxX - minX + 1) * (maxY - minY + 1);
+        }
+
+        boolean contains(long key) {
+            long x = key >> 32;
+            long y = (int) key;
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.BadRequestException;
+import com.miro.widget.error.VersionExpiredException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Past versions of an immutable board state, kept so the board can be read as it was at a version.
+ * The store records the state it publishes with every commit; the state at a version is the one of the last commit
+ * up to it, so a version inside a batch reads the board before the batch. A state superseded longer than
+ * {@code retention} ago is dropped unless a reader still uses it: every read pins the version it got for another
+ * retention window, so a client paging through a past version keeps it as long as it keeps reading. At most
+ * {@code maxVersions} states are kept whatever the readers, which bounds the memory held by the history.
+ * States are recorded by the writer of the store only, reads may come from any thread.
+ */
+public class VersionHistory<S> {
+    public static final Duration DEFAULT_RETENTION = Duration.ofMinutes(5);
+    public static final int DEFAULT_MAX_VERSIONS = 10_000;
+
+    private final long retentionNanos;
+    private final int maxVersions;
+    private final ConcurrentNavigableMap<Long, Version<S>> versions = new ConcurrentSkipListMap<>();
+    // Pinned version to the time its last reader stops holding it
+    private final ConcurrentNavigableMap<Long, Long> readers = new ConcurrentSkipListMap<>();
+    // Size of the skip list is counted on every call, only the writer changes it
+    private int count;
+
+    VersionHistory(Duration retention, int maxVersions) {
+        if (retention.isNegative()) {
+            throw new IllegalArgumentException("History retention should not be negative");
+        }
+        if (maxVersions <= 0) {
+            throw new IllegalArgumentException("History should keep at least one version");
+        }
+        this.retentionNanos = retention.toNanos();
+        this.maxVersions = maxVersions;
+    }
+
+    /**
+     * Records the state committed at the version and drops the states nobody needs anymore.
+     */
+    void record(long version, S state, long now) {
+        if (versions.put(version, new Version<>(state, now)) == null) {
+            count++;
+        }
+        prune(now);
+    }
+
+    /**
+     * Returns the state the board had at the version and pins it for the reader.
+     *
+     * @throws BadRequestException if the board hasn't reached the version yet
+     * @throws VersionExpiredException if the state was dropped already
+     */
+    S readAt(long version, long now) {
+        Map.Entry<Long, Version<S>> last = versions.lastEntry();
+        if (version < 0 || last == null || version > last.getKey()) {
+            throw new BadRequestException(String.format("Board has no version %d yet", version));
+        }
+        Map.Entry<Long, Version<S>> found = versions.floorEntry(version);
+        if (found == null) {
+            throw new VersionExpiredException(version);
+        }
+
+        readers.merge(found.getKey(), now + retentionNanos, Math::max);
+        if (!versions.containsKey(found.getKey())) {
+            // Pruned since it was found: prune takes the version out before its pin, so the pin put after that is
+            // removed here, otherwise it would hold back pruning of every later version until it runs out
+            readers.remove(found.getKey());
+        }
+        // Dropped meanwhile or not, the state itself never changes
+        return found.getValue().state;
+    }
+
+    /**
+     * Oldest version the history can still be read at, the one of the latest state if nothing else is kept.
+     */
+    long oldestVersion() {
+        return versions.firstKey();
+    }
+
+    int countVersions() {
+        return count;
+    }
+
+    private void prune(long now) {
+        while (count > 1) {
+            Map.Entry<Long, Version<S>> oldest = versions.firstEntry();
+            Map.Entry<Long, Version<S>> next = versions.higherEntry(oldest.getKey());
+            // The oldest state was superseded when the next one was committed
+            boolean expired = now - next.getValue().committedAt >= retentionNanos
+                    && next.getKey() <= oldestReader(now);
+            if (!expired && count <= maxVersions) {
+                return;
+            }
+            versions.remove(oldest.getKey());
+            readers.remove(oldest.getKey());
+            count--;
+        }
+    }
+
+    /**
+     * Oldest version still pinned by a reader, dropping the pins which ran out.
+     */
+    private long oldestReader(long now) {
+        for (Map.Entry<Long, Long> reader = readers.firstEntry(); reader != null; reader = readers.firstEntry()) {
+            if (reader.getValue() - now > 0) {
+                return reader.getKey();
+            }
+            readers.remove(reader.getKey(), reader.getValue());
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static final class Version<S> {
+        private final S state;
+        private final long committedAt;
+
+        private Version(S state, long committedAt) {
+            this.state = state;
+            this.committedAt = committedAt;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Write submitted to the {@link WritePipeline}, completed with the result of the write once it is applied.
+ */
+final class WidgetCommand {
+    final Type type;
+    final WidgetRepository target;
+    final String widgetId;
+    final Widget widget;
+    final WidgetPatch patch;
+    final WidgetRevision expected;
+    final List<WidgetOperation> operations;
+    final CompletableFuture<Object> result = new CompletableFuture<>();
+
+    private WidgetCommand(Type type, WidgetRepository target, String widgetId, Widget widget, WidgetPatch patch,
+                          WidgetRevision expected, List<WidgetOperation> operations) {
+        this.type = type;
+        this.target = target;
+        this.widgetId = widgetId;
+        this.widget = widget;
+        this.patch = patch;
+        this.expected = expected;
+        this.operations = operations;
+    }
+
+    static WidgetCommand add(WidgetRepository target, Widget widget) {
+        return new WidgetCommand(Type.ADD, target, null, widget, null, null, null);
+    }
+
+    static WidgetCommand update(WidgetRepository target, String widgetId, Widget widget, WidgetRevision expected) {
+        return new WidgetCommand(Type.UPDATE, target, widgetId, widget, null, expected, null);
+    }
+
+    static WidgetCommand patch(WidgetRepository target, String widgetId, WidgetPatch patch, WidgetRevision expected) {
+        return new WidgetCommand(Type.PATCH, target, widgetId, null, patch, expected, null);
+    }
+
+    static WidgetCommand delete(WidgetRepository target, String widgetId, WidgetRevision expected) {
+        return new WidgetCommand(Type.DELETE, target, widgetId, null, null, expected, null);
+    }
+
+    static WidgetCommand batch(WidgetRepository target, List<WidgetOperation> operations) {
+        return new WidgetCommand(Type.BATCH, target, null, null, null, null, operations);
+    }
+
+    enum Type {
+        ADD, UPDATE, PATCH, DELETE, BATCH
+    }
+}
@@ -0,0 +1,108 @@
+package com.miro.widget.repository;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Embedded database of the jdbc repository mode, widgets of all boards are kept in one table.
+ * The z-order is served by an index on (board, z-index) and area queries by an index on the bounding box of a widget,
+ * stored in doubled coordinates like {@link com.miro.widget.model.Area} compares them. The z-index index is not
+ * unique: a shift moves a run up by one in a single UPDATE, which would collide with itself row by row. The version
+ * of every board which was written to is kept in a table of its own.
+ */
+@Component
+@ConditionalOnProperty(name = "widget.repository.mode", havingValue = "jdbc")
+public class WidgetDatabase implements AutoCloseable {
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS widget ("
+                    + "board_id VARCHAR NOT NULL, "
+                    + "id UUID NOT NULL, "
+                    + "center_x INT NOT NULL, "
+                    + "center_y INT NOT NULL, "
+                    + "z_index INT NOT NULL, "
+                    + "height INT, "
+                    + "width INT, "
+                    + "last_modified TIMESTAMP(9), "
+                    + "min_x BIGINT NOT NULL, "
+                    + "min_y BIGINT NOT NULL, "
+                    + "max_x BIGINT NOT NULL, "
+                    + "max_y BIGINT NOT NULL, "
+                    + "PRIMARY KEY (board_id, id))",
+            "CREATE INDEX IF NOT EXISTS widget_z_index ON widget (board_id, z_index)",
+            "CREATE INDEX IF NOT EXISTS widget_bounds ON widget (board_id, min_x, min_y, max_x, max_y)",
+            "CREATE TABLE IF NOT EXISTS board ("
+                    + "board_id VARCHAR NOT NULL, "
+                    + "version BIGINT NOT NULL, "
+                    + "PRIMARY KEY (board_id))"
+    };
+
+    private final HikariDataSource dataSource;
+
+    public WidgetDatabase(@Value("${widget.jdbc.url:jdbc:h2:file:./data/widgets}") String url,
+                          @Value("${widget.jdbc.pool-size:4}") int poolSize) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setMaximumPoolSize(poolSize);
+        config.setPoolName("widget-db");
+        this.dataSource = new HikariDataSource(config);
+
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            for (String sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            dataSource.close();
+            throw new IllegalStateException("Failed to create widget schema at " + url, e);
+        }
+    }
+
+    /**
+     * Tells if the board has any widgets in the database.
+     */
+    public boolean hasBoard(String boardId) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM widget WHERE board_id = ? LIMIT 1")) {
+            statement.setString(1, boardId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(String.format("Failed to look up board %s", boardId), e);
+        }
+    }
+
+    /**
+     * Returns the version the board was written at last, 0 for a board never written to.
+     */
+    long getBoardVersion(String boardId) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT version FROM board WHERE board_id = ?")) {
+            statement.setString(1, boardId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(String.format("Failed to look up board %s", boardId), e);
+        }
+    }
+
+    Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+}
@@ -1,118 +1,381 @@
 package com.miro.widget.repository;
 
-import com.codepoetics.protonpack.Indexed;
-import com.codepoetics.protonpack.StreamUtils;
 import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.Area;
 import com.miro.widget.model.Widget;
-import org.springframework.stereotype.Repository;
+import com.miro.widget.model.WidgetDelta;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
 
 import java.util.*;
 import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-@Repository
-public class WidgetRepository {
+/**
+ * In-memory widget storage guarded by a single {@link StampedLock}.
+ * Z-indexes are owned by the {@link ZIndexTree}: widgets shifted by an insert are not rewritten, so the z-index kept
+ * in {@code storage} may be stale and every read takes the actual value from the index.
+ */
+public class WidgetRepository implements WidgetStore {
     private Map<UUID, Widget> storage = new HashMap<>();
-    private TreeMap<Integer, UUID> index = new TreeMap<>();
+    private ZIndexTree index = new ZIndexTree();
+    private SpatialIndex spatialIndex = new SpatialIndex();
     private StampedLock lock = new StampedLock();
+    private final WidgetStoreMetrics metrics;
+    private final ChangeFeed changeFeed;
 
+    public WidgetRepository() {
+        this(new WidgetStoreMetrics(), new ChangeFeed());
+    }
+
+    public WidgetRepository(WidgetStoreMetrics metrics, ChangeFeed changeFeed) {
+        this.metrics = metrics;
+        this.changeFeed = changeFeed;
+    }
+
+    @Override
     public Widget addWidget(Widget newWidget) {
+        return write(() -> add(newWidget));
+    }
+
+    @Override
+    public Widget updateWidget(String widgetId, Widget newWidget, WidgetRevision expected) {
+        return write(() -> {
+            checkRevision(widgetId, expected);
+            return update(widgetId, newWidget);
+        });
+    }
+
+    @Override
+    public Widget patchWidget(String widgetId, WidgetPatch patch, WidgetRevision expected) {
+        return write(() -> {
+            checkRevision(widgetId, expected);
+            return patch(widgetId, patch);
+        });
+    }
+
+    @Override
+    public void deleteWidget(String widgetId, WidgetRevision expected) {
+        write(() -> {
+            checkRevision(widgetId, expected);
+            delete(widgetId);
+            return null;
+        });
+    }
+
+    /**
+     * The whole batch is checked and applied under one write lock acquisition.
+     */
+    @Override
+    public List<WidgetOperationResult> applyBatch(List<WidgetOperation> operations) {
+        return write(() -> applyOperations(operations));
+    }
+
+    /**
+     * Applies the commands in order under one write lock acquisition, each of them is committed to the change feed
+     * on its own. A failing command is rolled back alone, callers are completed once the lock is released.
+     */
+    void execute(List<WidgetCommand> commands) {
+        Object[] results = new Object[commands.size()];
+        RuntimeException[] failures = new RuntimeException[commands.size()];
+        long requested = System.nanoTime();
         long stamp = lock.writeLock();
+        long acquired = System.nanoTime();
+        metrics.recordLockWait(acquired - requested);
         try {
-            Integer zIndex = newWidget.getZIndex();
-            if (zIndex == null) {
-                if (index.size() > 0) {
-                    zIndex = index.lastKey() + 1;
-                } else {
-                    zIndex = 0;
+            for (int i = 0; i < commands.size(); i++) {
+                try {
+                    results[i] = apply(commands.get(i));
+                    changeFeed.commit();
+                } catch (RuntimeException e) {
+                    changeFeed.rollback();
+                    failures[i] = e;
                 }
             }
-
-            Widget widget = newWidget.updateZIndex(zIndex);
-            updateStorageAndIndex(widget);
-
-            return storage.get(widget.getId());
         } finally {
             lock.unlockWrite(stamp);
+            metrics.recordLockHold(System.nanoTime() - acquired);
         }
-    }
 
-    public Widget updateWidget(String widgetId, Widget newWidget) {
-        long stamp = lock.writeLock();
-        try {
-            UUID id = UUID.fromString(widgetId);
-            Widget oldWidget = storage.get(id);
-            if (oldWidget == null) {
-                throw new WidgetNotFoundException(widgetId);
+        for (int i = 0; i < commands.size(); i++) {
+            if (failures[i] == null) {
+                commands.get(i).result.complete(results[i]);
+            } else {
+                commands.get(i).result.completeExceptionally(failures[i]);
             }
+        }
+    }
 
-            Integer oldZIndex = oldWidget.getZIndex();
-            Integer newZIndex = newWidget.getZIndex();
+    @Override
+    public Widget getWidget(String widgetId) {
+        UUID id = UUID.fromString(widgetId);
+        Widget result = optimisticRead(() -> {
+            Widget widget = storage.get(id);
+            return widget == null ? null : withActualZIndex(widget, index.zIndexOf(id));
+        });
 
-            Widget widget = newWidget.updateId(id);
-            if (newZIndex == null) {
-                newZIndex = index.lastKey() + 1;
-                widget = widget.updateZIndex(newZIndex);
-            }
+        if (result == null) {
+            throw new WidgetNotFoundException(widgetId);
+        }
 
-            if (!oldZIndex.equals(newZIndex)) {
-                index.remove(oldZIndex);
-                updateStorageAndIndex(widget);
-            } else {
-                storage.put(id, widget);
-            }
+        return result;
+    }
 
-            return storage.get(id);
-        } finally {
-            lock.unlockWrite(stamp);
+    @Override
+    public Collection<Widget> getAllWidgets() {
+        return optimisticRead(this::readAll);
+    }
+
+    /**
+     * Writes commit to the change feed under the write lock, so a validated read sees the widgets and their version.
+     */
+    @Override
+    public WidgetDelta getSnapshot() {
+        return optimisticRead(() -> new WidgetDelta(changeFeed.getVersion(), true, readAll(), Collections.emptyList()));
+    }
+
+    /**
+     * The tree is entered at the offset directly, so only the returned widgets are visited.
+     */
+    @Override
+    public WidgetPage getWidgetsPage(int offset, int limit) {
+        return optimisticRead(() -> readPage(offset, limit));
+    }
+
+    @Override
+    public WidgetPage getWidgetsAfter(Integer cursor, int limit) {
+        if (cursor != null && cursor == Integer.MAX_VALUE) {
+            return optimisticRead(() -> new WidgetPage(Collections.emptyList(), index.size(), index.size()));
         }
+
+        return optimisticRead(() -> readPage(cursor == null ? 0 : index.rankOf(cursor + 1), limit));
     }
 
-    public void deleteWidget(String widgetId) {
-        long stamp = lock.writeLock();
-        try {
-            UUID id = UUID.fromString(widgetId);
-            Widget widget = storage.get(id);
-            if (widget == null) {
-                throw new WidgetNotFoundException(widgetId);
+    @Override
+    public int countWidgets() {
+        return optimisticRead(() -> index.size());
+    }
+
+    @Override
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Only widgets registered in the grid cells covered by the area are checked.
+     */
+    @Override
+    public Collection<Widget> getWidgetsInArea(Area area) {
+        return optimisticRead(() -> spatialIndex.candidates(area).stream()
+                .map(storage::get)
+                .filter(area::contains)
+                .map(widget -> withActualZIndex(widget, index.zIndexOf(widget.getId())))
+                .sorted(Comparator.comparing(Widget::getZIndex))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Only the grid cells under the point, one per level of the grid, are checked.
+     */
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y) {
+        Area point = new Area(x, y, x, y);
+        return optimisticRead(() -> spatialIndex.candidates(point).stream()
+                .map(storage::get)
+                .filter(point::overlaps)
+                .map(widget -> withActualZIndex(widget, index.zIndexOf(widget.getId())))
+                .sorted(Comparator.comparing(Widget::getZIndex).reversed())
+                .collect(Collectors.toList()));
+    }
+
+    private Object apply(WidgetCommand command) {
+        switch (command.type) {
+            case ADD:
+                return add(command.widget);
+            case UPDATE:
+                checkRevision(command.widgetId, command.expected);
+                return update(command.widgetId, command.widget);
+            case PATCH:
+                checkRevision(command.widgetId, command.expected);
+                return patch(command.widgetId, command.patch);
+            case DELETE:
+                checkRevision(command.widgetId, command.expected);
+                delete(command.widgetId);
+                return null;
+            case BATCH:
+                return applyOperations(command.operations);
+            default:
+                throw new IllegalArgumentException(String.format("Unknown command %s", command.type));
+        }
+    }
+
+    private List<WidgetOperationResult> applyOperations(List<WidgetOperation> operations) {
+        Optional<List<WidgetOperationResult>> failures = BatchValidation.findFailures(operations, storage::containsKey);
+        if (failures.isPresent()) {
+            return failures.get();
+        }
+
+        List<WidgetOperationResult> results = new ArrayList<>(operations.size());
+        for (WidgetOperation operation : operations) {
+            switch (operation.getType()) {
+                case CREATE:
+                    results.add(WidgetOperationResult.applied(add(operation.getWidget())));
+                    break;
+                case UPDATE:
+                    results.add(WidgetOperationResult.applied(update(operation.getWidgetId(), operation.getWidget())));
+                    break;
+                case PATCH:
+                    results.add(WidgetOperationResult.applied(patch(operation.getWidgetId(), operation.getPatch())));
+                    break;
+                case DELETE:
+                    delete(operation.getWidgetId());
+                    results.add(WidgetOperationResult.applied(null));
+                    break;
             }
+        }
+        return results;
+    }
 
-            storage.remove(id);
-            index.remove(widget.getZIndex());
-        } finally {
-            lock.unlockWrite(stamp);
+    private Widget add(Widget newWidget) {
+        Integer zIndex = newWidget.getZIndex();
+        if (zIndex == null) {
+            if (index.size() > 0) {
+                zIndex = index.lastZIndex() + 1;
+            } else {
+                zIndex = 0;
+            }
         }
+
+        Widget widget = newWidget.updateZIndex(zIndex);
+        storage.put(widget.getId(), widget);
+        shifted(zIndex, index.insert(widget.getId(), zIndex));
+        spatialIndex.add(widget);
+        changeFeed.created(widget);
+
+        return widget;
     }
 
-    public Widget getWidget(String widgetId) {
-        long stamp = lock.tryOptimisticRead();
+    private Widget update(String widgetId, Widget newWidget) {
         UUID id = UUID.fromString(widgetId);
-        Widget result = storage.get(id);
+        Widget oldWidget = storage.get(id);
+        if (oldWidget == null) {
+            throw new WidgetNotFoundException(widgetId);
+        }
 
-        if (!lock.validate(stamp)) {
-            stamp = lock.readLock();
-            try {
-                result = storage.get(id);
-            } finally {
-                lock.unlockRead(stamp);
-            }
+        Integer oldZIndex = index.zIndexOf(id);
+        Integer newZIndex = newWidget.getZIndex();
+
+        Widget widget = newWidget.updateId(id);
+        if (newZIndex == null) {
+            newZIndex = index.lastZIndex() + 1;
+            widget = widget.updateZIndex(newZIndex);
         }
 
-        if (result == null) {
+        if (!oldZIndex.equals(newZIndex)) {
+            index.remove(id);
+            shifted(newZIndex, index.insert(id, newZIndex));
+        }
+        storage.put(id, widget);
+        spatialIndex.remove(oldWidget);
+        spatialIndex.add(widget);
+        changeFeed.updated(widget);
+
+        return widget;
+    }
+
+    /**
+     * The patched widget keeps its z-index unless the patch sets one, so the update doesn't touch the z-order.
+     */
+    private Widget patch(String widgetId, WidgetPatch patch) {
+        UUID id = UUID.fromString(widgetId);
+        Widget widget = storage.get(id);
+        if (widget == null) {
             throw new WidgetNotFoundException(widgetId);
         }
 
-        return result;
+        return update(widgetId, patch.applyTo(withActualZIndex(widget, index.zIndexOf(id))));
     }
 
-    public Collection<Widget> getAllWidgets() {
+    private void delete(String widgetId) {
+        UUID id = UUID.fromString(widgetId);
+        Widget widget = storage.get(id);
+        if (widget == null) {
+            throw new WidgetNotFoundException(widgetId);
+        }
+
+        storage.remove(id);
+        index.remove(id);
+        spatialIndex.remove(widget);
+        changeFeed.deleted(widgetId);
+    }
+
+    private void checkRevision(String widgetId, WidgetRevision expected) {
+        if (expected != null) {
+            changeFeed.checkRevision(widgetId, index.zIndexOf(UUID.fromString(widgetId)), expected);
+        }
+    }
+
+    private void shifted(int zIndex, int count) {
+        metrics.recordShift(count);
+        changeFeed.shifted(zIndex, count);
+    }
+
+    private WidgetPage readPage(int offset, int limit) {
+        List<Widget> widgets = new ArrayList<>(Math.min(limit, Math.max(index.size() - offset, 0)));
+        Iterator<Map.Entry<Integer, UUID>> iterator = index.iterator(offset);
+        while (iterator.hasNext() && widgets.size() < limit) {
+            Map.Entry<Integer, UUID> entry = iterator.next();
+            widgets.add(withActualZIndex(storage.get(entry.getValue()), entry.getKey()));
+        }
+
+        return new WidgetPage(widgets, offset, index.size());
+    }
+
+    /**
+     * Runs the write under the write lock, recording how long it waited for the lock and how long it held it.
+     * Writes fail only before changing anything, so the changes of a failed write are dropped.
+     */
+    private <T> T write(Supplier<T> write) {
+        long requested = System.nanoTime();
+        long stamp = lock.writeLock();
+        long acquired = System.nanoTime();
+        metrics.recordLockWait(acquired - requested);
+        try {
+            T result = write.get();
+            changeFeed.commit();
+            return result;
+        } catch (RuntimeException e) {
+            changeFeed.rollback();
+            throw e;
+        } finally {
+            lock.unlockWrite(stamp);
+            metrics.recordLockHold(System.nanoTime() - acquired);
+        }
+    }
+
+    /**
+     * Runs the read without locking and repeats it under the read lock if a write happened meanwhile.
+     * A concurrent write may also break the read itself, such a failure is treated the same way; the z-index tree
+     * bounds its walks, so a read over links torn by a write fails instead of never returning.
+     */
+    private <T> T optimisticRead(Supplier<T> read) {
         long stamp = lock.tryOptimisticRead();
-        Collection<Widget> result = index.values().stream().map(storage::get).collect(Collectors.toList());
+        T result = null;
+        try {
+            result = read.get();
+        } catch (RuntimeException e) {
+            stamp = 0L;
+        }
 
         if (!lock.validate(stamp)) {
+            metrics.recordOptimisticReadFailure();
             stamp = lock.readLock();
             try {
-                result = index.entrySet().stream().map(storage::get).collect(Collectors.toList());
+                result = read.get();
             } finally {
                 lock.unlockRead(stamp);
             }
@@ -121,39 +384,13 @@ public class WidgetRepository {
         return result;
     }
 
-    private void updateStorageAndIndex(Widget widget) {
-        storage.put(widget.getId(), widget);
-        if (index.get(widget.getZIndex()) == null) {
-            index.put(widget.getZIndex(), widget.getId());
-        } else {
-            updateStorageAndIndexWithShift(widget);
-        }
+    private List<Widget> readAll() {
+        List<Widget> result = new ArrayList<>(index.size());
+        index.iterator().forEachRemaining(entry -> result.add(withActualZIndex(storage.get(entry.getValue()), entry.getKey())));
+        return result;
     }
 
-    private void updateStorageAndIndexWithShift(Widget widget) {
-        int zIndex = widget.getZIndex();
-
-        // Slicing all indexes which have to be shifted
-        List<Map.Entry<Integer, UUID>> entryList = StreamUtils.zipWithIndex(index.tailMap(widget.getZIndex()).entrySet().stream())
-                .takeWhile(entryIndexed -> entryIndexed.getIndex() + zIndex == entryIndexed.getValue().getKey())
-                .map(Indexed::getValue)
-                .collect(Collectors.toList());
-
-        int headShiftedValue = entryList.get(entryList.size() - 1).getKey() + 1;
-
-        // Updating storage and index with new values
-        UUID newValue = widget.getId();
-        for (Map.Entry<Integer, UUID> entry : entryList) {
-            UUID tmp = entry.getValue();
-            entry.setValue(newValue);
-            newValue = tmp;
-
-            Widget oldWidget = storage.get(entry.getValue());
-            storage.put(entry.getValue(), oldWidget.updateZIndex(entry.getKey()));
-        }
-        // Adding the value to the index and storage, which was obtained as a result of the shift
-        index.put(headShiftedValue, newValue);
-        Widget headWidget = storage.get(newValue);
-        storage.put(newValue, headWidget.updateZIndex(headShiftedValue));
+    private static Widget withActualZIndex(Widget widget, Integer zIndex) {
+        return zIndex.equals(widget.getZIndex()) ? widget : widget.updateZIndex(zIndex);
     }
 }
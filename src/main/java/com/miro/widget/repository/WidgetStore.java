@@ -0,0 +1,158 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.BadRequestException;
+import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetDelta;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Storage of widgets ordered by z-index.
+ * Adding or moving a widget to an occupied z-index shifts the contiguous run of widgets starting from it up by one.
+ * A null z-index places the widget on top of the others.
+ */
+public interface WidgetStore {
+
+    Widget addWidget(Widget newWidget);
+
+    default Widget updateWidget(String widgetId, Widget newWidget) {
+        return updateWidget(widgetId, newWidget, null);
+    }
+
+    /**
+     * Updates the widget only if it is still at the expected revision, otherwise fails with
+     * {@link com.miro.widget.error.PreconditionFailedException}. A null revision matches any.
+     */
+    Widget updateWidget(String widgetId, Widget newWidget, WidgetRevision expected);
+
+    /**
+     * Changes only the fields set in the patch. Without a z-index in the patch the widget keeps its place in the
+     * z-order and nothing is shifted. The revision is checked as by {@link #updateWidget(String, Widget, WidgetRevision)}.
+     */
+    Widget patchWidget(String widgetId, WidgetPatch patch, WidgetRevision expected);
+
+    default void deleteWidget(String widgetId) {
+        deleteWidget(widgetId, null);
+    }
+
+    /**
+     * Deletes the widget only if it is still at the expected revision, a null revision matches any.
+     */
+    void deleteWidget(String widgetId, WidgetRevision expected);
+
+    /**
+     * Applies the operations in order as one atomic change, readers never observe a part of the batch.
+     * If any update or delete refers to a missing widget, nothing is applied.
+     *
+     * @return result of every operation in the same order
+     */
+    List<WidgetOperationResult> applyBatch(List<WidgetOperation> operations);
+
+    Widget getWidget(String widgetId);
+
+    /**
+     * Returns all widgets ordered by z-index.
+     */
+    Collection<Widget> getAllWidgets();
+
+    /**
+     * Returns the whole board as a full delta whose version is exactly the one its widgets are at, so the changes of
+     * the feed after that version apply on top of it. Unlike {@link #getWidgetsChangedSince} it has no later changes.
+     */
+    WidgetDelta getSnapshot();
+
+    /**
+     * Returns a read-only view of the board as it was at the version, which doesn't change whatever is written later;
+     * its writes fail with {@link com.miro.widget.error.ReadOnlyVersionException}.
+     * Only stores keeping the history of the board can go back, the others fail with {@link BadRequestException};
+     * a version the history no longer has fails with {@link com.miro.widget.error.VersionExpiredException}.
+     */
+    default WidgetStore asOf(long version) {
+        throw new BadRequestException("Reading the board at a version needs widget.repository.mode snapshot");
+    }
+
+    /**
+     * Returns up to {@code limit} widgets in z-order skipping the first {@code offset} ones.
+     */
+    WidgetPage getWidgetsPage(int offset, int limit);
+
+    /**
+     * Returns up to {@code limit} widgets in z-order whose z-index is higher than the cursor.
+     * A null cursor starts from the lowest z-index.
+     */
+    WidgetPage getWidgetsAfter(Integer cursor, int limit);
+
+    int countWidgets();
+
+    /**
+     * Returns widgets which lie fully inside the area, ordered by z-index.
+     */
+    Collection<Widget> getWidgetsInArea(Area area);
+
+    /**
+     * Returns widgets covering the point, borders included, topmost first.
+     */
+    List<Widget> getWidgetsAt(int x, int y);
+
+    /**
+     * Returns the versioned changes of this store.
+     */
+    ChangeFeed getChangeFeed();
+
+    /**
+     * Returns widgets changed and deleted after the version, or the whole board if the version is older than the
+     * tombstone window of the change feed. Version 0 is a valid starting point for a client which has nothing.
+     * Widgets are read after the delta version is taken, so they may already include later changes; those are
+     * returned once more by the next call and applying them again is harmless.
+     */
+    default WidgetDelta getWidgetsChangedSince(long sinceVersion) {
+        Optional<ModificationIndex.Modifications> found = getChangeFeed().getModificationsSince(sinceVersion);
+        if (found.isEmpty()) {
+            long version = getChangeFeed().getVersion();
+            return new WidgetDelta(version, true, new ArrayList<>(getAllWidgets()), Collections.emptyList());
+        }
+
+        ModificationIndex.Modifications modifications = found.get();
+        Map<String, Widget> changed = new LinkedHashMap<>();
+        for (long[] range : modifications.shiftedRanges) {
+            if (range[0] > Integer.MAX_VALUE) {
+                continue;
+            }
+            // The cursor is exclusive, a range from the lowest z-index starts without one
+            Integer cursor = range[0] <= Integer.MIN_VALUE ? null : (int) (range[0] - 1);
+            int limit = (int) Math.min(range[1] - range[0] + 1, Integer.MAX_VALUE);
+            for (Widget widget : getWidgetsAfter(cursor, limit).getWidgets()) {
+                if (widget.getZIndex() <= range[1]) {
+                    changed.put(widget.getId().toString(), widget);
+                }
+            }
+        }
+        for (String widgetId : modifications.changedIds) {
+            if (!changed.containsKey(widgetId)) {
+                try {
+                    changed.put(widgetId, getWidget(widgetId));
+                } catch (WidgetNotFoundException e) {
+                    // Deleted after the delta version, the next delta has its tombstone
+                }
+            }
+        }
+
+        List<Widget> widgets = new ArrayList<>(changed.values());
+        widgets.sort(Comparator.comparing(Widget::getZIndex));
+        return new WidgetDelta(modifications.version, false, widgets, modifications.deletedIds);
+    }
+}
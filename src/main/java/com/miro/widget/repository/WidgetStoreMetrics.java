@@ -0,0 +1,89 @@
+package com.miro.widget.repository;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention and shift statistics shared by the stores of all boards.
+ * Recording only bumps {@link LongAdder}s, which don't contend between threads, so it stays cheap on the write path;
+ * the values are summed up when metrics are scraped.
+ */
+@Component
+public class WidgetStoreMetrics {
+    /**
+     * Shift lengths are counted in power of two buckets: 0, 1, 2-3, 4-7 and so on.
+     */
+    public static final int SHIFT_BUCKETS = Integer.SIZE;
+
+    private final LongAdder lockWaitCount = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder lockHoldCount = new LongAdder();
+    private final LongAdder lockHoldNanos = new LongAdder();
+    private final LongAdder optimisticReadFailures = new LongAdder();
+    private final LongAdder shiftedWidgets = new LongAdder();
+    private final LongAdder[] shiftBuckets = new LongAdder[SHIFT_BUCKETS];
+
+    public WidgetStoreMetrics() {
+        for (int i = 0; i < SHIFT_BUCKETS; i++) {
+            shiftBuckets[i] = new LongAdder();
+        }
+    }
+
+    void recordLockWait(long nanos) {
+        lockWaitCount.increment();
+        lockWaitNanos.add(nanos);
+    }
+
+    void recordLockHold(long nanos) {
+        lockHoldCount.increment();
+        lockHoldNanos.add(nanos);
+    }
+
+    void recordOptimisticReadFailure() {
+        optimisticReadFailures.increment();
+    }
+
+    /**
+     * Records the number of widgets moved up by one insert.
+     */
+    void recordShift(int length) {
+        shiftBuckets[Integer.SIZE - Integer.numberOfLeadingZeros(length)].increment();
+        shiftedWidgets.add(length);
+    }
+
+    public long getLockWaitCount() {
+        return lockWaitCount.sum();
+    }
+
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    public long getLockHoldCount() {
+        return lockHoldCount.sum();
+    }
+
+    public long getLockHoldNanos() {
+        return lockHoldNanos.sum();
+    }
+
+    public long getOptimisticReadFailures() {
+        return optimisticReadFailures.sum();
+    }
+
+    public long getShiftedWidgets() {
+        return shiftedWidgets.sum();
+    }
+
+    /**
+     * Number of inserts which shifted at most {@code 2^bucket - 1} widgets.
+     */
+    public long getShiftsUpTo(int bucket) {
+        long count = 0;
+        for (int i = 0; i <= bucket; i++) {
+            count += shiftBuckets[i].sum();
+        }
+        return count;
+    }
+}
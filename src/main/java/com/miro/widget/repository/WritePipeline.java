@@ -0,0 +1,131 @@
+package com.miro.widget.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes of a group of boards applied by one dedicated writer thread.
+ * Callers put commands into a {@link MpscRingBuffer} and wait for their results. The writer drains the buffer in
+ * batches and hands every run of commands for the same board to {@link WidgetRepository#execute}, which applies the
+ * run under a single lock acquisition. Callers never contend on the repository lock, and bursts of writes are batched
+ * by themselves: the more commands wait in the buffer, the larger the batch.
+ */
+class WritePipeline implements AutoCloseable {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int MAX_BATCH = 256;
+    // Empty polls before the writer parks, a short pause in a burst shouldn't cost a park/unpark.
+    // On a single CPU spinning only delays the callers which would fill the buffer
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1_000 : 1;
+
+    private final MpscRingBuffer<WidgetCommand> ring;
+    private final Thread writer;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+
+    WritePipeline(int capacity) {
+        this(capacity, "widget-writer");
+    }
+
+    WritePipeline(int capacity, String writerName) {
+        this.ring = new MpscRingBuffer<>(capacity);
+        this.writer = new Thread(this::run, writerName);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Submits the command and waits until it is applied. A failure of the write is rethrown as is.
+     */
+    Object submit(WidgetCommand command) {
+        if (closed) {
+            throw new IllegalStateException("Write pipeline is closed");
+        }
+
+        // A full buffer means the writer is behind, the callers wait for it instead of growing the queue
+        while (!ring.offer(command)) {
+            wakeWriter();
+            Thread.yield();
+        }
+        // The sequence of the slot is written before the flag is read, so a writer going to sleep sees the command
+        wakeWriter();
+        if (closed) {
+            // The writer may have seen the buffer empty and stopped before the command got in
+            joinWriter();
+            command.result.completeExceptionally(new IllegalStateException("Write pipeline is closed"));
+        }
+
+        try {
+            return command.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the writer once the commands already in the buffer are applied.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        joinWriter();
+    }
+
+    private void joinWriter() {
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void wakeWriter() {
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void run() {
+        List<WidgetCommand> batch = new ArrayList<>(MAX_BATCH);
+        int idle = 0;
+        while (!closed || !ring.isEmpty()) {
+            if (ring.drainTo(batch, MAX_BATCH) > 0) {
+                apply(batch);
+                batch.clear();
+                idle = 0;
+            } else if (++idle < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                sleeping = true;
+                // Checked after the flag is set, a command published before it would otherwise be left unnoticed
+                if (ring.isEmpty() && !closed) {
+                    LockSupport.park(this);
+                }
+                sleeping = false;
+                idle = 0;
+            }
+        }
+    }
+
+    private void apply(List<WidgetCommand> batch) {
+        int from = 0;
+        for (int i = 1; i <= batch.size(); i++) {
+            if (i == batch.size() || batch.get(i).target != batch.get(from).target) {
+                List<WidgetCommand> run = batch.subList(from, i);
+                try {
+                    run.get(0).target.execute(run);
+                } catch (RuntimeException | Error e) {
+                    // Not a failure of a command, those are reported to their callers: don't leave anyone waiting
+                    run.forEach(command -> command.result.completeExceptionally(e));
+                }
+                from = i;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.miro.widget.repository;
+
+import java.util.*;
+
+/**
+ * Z-order of widget ids, a {@link SlotZIndexTree} whose slots are handed out to the ids.
+ * Shifting a contiguous run on insert is done by the slot tree in O(log n) without visiting the run. Slots of removed
+ * ids are reused, so the arrays of the slot tree never grow beyond the largest number of ids indexed at once.
+ * The tree is not thread safe, callers are expected to guard it with the repository lock. A reader may run unguarded
+ * and validate afterwards: a walk over links torn by a concurrent write fails, as described by {@link SlotZIndexTree}.
+ */
+public class ZIndexTree {
+    private final Map<UUID, Integer> slots = new HashMap<>();
+    private SlotZIndexTree tree = new SlotZIndexTree();
+    private UUID[] ids = new UUID[0];
+    // Slots of removed ids, taken before new ones
+    private int[] freeSlots = new int[0];
+    private int freeCount;
+
+    public int size() {
+        return tree.size();
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    public void clear() {
+        slots.clear();
+        tree = new SlotZIndexTree();
+        ids = new UUID[0];
+        freeCount = 0;
+    }
+
+    public boolean contains(UUID id) {
+        return slots.containsKey(id);
+    }
+
+    public Integer lastZIndex() {
+        return tree.lastZIndex();
+    }
+
+    /**
+     * Returns id stored at the z-index or null if it is free.
+     */
+    public UUID get(int zIndex) {
+        int slot = tree.get(zIndex);
+        return slot == SlotZIndexTree.NONE ? null : ids[slot];
+    }
+
+    public Integer zIndexOf(UUID id) {
+        Integer slot = slots.get(id);
+        return slot == null ? null : tree.zIndexOf(slot);
+    }
+
+    /**
+     * Number of ids with z-index lower than the given one.
+     */
+    public int rankOf(int zIndex) {
+        return tree.rankOf(zIndex);
+    }
+
+    /**
+     * Puts the id at the z-index. If the z-index is occupied, the contiguous run of z-indexes starting from it is
+     * shifted up by one.
+     *
+     * @return number of shifted ids
+     */
+    public int insert(UUID id, int zIndex) {
+        if (slots.containsKey(id)) {
+            throw new IllegalStateException(String.format("Id %s is already indexed", id));
+        }
+
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : slots.size();
+        if (slot >= ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(16, ids.length + (ids.length >> 1)));
+        }
+        ids[slot] = id;
+        slots.put(id, slot);
+
+        return tree.insert(slot, zIndex);
+    }
+
+    /**
+     * Removes the id, z-indexes of the rest stay unchanged.
+     */
+    public void remove(UUID id) {
+        Integer slot = slots.remove(id);
+        if (slot == null) {
+            return;
+        }
+
+        tree.remove(slot);
+        ids[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(16, freeCount * 2));
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Iterates over (z-index, id) pairs in z-order starting from the given rank.
+     */
+    public Iterator<Map.Entry<Integer, UUID>> iterator(int fromRank) {
+        return new EntryIterator(tree.iterator(fromRank));
+    }
+
+    public Iterator<Map.Entry<Integer, UUID>> iterator() {
+        return iterator(0);
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<Integer, UUID>> {
+        private final SlotZIndexTree.SlotIterator iterator;
+
+        private EntryIterator(SlotZIndexTree.SlotIterator iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<Integer, UUID> next() {
+            int slot = iterator.next();
+            return new AbstractMap.SimpleImmutableEntry<>(iterator.zIndex(), ids[slot]);
+        }
+    }
+}
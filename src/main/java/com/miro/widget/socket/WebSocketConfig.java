@@ -0,0 +1,39 @@
+package com.miro.widget.socket;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Widget sockets of the default board at {@code /api/ws} and of other boards at {@code /api/boards/{boardId}/ws}.
+ * The default board doesn't use {@code /api/widgets/ws}, that path belongs to the widget with id {@code ws}.
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+    private final WidgetSocketHandler widgetSocketHandler;
+
+    public WebSocketConfig(WidgetSocketHandler widgetSocketHandler) {
+        this.widgetSocketHandler = widgetSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(widgetSocketHandler, WidgetSocketHandler.DEFAULT_BOARD_PATH, WidgetSocketHandler.BOARD_PATH);
+    }
+
+    /**
+     * Scheduler of the {@code @Scheduled} jobs. Without SockJS the WebSocket configuration registers its scheduler as
+     * a null bean, which replaces the one of Spring Boot and leaves the jobs without a scheduler.
+     */
+    @Bean
+    public TaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix("scheduling-");
+        return scheduler;
+    }
+}
@@ -0,0 +1,401 @@
+package com.miro.widget.socket;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.widget.dto.SocketEventDTO;
+import com.miro.widget.dto.SocketMutationDTO;
+import com.miro.widget.dto.WidgetChangeDTO;
+import com.miro.widget.dto.WidgetResponseDTO;
+import com.miro.widget.error.BadRequestException;
+import com.miro.widget.model.WidgetChange;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.repository.ChangeFeed;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriTemplate;
+import org.springframework.web.util.UriUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Widget sockets: clients send a stream of mutations and receive acknowledgements and the changes of their board.
+ * Mutations are queued per board and applied once per {@code widget.ws.tick} as one batch, patches of the same widget
+ * within a tick are merged first. After the batch every session of the board gets the changes from the board's change
+ * feed, so HTTP writes and shifts reach the sockets too; a session learns the version its changes start from when it
+ * connects and gets {@code resync} if the feed no longer has the changes it missed.
+ * A session with {@code widget.ws.max-pending} mutations waiting has further ones rejected. Messages to a session
+ * are buffered up to {@code widget.ws.send-buffer} bytes or {@code widget.ws.send-timeout}, a slower session is
+ * disconnected rather than slowing down the others.
+ */
+@Slf4j
+@Component
+public class WidgetSocketHandler extends TextWebSocketHandler {
+    static final String DEFAULT_BOARD_PATH = "/api/ws";
+    static final String BOARD_PATH = "/api/boards/{boardId}/ws";
+
+    private static final UriTemplate BOARD_TEMPLATE = new UriTemplate(BOARD_PATH);
+    private static final String CLIENT_ATTRIBUTE = "widgetSocketClient";
+
+    private final ShardedWidgetRepository widgetRepository;
+    private final ObjectMapper objectMapper;
+    private final ConcurrentMap<String, Board> boards = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "widget-socket-tick");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long tickNanos;
+    private final int maxPending;
+    private final int sendBufferBytes;
+    private final int sendTimeoutMillis;
+
+    public WidgetSocketHandler(ShardedWidgetRepository widgetRepository, ObjectMapper objectMapper,
+                               @Value("${widget.ws.tick:16ms}") Duration tick,
+                               @Value("${widget.ws.max-pending:1000}") int maxPending,
+                               @Value("${widget.ws.send-buffer:524288}") int sendBufferBytes,
+                               @Value("${widget.ws.send-timeout:5s}") Duration sendTimeout) {
+        this.widgetRepository = widgetRepository;
+        this.objectMapper = objectMapper;
+        this.tickNanos = tick.toNanos();
+        this.maxPending = maxPending;
+        this.sendBufferBytes = sendBufferBytes;
+        this.sendTimeoutMillis = (int) sendTimeout.toMillis();
+    }
+
+    @PostConstruct
+    public void start() {
+        ticker.scheduleWithFixedDelay(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+        String boardId = boardId(session.getUri());
+        ChangeFeed feed;
+        try {
+            feed = widgetRepository.getBoard(boardId).getChangeFeed();
+        } catch (BadRequestException e) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason(e.getMessage()));
+            return;
+        }
+
+        Client client = new Client(new ConcurrentWebSocketSessionDecorator(session, sendTimeoutMillis, sendBufferBytes,
+                ConcurrentWebSocketSessionDecorator.OverflowStrategy.TERMINATE));
+        String key = boardId == null ? ShardedWidgetRepository.DEFAULT_BOARD : boardId;
+        // Registered under the map, so the tick can't drop the board in between, but sent to outside of it
+        Board board = boards.compute(key, (ignored, current) -> {
+            Board joined = current == null ? new Board(boardId, feed.getVersion()) : current;
+            joined.clients.add(client);
+            return joined;
+        });
+        client.board = board;
+        // Broadcasts skip the client until then, so its changes start right after the version it is told
+        synchronized (board) {
+            client.send(event(SocketEventDTO.version(board.cursor)));
+            client.joined = true;
+        }
+        session.getAttributes().put(CLIENT_ATTRIBUTE, client);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Client client = (Client) session.getAttributes().remove(CLIENT_ATTRIBUTE);
+        if (client == null) {
+            return;
+        }
+
+        // The board is dropped by the tick once its queued mutations are applied
+        client.board.clients.remove(client);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        Client client = (Client) session.getAttributes().get(CLIENT_ATTRIBUTE);
+        if (client == null) {
+            return;
+        }
+
+        SocketMutationDTO mutation;
+        try {
+            mutation = objectMapper.readValue(message.getPayload(), SocketMutationDTO.class);
+        } catch (JsonProcessingException e) {
+            client.send(event(SocketEventDTO.error(null, "Malformed mutation")));
+            return;
+        }
+
+        WidgetOperation operation;
+        try {
+            operation = mutation.toOperation();
+        } catch (BadRequestException e) {
+            client.send(event(SocketEventDTO.error(mutation.getSeq(), e.getMessage())));
+            return;
+        }
+
+        if (client.pending.incrementAndGet() > maxPending) {
+            client.pending.decrementAndGet();
+            client.send(event(SocketEventDTO.error(mutation.getSeq(), "Too many pending mutations")));
+            return;
+        }
+        client.board.mutations.add(new Mutation(client, mutation.getSeq(), operation));
+    }
+
+    /**
+     * Applies the queued mutations of every board and sends the resulting changes.
+     */
+    void tick() {
+        for (Board board : boards.values()) {
+            try {
+                WidgetStore store = widgetRepository.getBoard(board.id);
+                apply(board, store);
+                broadcast(board, store.getChangeFeed());
+            } catch (RuntimeException e) {
+                log.warn("Tick of the sockets of board {} failed", board.key(), e);
+            }
+            // Connecting to the board goes through the map too, so a client can't join a dropped board
+            boards.computeIfPresent(board.key(),
+                    (key, current) -> current.clients.isEmpty() && current.mutations.isEmpty() ? null : current);
+        }
+    }
+
+    private void apply(Board board, WidgetStore store) {
+        List<Mutation> mutations = new ArrayList<>();
+        for (Mutation mutation = board.mutations.poll(); mutation != null; mutation = board.mutations.poll()) {
+            mutation.client.pending.decrementAndGet();
+            mutations.add(mutation);
+        }
+
+        // A failed operation fails the batch. A store reports all the operations failing validation at once, so the
+        // rest is applied again as one batch; if it fails again, the rest is applied one operation at a time. So a tick
+        // applies its operations at most twice as batches and once more one by one, however many of them fail
+        List<Step> steps = coalesce(mutations);
+        List<Step> rest = applyTogether(store, steps);
+        if (rest.size() > 1 && rest.size() < steps.size()) {
+            rest = applyTogether(store, rest);
+        }
+        rest.forEach(step -> applyTogether(store, Collections.singletonList(step)));
+    }
+
+    /**
+     * Applies the steps as one batch.
+     *
+     * @return steps skipped because of the failed ones, or all of them if the batch failed without telling which
+     */
+    private List<Step> applyTogether(WidgetStore store, List<Step> steps) {
+        List<WidgetOperationResult> results;
+        try {
+            results = store.applyBatch(steps.stream().map(step -> step.operation).collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            if (steps.size() > 1) {
+                return steps;
+            }
+            steps.get(0).reject(e.getMessage());
+            return Collections.emptyList();
+        }
+
+        long version = store.getChangeFeed().getVersion();
+        List<Step> skipped = new ArrayList<>();
+        for (int i = 0; i < steps.size(); i++) {
+            WidgetOperationResult result = results.get(i);
+            switch (result.getStatus()) {
+                case APPLIED:
+                    steps.get(i).acknowledge(version, result);
+                    break;
+                case FAILED:
+                    steps.get(i).reject(result.getError());
+                    break;
+                case SKIPPED:
+                    skipped.add(steps.get(i));
+                    break;
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Merges every patch which keeps the z-order into the previous one of the same widget. Nothing in between can
+     * depend on the position of the widget, anything else done to the widget ends the run of merged patches.
+     */
+    private List<Step> coalesce(List<Mutation> mutations) {
+        List<Step> steps = new ArrayList<>(mutations.size());
+        Map<String, Step> mergeable = new HashMap<>();
+        for (Mutation mutation : mutations) {
+            WidgetOperation operation = mutation.operation;
+            boolean keepsZOrder = operation.getType() == WidgetOperation.Type.PATCH && operation.getPatch().getZIndex() == null;
+            Step previous = operation.getWidgetId() == null ? null : mergeable.get(operation.getWidgetId());
+            if (keepsZOrder && previous != null) {
+                previous.merge(mutation);
+                continue;
+            }
+
+            Step step = new Step(mutation);
+            steps.add(step);
+            if (operation.getWidgetId() != null) {
+                if (keepsZOrder) {
+                    mergeable.put(operation.getWidgetId(), step);
+                } else {
+                    mergeable.remove(operation.getWidgetId());
+                }
+            }
+        }
+
+        return steps;
+    }
+
+    private void broadcast(Board board, ChangeFeed feed) {
+        synchronized (board) {
+            long version = feed.getVersion();
+            if (version == board.cursor) {
+                return;
+            }
+
+            Optional<List<WidgetChange>> changes = feed.getChangesSince(board.cursor);
+            String payload;
+            if (changes.isEmpty()) {
+                payload = event(SocketEventDTO.resync(version));
+                board.cursor = version;
+            } else if (changes.get().isEmpty()) {
+                return;
+            } else {
+                List<WidgetChange> newChanges = changes.get();
+                board.cursor = newChanges.get(newChanges.size() - 1).getVersion();
+                payload = event(SocketEventDTO.changes(board.cursor,
+                        newChanges.stream().map(WidgetChangeDTO::fromChange).collect(Collectors.toList())));
+            }
+            board.clients.forEach(client -> {
+                if (client.joined) {
+                    client.send(payload);
+                }
+            });
+        }
+    }
+
+    private String event(SocketEventDTO event) {
+        try {
+            return objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Socket event can't be serialized", e);
+        }
+    }
+
+    private static String boardId(URI uri) {
+        if (uri == null || !BOARD_TEMPLATE.matches(uri.getPath())) {
+            return null;
+        }
+        return UriUtils.decode(BOARD_TEMPLATE.match(uri.getPath()).get("boardId"), StandardCharsets.UTF_8);
+    }
+
+    private static final class Board {
+        // Null for the default board
+        private final String id;
+        private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+        private final Queue<Mutation> mutations = new ConcurrentLinkedQueue<>();
+        // Version of the last change sent to the clients, guarded by the board
+        private long cursor;
+
+        private Board(String id, long cursor) {
+            this.id = id;
+            this.cursor = cursor;
+        }
+
+        private String key() {
+            return id == null ? ShardedWidgetRepository.DEFAULT_BOARD : id;
+        }
+    }
+
+    private static final class Client {
+        private final WebSocketSession session;
+        private final AtomicInteger pending = new AtomicInteger();
+        private Board board;
+        // Told the version its changes start from, guarded by the board
+        private boolean joined;
+
+        private Client(WebSocketSession session) {
+            this.session = session;
+        }
+
+        /**
+         * A session which can't keep up is closed by the decorator, the client has to reconnect and reload the board.
+         */
+        private void send(String payload) {
+            try {
+                session.sendMessage(new TextMessage(payload));
+            } catch (IOException | RuntimeException e) {
+                log.debug("Widget socket {} is gone", session.getId(), e);
+            }
+        }
+    }
+
+    private static final class Mutation {
+        private final Client client;
+        private final long seq;
+        private final WidgetOperation operation;
+
+        private Mutation(Client client, long seq, WidgetOperation operation) {
+            this.client = client;
+            this.seq = seq;
+            this.operation = operation;
+        }
+    }
+
+    /**
+     * Operation of a batch together with the mutations merged into it.
+     */
+    private final class Step {
+        private final List<Mutation> mutations = new ArrayList<>(1);
+        private WidgetOperation operation;
+
+        private Step(Mutation mutation) {
+            this.mutations.add(mutation);
+            this.operation = mutation.operation;
+        }
+
+        private void merge(Mutation mutation) {
+            mutations.add(mutation);
+            operation = WidgetOperation.patch(operation.getWidgetId(),
+                    operation.getPatch().followedBy(mutation.operation.getPatch()));
+        }
+
+        private void acknowledge(long version, WidgetOperationResult result) {
+            WidgetResponseDTO widget = result.getWidget() == null ? null : WidgetResponseDTO.fromWidget(result.getWidget());
+            mutations.forEach(mutation -> mutation.client.send(event(SocketEventDTO.ack(mutation.seq, version, widget))));
+        }
+
+        private void reject(String error) {
+            mutations.forEach(mutation -> mutation.client.send(event(SocketEventDTO.error(mutation.seq, error))));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.miro.widget.util;
+
+import com.miro.widget.error.PreconditionFailedException;
+import com.miro.widget.model.WidgetRevision;
+
+import java.util.Arrays;
+
+/**
+ * Strong entity tags built from board versions.
+ * A widget is tagged with its {@link WidgetRevision}, a list with the board version and the parameters of the list,
+ * so a tag can be checked before anything is read or serialized.
+ */
+public class ETagUtil {
+
+    public static String widgetTag(WidgetRevision revision) {
+        return String.format("\"%d.%d\"", revision.getVersion(), revision.getZIndex());
+    }
+
+    /**
+     * Tag of a list read from the board at the version, {@code parameters} are the ones which select the list.
+     */
+    public static String listTag(long boardVersion, Object... parameters) {
+        StringBuilder tag = new StringBuilder("\"").append(boardVersion);
+        for (Object parameter : parameters) {
+            tag.append(':').append(parameter);
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * Checks If-None-Match, which uses weak comparison: any of the listed tags or {@code *} matches.
+     */
+    public static boolean noneMatchFails(String ifNoneMatch, String tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .map(candidate -> candidate.startsWith("W/") ? candidate.substring(2) : candidate)
+                .anyMatch(candidate -> candidate.equals("*") || candidate.equals(tag));
+    }
+
+    /**
+     * Parses If-Match of a widget write into the expected revision, null if the header is absent or {@code *}.
+     * A tag which isn't a strong widget tag can't match, so the write fails right away.
+     */
+    public static WidgetRevision expectedRevision(String ifMatch, String widgetId) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+
+        String tag = ifMatch.trim();
+        int dot = tag.indexOf('.');
+        if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"") || dot < 0) {
+            throw new PreconditionFailedException(widgetId);
+        }
+        try {
+            return new WidgetRevision(
+                    Long.parseLong(tag.substring(1, dot)),
+                    Integer.parseInt(tag.substring(dot + 1, tag.length() - 1))
+            );
+        } catch (NumberFormatException e) {
+            throw new PreconditionFailedException(widgetId);
+        }
+    }
+}
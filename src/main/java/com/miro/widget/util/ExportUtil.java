@@ -0,0 +1,116 @@
+package com.miro.widget.util;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.repository.WidgetStore;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Streams all widgets of a board to the response in z-order.
+ * Widgets are read from the store in chunks through the cursor and written with a {@link JsonGenerator} field by
+ * field, the same way {@link com.miro.widget.dto.WidgetResponseDTO} is serialized. No DTO is created and only one
+ * chunk is held at a time, so memory doesn't depend on the size of the board, and the store isn't locked while
+ * the response is written. The chunks are read at different moments: widgets moved by concurrent writes may be
+ * missed or repeated.
+ */
+public class ExportUtil {
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    private static final int CHUNK_SIZE = 500;
+    private static final int ID_LENGTH = 16;
+
+    /**
+     * Writes the widgets as one array, in JSON or in the binary format of the factory.
+     */
+    public static StreamingResponseBody exportJson(WidgetStore store, JsonFactory jsonFactory) {
+        return outputStream -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8)) {
+                byte[] idBuffer = new byte[ID_LENGTH];
+                generator.writeStartArray();
+                forEachChunk(store, widgets -> {
+                    for (Widget widget : widgets) {
+                        writeWidget(generator, widget, idBuffer);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+    }
+
+    /**
+     * Writes every widget as a JSON object on its own line.
+     */
+    public static StreamingResponseBody exportNdjson(WidgetStore store, JsonFactory jsonFactory) {
+        return outputStream -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8)) {
+                byte[] idBuffer = new byte[ID_LENGTH];
+                generator.setRootValueSeparator(null);
+                forEachChunk(store, widgets -> {
+                    for (Widget widget : widgets) {
+                        writeWidget(generator, widget, idBuffer);
+                        generator.writeRaw('\n');
+                    }
+                    // Every chunk is handed to the client as soon as it's written
+                    generator.flush();
+                });
+            }
+        };
+    }
+
+    private static void forEachChunk(WidgetStore store, ChunkWriter writer) throws IOException {
+        Integer cursor = null;
+        WidgetPage page;
+        do {
+            page = store.getWidgetsAfter(cursor, CHUNK_SIZE);
+            List<Widget> widgets = page.getWidgets();
+            if (widgets.isEmpty()) {
+                return;
+            }
+            writer.write(widgets);
+            cursor = widgets.get(widgets.size() - 1).getZIndex();
+        } while (page.hasMore());
+    }
+
+    /**
+     * Binary formats get the id as 16 raw bytes, as Jackson writes a {@link UUID} there.
+     */
+    private static void writeWidget(JsonGenerator generator, Widget widget, byte[] idBuffer) throws IOException {
+        generator.writeStartObject();
+        UUID id = widget.getId();
+        if (generator.canWriteBinaryNatively()) {
+            ByteBuffer.wrap(idBuffer).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+            generator.writeFieldName("id");
+            generator.writeBinary(idBuffer, 0, ID_LENGTH);
+        } else {
+            generator.writeStringField("id", id.toString());
+        }
+        writeNumberField(generator, "centerX", widget.getCenterX());
+        writeNumberField(generator, "centerY", widget.getCenterY());
+        writeNumberField(generator, "height", widget.getHeight());
+        writeNumberField(generator, "width", widget.getWidth());
+        writeNumberField(generator, "zindex", widget.getZIndex());
+        generator.writeEndObject();
+    }
+
+    private static void writeNumberField(JsonGenerator generator, String name, Integer value) throws IOException {
+        generator.writeFieldName(name);
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value);
+        }
+    }
+
+    private interface ChunkWriter {
+        void write(List<Widget> widgets) throws IOException;
+    }
+}
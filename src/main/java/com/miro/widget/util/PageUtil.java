@@ -1,16 +1,89 @@
 package com.miro.widget.util;
 
+import com.miro.widget.dto.CursorPagedWidgetResponseDTO;
 import com.miro.widget.dto.PagedWidgetResponseDTO;
 import com.miro.widget.dto.WidgetResponseDTO;
 import com.miro.widget.error.BadRequestException;
 import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.repository.WidgetStore;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.stream.Collectors;
 
 public class PageUtil {
 
     public static PagedWidgetResponseDTO getPagedResponse(int page, int limit, Collection<Widget> widgets) {
+        validateLimit(limit);
+        validatePage(page);
+
+        int totalSize = widgets.size();
+
+        return new PagedWidgetResponseDTO(
+                widgets.stream().skip((long) limit * (page - 1)).limit(limit).map(WidgetResponseDTO::fromWidget).collect(Collectors.toList()),
+                page,
+                getTotalPages(totalSize, limit)
+        );
+    }
+
+    /**
+     * Reads only the requested page from the repository, the total number of pages comes from the widget counter.
+     */
+    public static PagedWidgetResponseDTO getPagedResponse(int page, int limit, WidgetStore repository) {
+        validateLimit(limit);
+        validatePage(page);
+
+        long offset = (long) limit * (page - 1);
+        WidgetPage widgetPage = repository.getWidgetsPage((int) Math.min(offset, Integer.MAX_VALUE), limit);
+
+        return new PagedWidgetResponseDTO(
+                toResponse(widgetPage.getWidgets()),
+                page,
+                getTotalPages(widgetPage.getTotalCount(), limit)
+        );
+    }
+
+    /**
+     * Reads widgets with z-index higher than the cursor from the repository.
+     * The next cursor is the z-index of the last returned widget, or null when nothing is left.
+     */
+    public static CursorPagedWidgetResponseDTO getCursorResponse(Integer cursor, int limit, WidgetStore repository) {
+        validateLimit(limit);
+
+        return toCursorResponse(repository.getWidgetsAfter(cursor, limit));
+    }
+
+    /**
+     * Same as {@link #getCursorResponse(Integer, int, WidgetStore)} for widgets already ordered by z-index.
+     */
+    public static CursorPagedWidgetResponseDTO getCursorResponse(Integer cursor, int limit, Collection<Widget> widgets) {
+        validateLimit(limit);
+
+        List<Widget> tail = widgets.stream()
+                .filter(widget -> cursor == null || widget.getZIndex() > cursor)
+                .collect(Collectors.toList());
+        List<Widget> result = tail.subList(0, Math.min(limit, tail.size()));
+
+        return toCursorResponse(new WidgetPage(result, widgets.size() - tail.size(), widgets.size()));
+    }
+
+    private static CursorPagedWidgetResponseDTO toCursorResponse(WidgetPage widgetPage) {
+        List<Widget> widgets = widgetPage.getWidgets();
+        Integer nextCursor = widgetPage.hasMore() ? widgets.get(widgets.size() - 1).getZIndex() : null;
+
+        return new CursorPagedWidgetResponseDTO(toResponse(widgets), nextCursor);
+    }
+
+    private static List<WidgetResponseDTO> toResponse(List<Widget> widgets) {
+        return widgets.stream().map(WidgetResponseDTO::fromWidget).collect(Collectors.toList());
+    }
+
+    private static int getTotalPages(int totalSize, int limit) {
+        return totalSize % limit == 0 ? totalSize / limit : totalSize / limit + 1;
+    }
+
+    private static void validateLimit(int limit) {
         if (limit <= 0) {
             throw new BadRequestException("Limit should be positive");
         }
@@ -18,20 +91,12 @@ public class PageUtil {
         if (limit > 500) {
             throw new BadRequestException("Limit can't be higher than 500");
         }
+    }
 
+    private static void validatePage(int page) {
         if (page < 1) {
             throw new BadRequestException("Page number can't be less then 1");
         }
-
-        int totalSize = widgets.size();
-        int totalPages = totalSize % limit == 0 ? totalSize / limit : totalSize / limit + 1;
-
-        return new PagedWidgetResponseDTO(
-                widgets.stream().skip(limit * (page - 1)).limit(limit).map(WidgetResponseDTO::fromWidget).collect(Collectors.toList()),
-                page,
-                totalPages
-        );
-
     }
 
 }
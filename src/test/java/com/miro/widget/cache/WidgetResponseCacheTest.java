@@ -0,0 +1,69 @@
+package com.miro.widget.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.widget.dto.WidgetResponseDTO;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.repository.WidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+public class WidgetResponseCacheTest {
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private WidgetResponseCache cache = new WidgetResponseCache(100, objectMapper);
+    private WidgetStore board = new WidgetRepository();
+
+    @Test
+    void testRepeatedReadIsServedFromCache() throws Exception {
+        Widget widget = board.addWidget(generateWidget(0));
+        String id = widget.getId().toString();
+
+        WidgetResponseCache.CachedWidget first = cache.getWidget(board, id);
+        WidgetResponseCache.CachedWidget second = cache.getWidget(board, id);
+
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, cache.getCache().stats().hitCount());
+        Assertions.assertEquals(1, cache.getCache().stats().missCount());
+        Assertions.assertArrayEquals(objectMapper.writeValueAsBytes(WidgetResponseDTO.fromWidget(widget)),
+                second.encode(ResponseFormat.JSON));
+    }
+
+    @Test
+    void testWriteOfWidgetInvalidatesOnlyItsEntry() {
+        String changed = board.addWidget(generateWidget(0)).getId().toString();
+        String other = board.addWidget(generateWidget(5)).getId().toString();
+        WidgetResponseCache.CachedWidget before = cache.getWidget(board, changed);
+        WidgetResponseCache.CachedWidget untouched = cache.getWidget(board, other);
+
+        board.patchWidget(changed, new WidgetPatch(10, null, null, null, null), null);
+
+        Assertions.assertNotEquals(before.getTag(), cache.getWidget(board, changed).getTag());
+        Assertions.assertSame(untouched, cache.getWidget(board, other));
+        // Lower case ids in the feed still match an upper case request
+        board.deleteWidget(other);
+        Assertions.assertThrows(RuntimeException.class, () -> cache.getWidget(board, other.toUpperCase()));
+    }
+
+    @Test
+    void testShiftInvalidatesEntriesInShiftedRun() {
+        String shifted = board.addWidget(generateWidget(1)).getId().toString();
+        String afterGap = board.addWidget(generateWidget(3)).getId().toString();
+        WidgetResponseCache.CachedWidget shiftedBefore = cache.getWidget(board, shifted);
+        WidgetResponseCache.CachedWidget afterGapBefore = cache.getWidget(board, afterGap);
+
+        board.addWidget(generateWidget(1));
+
+        WidgetResponseCache.CachedWidget shiftedAfter = cache.getWidget(board, shifted);
+        Assertions.assertNotSame(shiftedBefore, shiftedAfter);
+        Assertions.assertTrue(new String(shiftedAfter.encode(ResponseFormat.JSON)).contains("\"zindex\":2"));
+        Assertions.assertSame(afterGapBefore, cache.getWidget(board, afterGap));
+    }
+
+    private static Widget generateWidget(Integer zIndex) {
+        return new Widget(UUID.randomUUID(), 1, 1, zIndex, 1, 1, LocalDateTime.now());
+    }
+}
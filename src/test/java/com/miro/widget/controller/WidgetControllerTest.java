@@ -0,0 +1,232 @@
+package com.miro.widget.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.miro.widget.cache.WidgetResponseCache;
+import com.miro.widget.error.ReadOnlyReplicaException;
+import com.miro.widget.feed.ChangeStreamService;
+import com.miro.widget.model.Widget;
+import com.miro.widget.patch.PatchCoalescer;
+import com.miro.widget.repository.ChangeFeed;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.SnapshotWidgetRepository;
+import com.miro.widget.repository.VersionHistory;
+import com.miro.widget.repository.WidgetStore;
+import com.miro.widget.repository.WidgetStoreMetrics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static com.miro.widget.util.ExportUtil.APPLICATION_SMILE_VALUE;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(WidgetController.class)
+@Import({WidgetResponseCache.class, PatchCoalescer.class})
+public class WidgetControllerTest {
+    private static final String BODY = "{\"centerX\":5,\"centerY\":5,\"zIndex\":1,\"height\":1,\"width\":1}";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ShardedWidgetRepository widgetRepository;
+
+    @MockBean
+    private ChangeStreamService changeStreamService;
+
+    // Keeps only the last few versions, so an older asOfVersion is expired
+    private WidgetStore board = new SnapshotWidgetRepository(new WidgetStoreMetrics(), new ChangeFeed(),
+            VersionHistory.DEFAULT_RETENTION, 3);
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(widgetRepository.getBoard(ArgumentMatchers.any())).thenReturn(board);
+        Mockito.when(widgetRepository.readBoard(ArgumentMatchers.any())).thenReturn(board);
+    }
+
+    @Test
+    void testWidgetWithCurrentTagIsNotModified() throws Exception {
+        String id = board.addWidget(generateWidget(1)).getId().toString();
+        String tag = mockMvc.perform(get("/api/widgets/" + id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(id))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotNull(tag);
+
+        mockMvc.perform(get("/api/widgets/" + id).header(HttpHeaders.IF_NONE_MATCH, tag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, tag))
+                .andExpect(content().string(""));
+
+        board.addWidget(generateWidget(1));
+        mockMvc.perform(get("/api/widgets/" + id).header(HttpHeaders.IF_NONE_MATCH, tag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.zindex").value(2));
+    }
+
+    @Test
+    void testWriteWithStaleTagFails() throws Exception {
+        String id = board.addWidget(generateWidget(1)).getId().toString();
+        String stale = mockMvc.perform(get("/api/widgets/" + id)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        board.addWidget(generateWidget(1));
+
+        mockMvc.perform(put("/api/widgets/" + id).header(HttpHeaders.IF_MATCH, stale)
+                .contentType(MediaType.APPLICATION_JSON).content(BODY))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(patch("/api/widgets/" + id).header(HttpHeaders.IF_MATCH, stale)
+                .contentType(MediaType.APPLICATION_JSON).content("{\"centerX\":7}"))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(delete("/api/widgets/" + id).header(HttpHeaders.IF_MATCH, stale))
+                .andExpect(status().isPreconditionFailed());
+        Assertions.assertEquals(1, board.getWidget(id).getCenterX());
+
+        String current = mockMvc.perform(get("/api/widgets/" + id)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(put("/api/widgets/" + id).header(HttpHeaders.IF_MATCH, current)
+                .contentType(MediaType.APPLICATION_JSON).content(BODY))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.centerX").value(5));
+    }
+
+    @Test
+    void testListWithCurrentTagIsNotModified() throws Exception {
+        board.addWidget(generateWidget(1));
+        String tag = mockMvc.perform(get("/api/widgets").param("page", "1"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/api/widgets").param("page", "1").header(HttpHeaders.IF_NONE_MATCH, tag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/widgets").param("page", "2").header(HttpHeaders.IF_NONE_MATCH, tag))
+                .andExpect(status().isOk());
+
+        board.addWidget(generateWidget(2));
+        mockMvc.perform(get("/api/widgets").param("page", "1").header(HttpHeaders.IF_NONE_MATCH, tag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.result.length()").value(2));
+    }
+
+    @Test
+    void testListParametersSelectEndpoint() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            board.addWidget(generateWidget(i));
+        }
+
+        mockMvc.perform(get("/api/widgets").param("page", "1").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.page").value(1))
+                .andExpect(jsonPath("$.totalPages").value(2))
+                .andExpect(jsonPath("$.result.length()").value(2));
+        mockMvc.perform(get("/api/widgets").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.nextCursor").value(1))
+                .andExpect(jsonPath("$.result.length()").value(2));
+        mockMvc.perform(get("/api/widgets").param("sinceVersion", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(3))
+                .andExpect(jsonPath("$.full").value(false))
+                .andExpect(jsonPath("$.result.length()").value(1));
+        mockMvc.perform(get("/api/widgets").param("page", "1").param("sinceVersion", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(3))
+                .andExpect(jsonPath("$.page").doesNotExist());
+    }
+
+    @Test
+    void testExpiredVersionIsGone() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            board.addWidget(generateWidget(i));
+        }
+
+        mockMvc.perform(get("/api/widgets").param("page", "1").param("asOfVersion", "1"))
+                .andExpect(status().isGone());
+        mockMvc.perform(get("/api/widgets").param("asOfVersion", "1"))
+                .andExpect(status().isGone());
+        mockMvc.perform(get("/api/widgets").param("page", "1").param("asOfVersion", "4"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.result.length()").value(4));
+    }
+
+    @Test
+    void testWriteToReplicaIsNotAllowed() throws Exception {
+        WidgetStore replica = Mockito.mock(WidgetStore.class);
+        Mockito.doThrow(new ReadOnlyReplicaException("replica"))
+                .when(replica).deleteWidget(ArgumentMatchers.any(), ArgumentMatchers.any());
+        Mockito.when(replica.updateWidget(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+                .thenThrow(new ReadOnlyReplicaException("replica"));
+        Mockito.when(widgetRepository.getBoard("replica")).thenReturn(replica);
+        String id = UUID.randomUUID().toString();
+
+        mockMvc.perform(delete("/api/boards/replica/widgets/" + id))
+                .andExpect(status().isMethodNotAllowed())
+                .andExpect(jsonPath("$.detail").exists());
+        mockMvc.perform(put("/api/boards/replica/widgets/" + id)
+                .contentType(MediaType.APPLICATION_JSON).content(BODY))
+                .andExpect(status().isMethodNotAllowed());
+    }
+
+    @Test
+    void testWidgetIsNegotiatedAsCborAndSmile() throws Exception {
+        String id = board.addWidget(generateWidget(1)).getId().toString();
+
+        for (MediaType mediaType : Arrays.asList(MediaType.APPLICATION_CBOR, MediaType.valueOf(APPLICATION_SMILE_VALUE))) {
+            byte[] body = mockMvc.perform(get("/api/widgets/" + id).accept(mediaType))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(mediaType))
+                    .andExpect(header().exists(HttpHeaders.ETAG))
+                    .andReturn().getResponse().getContentAsByteArray();
+
+            ObjectMapper mapper = mapper(mediaType);
+            Assertions.assertEquals(id, mapper.treeToValue(mapper.readTree(body).get("id"), UUID.class).toString());
+        }
+
+        mockMvc.perform(get("/api/widgets/" + id).accept(MediaType.TEXT_PLAIN))
+                .andExpect(status().isNotAcceptable());
+    }
+
+    @Test
+    void testListIsNegotiatedAsCborAndSmile() throws Exception {
+        String id = board.addWidget(generateWidget(1)).getId().toString();
+
+        for (MediaType mediaType : Arrays.asList(MediaType.APPLICATION_CBOR, MediaType.valueOf(APPLICATION_SMILE_VALUE))) {
+            byte[] body = mockMvc.perform(get("/api/widgets").param("page", "1").accept(mediaType))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(mediaType))
+                    .andReturn().getResponse().getContentAsByteArray();
+
+            ObjectMapper mapper = mapper(mediaType);
+            JsonNode widget = mapper.readTree(body).get("result").get(0);
+            Assertions.assertEquals(id, mapper.treeToValue(widget.get("id"), UUID.class).toString());
+        }
+    }
+
+    private static ObjectMapper mapper(MediaType mediaType) {
+        return new ObjectMapper(MediaType.APPLICATION_CBOR.equals(mediaType) ? new CBORFactory() : new SmileFactory());
+    }
+
+    private static Widget generateWidget(Integer zIndex) {
+        return new Widget(UUID.randomUUID(), 1, 1, zIndex, 1, 1, LocalDateTime.now());
+    }
+}
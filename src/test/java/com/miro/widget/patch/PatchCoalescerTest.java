@@ -0,0 +1,66 @@
+package com.miro.widget.patch;
+
+import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.repository.WidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class PatchCoalescerTest {
+    private PatchCoalescer coalescer = new PatchCoalescer(Duration.ofMillis(200));
+    private WidgetStore board = new WidgetRepository();
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        coalescer.close();
+    }
+
+    @Test
+    void testBurstOfPatchesIsWrittenOnce() {
+        String id = board.addWidget(generateWidget()).getId().toString();
+        long version = board.getChangeFeed().getVersion();
+
+        CompletableFuture<Widget> first = coalescer.patch(board, id, new WidgetPatch(5, null, null, null, null), null);
+        CompletableFuture<Widget> second = coalescer.patch(board, id, new WidgetPatch(null, 8, null, 3, null), null);
+        Assertions.assertFalse(first.isDone());
+
+        Widget widget = first.join();
+        Assertions.assertSame(widget, second.join());
+        Assertions.assertEquals(5, widget.getCenterX());
+        Assertions.assertEquals(8, widget.getCenterY());
+        Assertions.assertEquals(3, widget.getHeight());
+        Assertions.assertEquals(version + 1, board.getChangeFeed().getVersion());
+    }
+
+    @Test
+    void testPatchMovingInZOrderIsNotDelayed() {
+        String id = board.addWidget(generateWidget()).getId().toString();
+
+        Widget widget = coalescer.patch(board, id, new WidgetPatch(null, null, 10, null, null), null).getNow(null);
+
+        Assertions.assertEquals(10, widget.getZIndex());
+        Assertions.assertEquals(10, board.getWidget(id).getZIndex());
+    }
+
+    @Test
+    void testFailureIsReportedToCaller() {
+        String id = UUID.randomUUID().toString();
+
+        CompletionException e = Assertions.assertThrows(CompletionException.class,
+                () -> coalescer.patch(board, id, new WidgetPatch(1, 1, null, null, null), null).join());
+        Assertions.assertTrue(e.getCause() instanceof WidgetNotFoundException);
+    }
+
+    private static Widget generateWidget() {
+        return new Widget(UUID.randomUUID(), 1, 1, null, 1, 1, LocalDateTime.now());
+    }
+}
@@ -0,0 +1,182 @@
+package com.miro.widget.persistence;
+
+import com.miro.widget.error.PreconditionFailedException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetRevision;
+import com.miro.widget.repository.WidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class WidgetPersistenceTest {
+    @TempDir
+    Path directory;
+
+    private WidgetPersistence persistence;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        persistence.close();
+    }
+
+    @Test
+    void testBoardsAreRecoveredFromLog() throws IOException {
+        Map<String, WidgetStore> boards = restart(false);
+        WidgetStore first = persistence.open("first", boardId -> new WidgetRepository());
+        WidgetStore second = persistence.open("second", boardId -> new WidgetRepository());
+
+        Widget moved = first.addWidget(generateWidget(0));
+        Widget deleted = first.addWidget(generateWidget(0));
+        first.addWidget(generateWidget(null));
+        first.updateWidget(moved.getId().toString(), generateWidget(1));
+        first.deleteWidget(deleted.getId().toString());
+        second.applyBatch(Arrays.asList(
+                new WidgetOperation(WidgetOperation.Type.CREATE, null, generateWidget(5)),
+                new WidgetOperation(WidgetOperation.Type.CREATE, null, generateWidget(5))
+        ));
+        Assertions.assertTrue(boards.isEmpty());
+
+        boards = restart(false);
+
+        Assertions.assertEquals(toKeys(first.getAllWidgets()), toKeys(boards.get("first").getAllWidgets()));
+        Assertions.assertEquals(toKeys(second.getAllWidgets()), toKeys(boards.get("second").getAllWidgets()));
+    }
+
+    @Test
+    void testCheckpointTruncatesLog() throws IOException {
+        restart(true);
+        WidgetStore board = persistence.open("board", boardId -> new WidgetRepository());
+        for (int i = 0; i < 100; i++) {
+            board.addWidget(generateWidget(0));
+        }
+
+        persistence.checkpoint(() -> Collections.singletonList(board));
+        board.addWidget(generateWidget(50));
+        List<String> expected = toKeys(board.getAllWidgets());
+
+        Map<String, WidgetStore> boards = restart(true);
+
+        Assertions.assertEquals(expected, toKeys(boards.get("board").getAllWidgets()));
+        Assertions.assertEquals(2, countFiles("wal-"));
+        Assertions.assertEquals(1, countFiles("board-"));
+    }
+
+    @Test
+    void testBoardWrittenDuringCheckpointKeepsItsFrames() throws IOException {
+        restart(false);
+        WidgetStore board = persistence.open("board", boardId -> new WidgetRepository());
+        board.addWidget(generateWidget(0));
+        WidgetStore[] late = new WidgetStore[1];
+
+        // A board opened while the checkpoint runs is missing from its stores, its frames must outlive the checkpoint
+        persistence.checkpoint(() -> {
+            late[0] = persistence.open("late", boardId -> new WidgetRepository());
+            late[0].addWidget(generateWidget(0));
+            return Collections.singletonList(board);
+        });
+        Map<String, WidgetStore> boards = restart(false);
+
+        Assertions.assertEquals(toKeys(late[0].getAllWidgets()), toKeys(boards.get("late").getAllWidgets()));
+        Assertions.assertEquals(1, boards.get("board").countWidgets());
+    }
+
+    @Test
+    void testWriteRefusedByLogLeavesBoardUnchanged() throws IOException {
+        restart(false);
+        WidgetStore board = persistence.open("board", boardId -> new WidgetRepository());
+        Widget widget = board.addWidget(generateWidget(0));
+        long version = board.getChangeFeed().getVersion();
+
+        persistence.close();
+
+        Assertions.assertThrows(IllegalStateException.class, () -> board.addWidget(generateWidget(0)));
+        Assertions.assertThrows(IllegalStateException.class, () -> board.deleteWidget(widget.getId().toString()));
+        Assertions.assertEquals(1, board.countWidgets());
+        Assertions.assertEquals(version, board.getChangeFeed().getVersion());
+    }
+
+    @Test
+    void testTornWriteIsIgnored() throws IOException {
+        restart(false);
+        WidgetStore board = persistence.open("board", boardId -> new WidgetRepository());
+        board.addWidget(generateWidget(0));
+        List<String> expected = toKeys(board.getAllWidgets());
+        persistence.close();
+
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.getFileName().toString().startsWith("wal-")).findFirst().get();
+        }
+        Files.write(segment, new byte[]{0, 0, 1, 0, 42, 42}, StandardOpenOption.APPEND);
+
+        Map<String, WidgetStore> boards = restart(false);
+        boards.get("board").addWidget(generateWidget(0));
+        boards = restart(false);
+
+        Assertions.assertEquals(expected.size() + 1, boards.get("board").countWidgets());
+    }
+
+    @Test
+    void testRestoredBoardDoesNotRepeatRevisions() throws IOException {
+        restart(false);
+        WidgetStore board = persistence.open("board", boardId -> new WidgetRepository());
+        Widget moved = board.addWidget(generateWidget(0));
+        WidgetRevision stale = revisionOf(board, moved);
+        board.addWidget(generateWidget(1));
+        board.updateWidget(moved.getId().toString(), generateWidget(0));
+        long version = board.getChangeFeed().getVersion();
+        persistence.checkpoint(() -> Collections.singletonList(board));
+        board.addWidget(generateWidget(2));
+
+        // Loading the snapshot inserts the moved widget first, as it was created
+        WidgetStore restored = restart(false).get("board");
+
+        Assertions.assertNotEquals(stale, revisionOf(restored, moved));
+        Assertions.assertThrows(PreconditionFailedException.class,
+                () -> restored.updateWidget(moved.getId().toString(), generateWidget(0), stale));
+        Assertions.assertTrue(restored.getChangeFeed().getVersion() > version + 1);
+        Assertions.assertTrue(restored.getWidgetsChangedSince(version).isFull());
+        Assertions.assertFalse(restored.getChangeFeed().getChangesSince(version).isPresent());
+    }
+
+    private Map<String, WidgetStore> restart(boolean syncWrites) throws IOException {
+        if (persistence != null) {
+            persistence.close();
+        }
+        persistence = new WidgetPersistence(directory.toString(), syncWrites);
+        return persistence.recover(boardId -> new WidgetRepository());
+    }
+
+    private long countFiles(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).count();
+        }
+    }
+
+    private static WidgetRevision revisionOf(WidgetStore board, Widget widget) {
+        String widgetId = widget.getId().toString();
+        return new WidgetRevision(board.getChangeFeed().getWidgetVersion(widgetId), board.getWidget(widgetId).getZIndex());
+    }
+
+    private static List<String> toKeys(Collection<Widget> widgets) {
+        return widgets.stream().map(widget -> widget.getId() + ":" + widget.getZIndex() + ":" + widget.getCenterX())
+                .collect(Collectors.toList());
+    }
+
+    private static Widget generateWidget(Integer zIndex) {
+        Random random = new Random();
+        return new Widget(UUID.randomUUID(), random.nextInt(1_000), random.nextInt(1_000), zIndex, 10, 10, LocalDateTime.now());
+    }
+}
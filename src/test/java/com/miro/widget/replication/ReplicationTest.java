@@ -0,0 +1,168 @@
+package com.miro.widget.replication;
+
+import com.miro.widget.error.ReadOnlyReplicaException;
+import com.miro.widget.error.StaleReplicaException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.repository.ChangeFeed;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.VersionHistory;
+import com.miro.widget.repository.WidgetStore;
+import com.miro.widget.repository.WidgetStoreMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+public class ReplicationTest {
+    private ShardedWidgetRepository leaderRepository = new ShardedWidgetRepository("locking", Duration.ZERO);
+    // Read by the follower threads when they reconnect
+    private volatile ReplicationLeader leader;
+    private List<ReplicationFollower> followers = new ArrayList<>();
+
+    @BeforeEach
+    void startLeader() throws Exception {
+        leader = startLeader(leaderRepository);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        for (ReplicationFollower follower : followers) {
+            follower.close();
+        }
+        leader.close();
+    }
+
+    @Test
+    void testFollowersCatchUpFromSnapshotAndFollowWrites() {
+        WidgetStore board = leaderRepository.getBoard("a");
+        Widget bottom = board.addWidget(generateWidget(0));
+        Widget middle = board.addWidget(generateWidget(1));
+        board.addWidget(generateWidget(5));
+
+        ShardedWidgetRepository locking = startFollower("locking", Duration.ofSeconds(5));
+        ShardedWidgetRepository snapshot = startFollower("snapshot", Duration.ofSeconds(5));
+        awaitReplicated(locking, snapshot);
+
+        board.addWidget(generateWidget(0));
+        board.patchWidget(middle.getId().toString(), new WidgetPatch(7, 8, null, null, null), null);
+        board.updateWidget(bottom.getId().toString(), generateWidget(5));
+        board.deleteWidget(middle.getId().toString());
+        Widget created = generateWidget(2);
+        board.applyBatch(Arrays.asList(
+                new WidgetOperation(WidgetOperation.Type.CREATE, null, created),
+                new WidgetOperation(WidgetOperation.Type.DELETE, bottom.getId().toString(), null)));
+        leaderRepository.getBoard("b").addWidget(generateWidget(null));
+        awaitReplicated(locking, snapshot);
+
+        Assertions.assertEquals(3, snapshot.getBoard("a").countWidgets());
+        Assertions.assertEquals(1, locking.getBoard("b").countWidgets());
+    }
+
+    @Test
+    void testFollowerRejectsWritesAndStaleReads() throws Exception {
+        leaderRepository.getBoard(null).addWidget(generateWidget(0));
+        ShardedWidgetRepository follower = startFollower("locking", Duration.ofMillis(300));
+        ReplicationFollower replication = followers.get(0);
+        awaitReplicated(follower);
+        // Reads are allowed from the first heartbeat, which may come after the widgets
+        await(() -> replication.getStaleness().isPresent());
+
+        Assertions.assertThrows(ReadOnlyReplicaException.class, () -> follower.getBoard(null).addWidget(generateWidget(0)));
+        Assertions.assertThrows(ReadOnlyReplicaException.class, () -> follower.getBoard(null).applyBatch(List.of()));
+        replication.checkStaleness();
+
+        leader.close();
+        await(() -> {
+            try {
+                replication.checkStaleness();
+                return false;
+            } catch (StaleReplicaException e) {
+                return true;
+            }
+        });
+    }
+
+    @Test
+    void testFollowerStartsOverWithRestartedLeader() throws Exception {
+        leaderRepository.getBoard("gone").addWidget(generateWidget(0));
+        ShardedWidgetRepository follower = startFollower("columnar", Duration.ofSeconds(5));
+        awaitReplicated(follower);
+
+        leader.close();
+        leaderRepository = new ShardedWidgetRepository("snapshot", Duration.ZERO);
+        leaderRepository.getBoard("kept").addWidget(generateWidget(3));
+        // On a port of its own, the follower asks for the port of the current leader when reconnecting
+        leader = startLeader(leaderRepository);
+
+        await(() -> follower.getBoard("gone").countWidgets() == 0 && follower.getBoard("kept").countWidgets() == 1);
+        awaitReplicated(follower);
+    }
+
+    private ReplicationLeader startLeader(ShardedWidgetRepository repository) throws Exception {
+        ReplicationLeader started = new ReplicationLeader(repository, 0, Duration.ofMillis(20));
+        started.start();
+        return started;
+    }
+
+    private ShardedWidgetRepository startFollower(String mode, Duration maxStaleness) {
+        ShardedWidgetRepository repository = new ShardedWidgetRepository(mode, Duration.ZERO,
+                ChangeFeed.DEFAULT_CAPACITY, ChangeFeed.DEFAULT_TOMBSTONE_WINDOW, VersionHistory.DEFAULT_RETENTION,
+                VersionHistory.DEFAULT_MAX_VERSIONS, "follower", Optional.empty(), Optional.empty(),
+                new WidgetStoreMetrics());
+        ReplicationFollower follower = new ReplicationFollower(repository,
+                () -> InetSocketAddress.createUnresolved("localhost", leader.getPort()), maxStaleness);
+        follower.start();
+        followers.add(follower);
+        return repository;
+    }
+
+    private void awaitReplicated(ShardedWidgetRepository... replicas) {
+        for (ShardedWidgetRepository replica : replicas) {
+            await(() -> contentOf(replica).equals(contentOf(leaderRepository)));
+        }
+    }
+
+    /**
+     * Non-empty boards with their widgets in z-order, modification times are replicated at millisecond precision.
+     */
+    private static Map<String, List<String>> contentOf(ShardedWidgetRepository repository) {
+        Map<String, List<String>> content = new TreeMap<>();
+        repository.getBoards().entrySet().stream().filter(board -> board.getValue().countWidgets() > 0).forEach(
+                board -> content.put(board.getKey(), board.getValue().getAllWidgets().stream()
+                        .map(widget -> String.format("%s %d,%d z=%d %dx%d", widget.getId(), widget.getCenterX(),
+                                widget.getCenterY(), widget.getZIndex(), widget.getWidth(), widget.getHeight()))
+                        .collect(Collectors.toList())));
+        return content;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.nanoTime() < deadline, "Replication didn't catch up");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private static Widget generateWidget(Integer zIndex) {
+        return new Widget(UUID.randomUUID(), 1, 1, zIndex, 1, 1, LocalDateTime.now());
+    }
+}
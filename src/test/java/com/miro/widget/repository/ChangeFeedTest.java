@@ -0,0 +1,214 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.PreconditionFailedException;
+import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetChange;
+import com.miro.widget.model.WidgetDelta;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetPatch;
+import com.miro.widget.model.WidgetRevision;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class ChangeFeedTest {
+    private ChangeFeed changeFeed = new ChangeFeed(8);
+    private WidgetRepository repository = new WidgetRepository(new WidgetStoreMetrics(), changeFeed);
+
+    @Test
+    void testShiftIsPublishedBeforeTheCausingChange() {
+        repository.addWidget(generateWidget(1));
+        repository.addWidget(generateWidget(2));
+        Widget widget = repository.addWidget(generateWidget(1));
+
+        List<WidgetChange> changes = changeFeed.getChangesSince(2).get();
+
+        Assertions.assertEquals(Arrays.asList(WidgetChange.Type.Z_SHIFT, WidgetChange.Type.CREATE), types(changes));
+        Assertions.assertEquals(1, changes.get(0).getFromZIndex());
+        Assertions.assertEquals(2, changes.get(0).getCount());
+        Assertions.assertEquals(widget.getId().toString(), changes.get(1).getWidgetId());
+        Assertions.assertEquals(4, changeFeed.getVersion());
+    }
+
+    @Test
+    void testBatchIsCommittedAtOnce() {
+        Widget widget = repository.addWidget(generateWidget(0));
+        AtomicInteger commits = new AtomicInteger();
+        changeFeed.addListener(commits::incrementAndGet);
+
+        repository.applyBatch(Arrays.asList(
+                new WidgetOperation(WidgetOperation.Type.UPDATE, widget.getId().toString(), generateWidget(5)),
+                new WidgetOperation(WidgetOperation.Type.DELETE, widget.getId().toString(), null)
+        ));
+        Assertions.assertThrows(WidgetNotFoundException.class, () -> repository.deleteWidget(widget.getId().toString()));
+
+        Assertions.assertEquals(1, commits.get());
+        Assertions.assertEquals(Arrays.asList(WidgetChange.Type.UPDATE, WidgetChange.Type.DELETE),
+                types(changeFeed.getChangesSince(1).get()));
+    }
+
+    @Test
+    void testOverwrittenChangesRequireResync() {
+        for (int i = 0; i < 10; i++) {
+            repository.addWidget(generateWidget(null));
+        }
+
+        Assertions.assertTrue(changeFeed.getChangesSince(1).isEmpty());
+        Assertions.assertEquals(8, changeFeed.getChangesSince(2).get().size());
+        Assertions.assertTrue(changeFeed.getChangesSince(10).get().isEmpty());
+    }
+
+    @Test
+    void testDeltaHasOnlyChangedAndDeletedWidgets() {
+        Widget unchanged = repository.addWidget(generateWidget(0));
+        Widget updated = repository.addWidget(generateWidget(1));
+        Widget deleted = repository.addWidget(generateWidget(2));
+        long version = changeFeed.getVersion();
+
+        repository.updateWidget(updated.getId().toString(), generateWidget(10));
+        repository.deleteWidget(deleted.getId().toString());
+        Widget created = repository.addWidget(generateWidget(20));
+        WidgetDelta delta = repository.getWidgetsChangedSince(version);
+
+        Assertions.assertFalse(delta.isFull());
+        Assertions.assertEquals(changeFeed.getVersion(), delta.getVersion());
+        Assertions.assertEquals(Arrays.asList(updated.getId(), created.getId()), ids(delta.getWidgets()));
+        Assertions.assertEquals(Collections.singletonList(deleted.getId().toString()), delta.getDeletedIds());
+        Assertions.assertFalse(ids(delta.getWidgets()).contains(unchanged.getId()));
+        Assertions.assertTrue(repository.getWidgetsChangedSince(delta.getVersion()).getWidgets().isEmpty());
+    }
+
+    @Test
+    void testDeltaHasShiftedWidgets() {
+        Widget first = repository.addWidget(generateWidget(1));
+        Widget second = repository.addWidget(generateWidget(2));
+        Widget untouched = repository.addWidget(generateWidget(10));
+        long version = changeFeed.getVersion();
+
+        Widget created = repository.addWidget(generateWidget(1));
+        List<Widget> widgets = repository.getWidgetsChangedSince(version).getWidgets();
+
+        Assertions.assertEquals(Arrays.asList(created.getId(), first.getId(), second.getId()), ids(widgets));
+        Assertions.assertEquals(Arrays.asList(1, 2, 3),
+                widgets.stream().map(Widget::getZIndex).collect(Collectors.toList()));
+        Assertions.assertFalse(ids(widgets).contains(untouched.getId()));
+    }
+
+    @Test
+    void testDeltaHasWidgetsShiftedFromLowestZIndex() {
+        Widget first = repository.addWidget(generateWidget(Integer.MIN_VALUE));
+        Widget second = repository.addWidget(generateWidget(Integer.MIN_VALUE + 1));
+        long version = changeFeed.getVersion();
+
+        Widget created = repository.addWidget(generateWidget(Integer.MIN_VALUE));
+        List<Widget> widgets = repository.getWidgetsChangedSince(version).getWidgets();
+
+        Assertions.assertEquals(Arrays.asList(created.getId(), first.getId(), second.getId()), ids(widgets));
+        Assertions.assertEquals(Integer.MIN_VALUE + 2, widgets.get(2).getZIndex());
+    }
+
+    @Test
+    void testDeltaOlderThanTombstonesIsFull() {
+        changeFeed = new ChangeFeed(8, 2);
+        repository = new WidgetRepository(new WidgetStoreMetrics(), changeFeed);
+        Widget kept = repository.addWidget(generateWidget(0));
+        Widget deleted = repository.addWidget(generateWidget(1));
+        repository.deleteWidget(deleted.getId().toString());
+        repository.addWidget(generateWidget(2));
+        repository.addWidget(generateWidget(3));
+
+        WidgetDelta delta = repository.getWidgetsChangedSince(2);
+
+        Assertions.assertTrue(delta.isFull());
+        Assertions.assertEquals(3, delta.getWidgets().size());
+        Assertions.assertEquals(kept.getId(), delta.getWidgets().get(0).getId());
+        Assertions.assertFalse(repository.getWidgetsChangedSince(3).isFull());
+        Assertions.assertTrue(repository.getWidgetsChangedSince(6).isFull());
+    }
+
+    @Test
+    void testResumedFeedCutsHistoryAtRestoredVersion() {
+        changeFeed.resumeAt(100);
+        Widget loaded = repository.addWidget(generateWidget(0));
+        Widget other = repository.addWidget(generateWidget(1));
+        changeFeed.resumeAt(100);
+        repository.addWidget(generateWidget(2));
+
+        Assertions.assertEquals(103, changeFeed.getVersion());
+        Assertions.assertEquals(102, changeFeed.getFirstVersion());
+        Assertions.assertEquals(102, changeFeed.getWidgetVersion(loaded.getId().toString()));
+        Assertions.assertEquals(102, changeFeed.getWidgetVersion(other.getId().toString()));
+        Assertions.assertFalse(changeFeed.getChangesSince(101).isPresent());
+        Assertions.assertEquals(1, changeFeed.getChangesSince(102).get().size());
+        Assertions.assertTrue(repository.getWidgetsChangedSince(101).isFull());
+        Assertions.assertEquals(1, repository.getWidgetsChangedSince(102).getWidgets().size());
+    }
+
+    @ParameterizedTest
+    @MethodSource("stores")
+    void testWriteAtStaleRevisionFails(WidgetStore store) {
+        Widget widget = store.addWidget(generateWidget(1));
+        String id = widget.getId().toString();
+        WidgetRevision revision = new WidgetRevision(store.getChangeFeed().getWidgetVersion(id), 1);
+
+        store.addWidget(generateWidget(1));
+        Assertions.assertThrows(PreconditionFailedException.class, () -> store.updateWidget(id, generateWidget(5), revision));
+
+        WidgetRevision shifted = new WidgetRevision(revision.getVersion(), 2);
+        Widget updated = store.updateWidget(id, generateWidget(5), shifted);
+        Assertions.assertEquals(5, updated.getZIndex());
+        Assertions.assertThrows(PreconditionFailedException.class, () -> store.deleteWidget(id, shifted));
+
+        store.deleteWidget(id, new WidgetRevision(store.getChangeFeed().getWidgetVersion(id), 5));
+        Assertions.assertThrows(WidgetNotFoundException.class, () -> store.getWidget(id));
+    }
+
+    @ParameterizedTest
+    @MethodSource("stores")
+    void testPatchOfShiftedWidgetKeepsItsPlace(WidgetStore store) {
+        Widget widget = store.addWidget(generateWidget(1));
+        Widget above = store.addWidget(generateWidget(3));
+        store.addWidget(generateWidget(1));
+        long version = store.getChangeFeed().getVersion();
+
+        Widget patched = store.patchWidget(widget.getId().toString(), new WidgetPatch(7, null, null, null, 4), null);
+
+        Assertions.assertEquals(2, patched.getZIndex());
+        Assertions.assertEquals(7, patched.getCenterX());
+        Assertions.assertEquals(1, patched.getCenterY());
+        Assertions.assertEquals(4, patched.getWidth());
+        Assertions.assertEquals(Collections.singletonList(WidgetChange.Type.UPDATE),
+                types(store.getChangeFeed().getChangesSince(version).get()));
+        Assertions.assertEquals(3, store.getWidget(above.getId().toString()).getZIndex());
+
+        store.patchWidget(above.getId().toString(), new WidgetPatch(null, null, 1, null, null), null);
+        Assertions.assertEquals(3, store.getWidget(widget.getId().toString()).getZIndex());
+    }
+
+    private static Stream<WidgetStore> stores() {
+        return Stream.of(new WidgetRepository(), new SnapshotWidgetRepository(), new ColumnarWidgetRepository());
+    }
+
+    private static List<UUID> ids(List<Widget> widgets) {
+        return widgets.stream().map(Widget::getId).collect(Collectors.toList());
+    }
+
+    private static List<WidgetChange.Type> types(List<WidgetChange> changes) {
+        return changes.stream().map(WidgetChange::getType).collect(Collectors.toList());
+    }
+
+    private static Widget generateWidget(Integer zIndex) {
+        return new Widget(UUID.randomUUID(), 1, 1, zIndex, 1, 1, LocalDateTime.now());
+    }
+}
@@ -0,0 +1,34 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.model.Widget;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+public class ColumnarWidgetRepositoryTest extends WidgetStoreContractTest {
+    private ColumnarWidgetRepository repository = new ColumnarWidgetRepository();
+
+    @Override
+    protected WidgetStore createStore() {
+        return repository;
+    }
+
+    @Test
+    void testWidgetIsMaterializedFromColumns() {
+        LocalDateTime lastModified = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        Widget widget = repository.addWidget(new Widget(UUID.randomUUID(), -5, 7, null, null, 3, lastModified));
+
+        Widget stored = repository.getWidget(widget.getId().toString());
+
+        Assertions.assertEquals(widget.getId(), stored.getId());
+        Assertions.assertEquals(-5, stored.getCenterX());
+        Assertions.assertEquals(7, stored.getCenterY());
+        Assertions.assertEquals(0, stored.getZIndex());
+        Assertions.assertNull(stored.getHeight());
+        Assertions.assertEquals(3, stored.getWidth());
+        Assertions.assertEquals(lastModified, stored.getLastModified());
+    }
+}
@@ -0,0 +1,77 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.PreconditionFailedException;
+import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetRevision;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+public class JdbcWidgetStoreTest extends WidgetStoreContractTest {
+    private WidgetDatabase database = new WidgetDatabase("jdbc:h2:mem:" + UUID.randomUUID(), 2);
+    private JdbcWidgetStore repository = new JdbcWidgetStore(database, "board");
+
+    @Override
+    protected WidgetStore createStore() {
+        return repository;
+    }
+
+    @AfterEach
+    void closeDatabase() {
+        database.close();
+    }
+
+    @Test
+    void testWidgetIsReadBackFromColumns() {
+        LocalDateTime lastModified = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        Widget widget = repository.addWidget(new Widget(UUID.randomUUID(), -5, 7, null, null, 3, lastModified));
+
+        Widget stored = repository.getWidget(widget.getId().toString());
+
+        Assertions.assertEquals(widget.getId(), stored.getId());
+        Assertions.assertEquals(-5, stored.getCenterX());
+        Assertions.assertEquals(7, stored.getCenterY());
+        Assertions.assertEquals(0, stored.getZIndex());
+        Assertions.assertNull(stored.getHeight());
+        Assertions.assertEquals(3, stored.getWidth());
+        Assertions.assertEquals(lastModified, stored.getLastModified());
+    }
+
+    @Test
+    void testBoardsShareTableButNotWidgets() {
+        Widget widget = repository.addWidget(generateWidget(0));
+        JdbcWidgetStore other = new JdbcWidgetStore(database, "other");
+        other.addWidget(generateWidget(0));
+
+        Assertions.assertEquals(1, repository.countWidgets());
+        Assertions.assertEquals(0, repository.getWidget(widget.getId().toString()).getZIndex());
+        Assertions.assertThrows(WidgetNotFoundException.class, () -> other.getWidget(widget.getId().toString()));
+        Assertions.assertEquals(1, new JdbcWidgetStore(database, "board").countWidgets());
+    }
+
+    @Test
+    void testReloadedBoardDoesNotRepeatRevisions() {
+        Widget moved = repository.addWidget(generateWidget(0));
+        JdbcWidgetStore reloaded = new JdbcWidgetStore(database, "board");
+        WidgetRevision stale = revisionOf(reloaded, moved);
+        reloaded.updateWidget(moved.getId().toString(), generateWidget(0));
+
+        JdbcWidgetStore again = new JdbcWidgetStore(database, "board");
+
+        Assertions.assertEquals(2, again.getChangeFeed().getVersion());
+        Assertions.assertNotEquals(stale, revisionOf(again, moved));
+        Assertions.assertThrows(PreconditionFailedException.class,
+                () -> again.updateWidget(moved.getId().toString(), generateWidget(0), stale));
+        Assertions.assertTrue(again.getWidgetsChangedSince(1).isFull());
+    }
+
+    private static WidgetRevision revisionOf(WidgetStore board, Widget widget) {
+        String widgetId = widget.getId().toString();
+        return new WidgetRevision(board.getChangeFeed().getWidgetVersion(widgetId), board.getWidget(widgetId).getZIndex());
+    }
+}
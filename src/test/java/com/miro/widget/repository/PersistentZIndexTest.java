@@ -0,0 +1,108 @@
+package com.miro.widget.repository;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+public class PersistentZIndexTest {
+
+    @Test
+    void testInsertIntoOccupiedZIndexKeepsPreviousVersion() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID afterGap = UUID.randomUUID();
+        PersistentZIndex index = PersistentZIndex.EMPTY
+                .insert(first, 1, count -> { })
+                .insert(second, 2, count -> { })
+                .insert(afterGap, 5, count -> { });
+
+        int[] shifted = new int[1];
+        PersistentZIndex newIndex = index.insert(UUID.randomUUID(), 1, count -> shifted[0] = count);
+
+        Assertions.assertEquals(2, shifted[0]);
+        Assertions.assertEquals(2, newIndex.zIndexOf(first));
+        Assertions.assertEquals(3, newIndex.zIndexOf(second));
+        Assertions.assertEquals(5, newIndex.zIndexOf(afterGap));
+        Assertions.assertEquals(1, index.zIndexOf(first));
+        Assertions.assertEquals(2, index.zIndexOf(second));
+        Assertions.assertEquals(3, index.size());
+    }
+
+    @Test
+    void testRepeatedInsertsBetweenSameNeighboursRespaceKeys() {
+        // Every insert halves the room between the same two keys, so the keys run out after a few dozen inserts
+        List<UUID> expected = new ArrayList<>();
+        PersistentZIndex index = PersistentZIndex.EMPTY;
+        for (int i = 0; i < 10; i++) {
+            UUID id = UUID.randomUUID();
+            index = index.insert(id, i, count -> { });
+            expected.add(id);
+        }
+
+        for (int i = 0; i < 1_000; i++) {
+            UUID id = UUID.randomUUID();
+            index = index.insert(id, 5, count -> { });
+            expected.add(5, id);
+        }
+
+        assertOrder(expected, index);
+    }
+
+    @Test
+    void testMatchesTreeMapShiftSemantics() {
+        Random random = new Random(42);
+        TreeMap<Integer, UUID> expected = new TreeMap<>();
+        PersistentZIndex index = PersistentZIndex.EMPTY;
+
+        for (int i = 0; i < 5_000; i++) {
+            if (!expected.isEmpty() && random.nextInt(4) == 0) {
+                UUID id = new ArrayList<>(expected.values()).get(random.nextInt(expected.size()));
+                expected.values().remove(id);
+                index = index.remove(id);
+            } else {
+                UUID id = UUID.randomUUID();
+                int zIndex = random.nextInt(200) - 100;
+                int shifted = insertWithShift(expected, id, zIndex);
+                int[] reported = new int[1];
+                index = index.insert(id, zIndex, count -> reported[0] = count);
+                Assertions.assertEquals(shifted, reported[0]);
+            }
+        }
+
+        Assertions.assertEquals(expected.size(), index.size());
+        Assertions.assertEquals(expected.lastKey(), index.lastZIndex());
+        PersistentZIndex result = index;
+        expected.forEach((zIndex, id) -> Assertions.assertEquals(zIndex, result.zIndexOf(id)));
+
+        Iterator<Map.Entry<Integer, UUID>> iterator = index.iterator(0);
+        expected.forEach((zIndex, id) -> {
+            Map.Entry<Integer, UUID> entry = iterator.next();
+            Assertions.assertEquals(zIndex, entry.getKey());
+            Assertions.assertEquals(id, entry.getValue());
+        });
+        Assertions.assertFalse(iterator.hasNext());
+
+        int rank = expected.size() / 2;
+        Map.Entry<Integer, UUID> fromRank = index.iterator(rank).next();
+        Assertions.assertEquals(new ArrayList<>(expected.keySet()).get(rank), fromRank.getKey());
+        Assertions.assertEquals(rank, index.rankOf(fromRank.getKey()));
+    }
+
+    private static void assertOrder(List<UUID> expected, PersistentZIndex index) {
+        Assertions.assertEquals(expected.size(), index.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(i, index.zIndexOf(expected.get(i)));
+        }
+    }
+
+    private static int insertWithShift(TreeMap<Integer, UUID> index, UUID id, int zIndex) {
+        int shifted = 0;
+        UUID value = id;
+        for (int current = zIndex; value != null; current++, shifted++) {
+            value = index.put(current, value);
+        }
+
+        return shifted - 1;
+    }
+}
@@ -0,0 +1,102 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.Widget;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class PipelinedWidgetStoreTest extends WidgetStoreContractTest {
+    private WritePipeline pipeline = new WritePipeline(16);
+
+    @Override
+    protected WidgetStore createStore() {
+        return new PipelinedWidgetStore(new WidgetRepository(), pipeline);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.close();
+    }
+
+    @Test
+    void testConcurrentWritesAreAllApplied() {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<Widget>> futures = IntStream.range(0, 2_000)
+                    .mapToObj(i -> CompletableFuture.supplyAsync(() -> store.addWidget(generateWidget(i % 10)), executor))
+                    .collect(Collectors.toList());
+            futures.forEach(CompletableFuture::join);
+        } finally {
+            executor.shutdown();
+        }
+
+        List<Integer> zIndexes = store.getAllWidgets().stream().map(Widget::getZIndex).collect(Collectors.toList());
+        Assertions.assertEquals(2_000, zIndexes.size());
+        Assertions.assertEquals(zIndexes.stream().distinct().count(), zIndexes.size());
+        Assertions.assertTrue(store.getChangeFeed().getVersion() >= 2_000);
+    }
+
+    @Test
+    void testFailedWriteIsReportedToItsCallerOnly() {
+        Widget widget = store.addWidget(generateWidget(0));
+        long version = store.getChangeFeed().getVersion();
+
+        Assertions.assertThrows(WidgetNotFoundException.class,
+                () -> store.updateWidget(UUID.randomUUID().toString(), generateWidget(1)));
+        store.deleteWidget(widget.getId().toString());
+
+        Assertions.assertEquals(0, store.countWidgets());
+        Assertions.assertEquals(version + 1, store.getChangeFeed().getVersion());
+    }
+
+    @Test
+    void testWritesRacingCloseNeverHang() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<CompletableFuture<Void>> writers = IntStream.range(0, 4)
+                    .mapToObj(i -> CompletableFuture.runAsync(() -> {
+                        try {
+                            while (true) {
+                                store.addWidget(generateWidget(null));
+                            }
+                        } catch (IllegalStateException e) {
+                            // The pipeline was closed
+                        }
+                    }, executor))
+                    .collect(Collectors.toList());
+            store.addWidget(generateWidget(null));
+            pipeline.close();
+
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> writers.forEach(CompletableFuture::join));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testRingBufferKeepsOrderAcrossRounds() {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+        List<Integer> drained = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                Assertions.assertTrue(ring.offer(round * 4 + i));
+            }
+            Assertions.assertFalse(ring.offer(-1));
+            Assertions.assertEquals(4, ring.drainTo(drained, 10));
+        }
+
+        Assertions.assertTrue(ring.isEmpty());
+        Assertions.assertEquals(IntStream.range(0, 12).boxed().collect(Collectors.toList()), drained);
+    }
+}
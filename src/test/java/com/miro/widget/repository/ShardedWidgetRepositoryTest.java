@@ -0,0 +1,147 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.PreconditionFailedException;
+import com.miro.widget.error.VersionExpiredException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetRevision;
+import com.miro.widget.persistence.WidgetPersistence;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+public class ShardedWidgetRepositoryTest {
+    private ShardedWidgetRepository repository = new ShardedWidgetRepository("locking", Duration.ZERO);
+
+    @Test
+    void testBoardsAreIndependent() {
+        repository.getBoard("first").addWidget(generateWidget(0));
+        repository.getBoard("first").addWidget(generateWidget(0));
+        repository.getBoard("second").addWidget(generateWidget(0));
+
+        Assertions.assertEquals(2, repository.getBoard("first").countWidgets());
+        Assertions.assertEquals(1, repository.getBoard("second").countWidgets());
+        Assertions.assertEquals(0, repository.getBoard(null).countWidgets());
+        Assertions.assertSame(repository.getBoard(null), repository.getBoard(ShardedWidgetRepository.DEFAULT_BOARD));
+    }
+
+    @Test
+    void testPipelinedModeAppliesWritesOfAllBoards() {
+        repository = new ShardedWidgetRepository("pipelined", Duration.ZERO);
+        try {
+            for (int board = 0; board < 16; board++) {
+                repository.getBoard("board-" + board).addWidget(generateWidget(0));
+                repository.getBoard("board-" + board).addWidget(generateWidget(0));
+            }
+
+            Assertions.assertEquals(32, repository.countAllWidgets());
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test
+    void testIdleBoardsAreEvicted(@TempDir Path directory) throws IOException {
+        WidgetPersistence persistence = new WidgetPersistence(directory.toString(), false);
+        repository = persistentRepository("locking", persistence);
+        repository.getBoard(null).addWidget(generateWidget(0));
+        repository.getBoard("idle").addWidget(generateWidget(0));
+
+        repository.evictIdleBoards(System.nanoTime() + Duration.ofSeconds(30).toNanos());
+        Assertions.assertEquals(2, repository.countBoards());
+
+        repository.evictIdleBoards(System.nanoTime() + Duration.ofMinutes(2).toNanos());
+        Assertions.assertEquals(1, repository.countBoards());
+        Assertions.assertEquals(1, repository.getBoard(null).countWidgets());
+        persistence.close();
+    }
+
+    @Test
+    void testReadOfUnknownBoardDoesNotCreateIt() {
+        repository.getBoard("written").addWidget(generateWidget(0));
+
+        Assertions.assertEquals(0, repository.readBoard("unknown").countWidgets());
+        Assertions.assertTrue(repository.readBoard("unknown").getAllWidgets().isEmpty());
+        Assertions.assertEquals(1, repository.readBoard("written").countWidgets());
+        Assertions.assertEquals(1, repository.countBoards());
+    }
+
+    @Test
+    void testReadOfEvictedBoardLoadsItBack(@TempDir Path directory) throws IOException {
+        WidgetPersistence persistence = new WidgetPersistence(directory.toString(), false);
+        repository = persistentRepository("locking", persistence);
+        repository.getBoard("idle").addWidget(generateWidget(0));
+
+        repository.evictIdleBoards(System.nanoTime() + Duration.ofMinutes(2).toNanos());
+
+        Assertions.assertEquals(1, repository.readBoard("idle").countWidgets());
+        Assertions.assertEquals(0, repository.readBoard("unknown").countWidgets());
+        Assertions.assertEquals(1, repository.countBoards());
+        persistence.close();
+    }
+
+    @Test
+    void testIdleTimeoutWithoutPersistenceIsRejected() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new ShardedWidgetRepository("locking", Duration.ofMinutes(1)));
+    }
+
+    @Test
+    void testEvictedBoardIsLoadedBack(@TempDir Path directory) throws IOException {
+        WidgetPersistence persistence = new WidgetPersistence(directory.toString(), false);
+        repository = persistentRepository("snapshot", persistence);
+        repository.getBoard("idle").addWidget(generateWidget(0));
+        repository.getBoard("idle").addWidget(generateWidget(0));
+
+        repository.evictIdleBoards(System.nanoTime() + Duration.ofMinutes(2).toNanos());
+
+        Assertions.assertEquals(0, repository.countBoards());
+        Assertions.assertEquals(Arrays.asList(0, 1), repository.getBoard("idle").getAllWidgets().stream()
+                .map(Widget::getZIndex).collect(Collectors.toList()));
+        persistence.close();
+    }
+
+    @Test
+    void testEvictedBoardGoesOnFromItsVersion(@TempDir Path directory) throws IOException {
+        WidgetPersistence persistence = new WidgetPersistence(directory.toString(), false);
+        repository = persistentRepository("snapshot", persistence);
+        WidgetStore board = repository.getBoard("idle");
+        Widget moved = board.addWidget(generateWidget(0));
+        WidgetRevision stale = new WidgetRevision(board.getChangeFeed().getWidgetVersion(moved.getId().toString()), 0);
+        board.addWidget(generateWidget(1));
+        board.updateWidget(moved.getId().toString(), generateWidget(0));
+        long version = board.getChangeFeed().getVersion();
+
+        repository.evictIdleBoards(System.nanoTime() + Duration.ofMinutes(2).toNanos());
+        WidgetStore loaded = repository.getBoard("idle");
+
+        Assertions.assertTrue(loaded.getChangeFeed().getVersion() > version);
+        Assertions.assertThrows(PreconditionFailedException.class,
+                () -> loaded.updateWidget(moved.getId().toString(), generateWidget(0), stale));
+        Assertions.assertThrows(VersionExpiredException.class, () -> loaded.asOf(version));
+        persistence.close();
+    }
+
+    @Test
+    void testUnknownModeIsRejected() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ShardedWidgetRepository("unknown", Duration.ZERO));
+    }
+
+    private static ShardedWidgetRepository persistentRepository(String mode, WidgetPersistence persistence) {
+        return new ShardedWidgetRepository(mode, Duration.ofMinutes(1), ChangeFeed.DEFAULT_CAPACITY,
+                ChangeFeed.DEFAULT_TOMBSTONE_WINDOW, VersionHistory.DEFAULT_RETENTION, VersionHistory.DEFAULT_MAX_VERSIONS,
+                "none", Optional.of(persistence), Optional.empty(), new WidgetStoreMetrics());
+    }
+
+    private static Widget generateWidget(Integer zIndex) {
+        return new Widget(UUID.randomUUID(), 1, 1, zIndex, 1, 1, LocalDateTime.now());
+    }
+}
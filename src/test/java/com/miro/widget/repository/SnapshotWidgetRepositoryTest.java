@@ -0,0 +1,93 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.BadRequestException;
+import com.miro.widget.error.ReadOnlyVersionException;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class SnapshotWidgetRepositoryTest extends WidgetStoreContractTest {
+    private SnapshotWidgetRepository repository = new SnapshotWidgetRepository();
+
+    @Override
+    protected WidgetStore createStore() {
+        return repository;
+    }
+
+    @Test
+    void testReaderKeepsConsistentVersion() {
+        Widget first = repository.addWidget(generateWidget(0));
+        Collection<Widget> before = repository.getAllWidgets();
+
+        repository.addWidget(generateWidget(0));
+
+        Assertions.assertEquals(1, before.size());
+        Assertions.assertEquals(0, before.iterator().next().getZIndex());
+        Assertions.assertEquals(1, repository.getWidget(first.getId().toString()).getZIndex());
+    }
+
+    @Test
+    void testBatchIsPublishedAtOnce() {
+        Widget existing = repository.addWidget(generateWidget(0));
+        Collection<Widget> before = repository.getAllWidgets();
+
+        List<WidgetOperationResult> results = repository.applyBatch(Arrays.asList(
+                new WidgetOperation(WidgetOperation.Type.CREATE, null, generateWidget(0)),
+                new WidgetOperation(WidgetOperation.Type.CREATE, null, generateWidget(0)),
+                new WidgetOperation(WidgetOperation.Type.DELETE, existing.getId().toString(), null)
+        ));
+
+        Assertions.assertTrue(results.stream().allMatch(result -> result.getStatus() == WidgetOperationResult.Status.APPLIED));
+        Assertions.assertEquals(1, before.size());
+        Assertions.assertEquals(Arrays.asList(0, 1), repository.getAllWidgets().stream().map(Widget::getZIndex).collect(Collectors.toList()));
+
+        List<WidgetOperationResult> rejected = repository.applyBatch(Arrays.asList(
+                new WidgetOperation(WidgetOperation.Type.CREATE, null, generateWidget(0)),
+                new WidgetOperation(WidgetOperation.Type.DELETE, existing.getId().toString(), null)
+        ));
+        Assertions.assertEquals(WidgetOperationResult.Status.FAILED, rejected.get(1).getStatus());
+        Assertions.assertEquals(2, repository.countWidgets());
+    }
+
+    @Test
+    void testGetWidgetsAtSeesShiftedWidgets() {
+        Widget shifted = repository.addWidget(new Widget(UUID.randomUUID(), 0, 0, 0, 10, 10, LocalDateTime.now()));
+        Widget inserted = repository.addWidget(new Widget(UUID.randomUUID(), 3, 3, 0, 2, 2, LocalDateTime.now()));
+
+        Assertions.assertEquals(Arrays.asList(shifted.getId() + ":1", inserted.getId() + ":0"),
+                toKeys(repository.getWidgetsAt(4, 4)));
+        Assertions.assertEquals(Collections.singletonList(shifted.getId() + ":1"), toKeys(repository.getWidgetsAt(-5, 5)));
+    }
+
+    @Test
+    void testPastVersionIsReadAsItWas() {
+        Widget bottom = repository.addWidget(generateWidget(0));
+        Widget top = repository.addWidget(generateWidget(1));
+        long version = repository.getChangeFeed().getVersion();
+
+        repository.addWidget(generateWidget(0));
+        repository.deleteWidget(top.getId().toString());
+        repository.applyBatch(Arrays.asList(
+                new WidgetOperation(WidgetOperation.Type.CREATE, null, generateWidget(5)),
+                new WidgetOperation(WidgetOperation.Type.CREATE, null, generateWidget(6))));
+
+        WidgetStore past = repository.asOf(version);
+        Assertions.assertEquals(Arrays.asList(bottom.getId() + ":0", top.getId() + ":1"), toKeys(past.getAllWidgets()));
+        Assertions.assertEquals(Collections.singletonList(top.getId() + ":1"), toKeys(past.getWidgetsAfter(0, 10).getWidgets()));
+        Assertions.assertEquals(1, past.getWidget(top.getId().toString()).getZIndex());
+        Assertions.assertEquals(version, past.getSnapshot().getVersion());
+        Assertions.assertThrows(ReadOnlyVersionException.class, () -> past.addWidget(generateWidget(0)));
+
+        // Inside the batch the board is read as it was before it
+        long current = repository.getChangeFeed().getVersion();
+        Assertions.assertEquals(2, repository.asOf(current - 1).countWidgets());
+        Assertions.assertEquals(4, repository.asOf(current).countWidgets());
+        Assertions.assertThrows(BadRequestException.class, () -> repository.asOf(current + 1));
+    }
+}
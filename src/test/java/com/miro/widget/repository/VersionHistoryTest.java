@@ -0,0 +1,72 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.BadRequestException;
+import com.miro.widget.error.VersionExpiredException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+public class VersionHistoryTest {
+    private static final long MINUTE = Duration.ofMinutes(1).toNanos();
+
+    private VersionHistory<String> history = new VersionHistory<>(Duration.ofMinutes(1), 100);
+
+    @Test
+    void testStateOfLastCommitUpToVersionIsRead() {
+        history.record(0, "empty", 0);
+        history.record(3, "three", 1);
+        history.record(5, "five", 2);
+
+        Assertions.assertEquals("empty", history.readAt(2, 3));
+        Assertions.assertEquals("three", history.readAt(4, 3));
+        Assertions.assertEquals("five", history.readAt(5, 3));
+        Assertions.assertThrows(BadRequestException.class, () -> history.readAt(6, 3));
+    }
+
+    @Test
+    void testSupersededStatesExpireAfterRetention() {
+        history.record(1, "one", 0);
+        history.record(2, "two", 10);
+        history.record(3, "three", 2 * MINUTE);
+
+        Assertions.assertEquals(2, history.oldestVersion());
+        Assertions.assertThrows(VersionExpiredException.class, () -> history.readAt(1, 2 * MINUTE));
+
+        // The latest state is kept however old it gets
+        history = new VersionHistory<>(Duration.ZERO, 100);
+        history.record(1, "one", 0);
+        history.record(2, "two", 1);
+        Assertions.assertEquals(1, history.countVersions());
+        Assertions.assertEquals("two", history.readAt(2, 10 * MINUTE));
+    }
+
+    @Test
+    void testReaderKeepsItsVersionWhileReading() {
+        history.record(1, "one", 0);
+        history.record(2, "two", 1);
+        history.readAt(1, MINUTE / 2);
+
+        history.record(3, "three", MINUTE + MINUTE / 4);
+        Assertions.assertEquals("one", history.readAt(1, MINUTE + MINUTE / 4));
+
+        // Nobody read the version since, it goes with the next write after the retention
+        history.record(4, "four", 3 * MINUTE);
+        Assertions.assertEquals(3, history.oldestVersion());
+    }
+
+    @Test
+    void testMaxVersionsBoundReaders() {
+        history = new VersionHistory<>(Duration.ofMinutes(1), 3);
+        history.record(1, "one", 0);
+        history.readAt(1, 0);
+
+        for (long version = 2; version <= 10; version++) {
+            history.record(version, "later", 1);
+        }
+
+        Assertions.assertEquals(3, history.countVersions());
+        Assertions.assertEquals(8, history.oldestVersion());
+        Assertions.assertThrows(VersionExpiredException.class, () -> history.readAt(1, 2));
+    }
+}
@@ -0,0 +1,365 @@
+package com.miro.widget.repository;
+
+import com.miro.widget.error.WidgetNotFoundException;
+import com.miro.widget.model.Area;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.model.WidgetOperationResult;
+import com.miro.widget.model.WidgetPage;
+import com.miro.widget.model.WidgetPatch;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Behaviour every {@link WidgetStore} shares, checked through the interface alone. A store implementation gets its
+ * own subclass for the tests of what only it does.
+ */
+public abstract class WidgetStoreContractTest {
+    protected WidgetStore store;
+
+    /**
+     * Returns an empty store, called before every test.
+     */
+    protected abstract WidgetStore createStore();
+
+    @BeforeEach
+    void createEmptyStore() {
+        store = createStore();
+    }
+
+    @ParameterizedTest
+    @MethodSource("valuesForTestAdd")
+    void testAddShiftsOnlyContiguousRun(int newZIndex, int lowestZIndex, int highestZIndex) {
+        // A second run starts after a gap of two
+        List<UUID> run = addRun(lowestZIndex, highestZIndex);
+        List<UUID> afterGap = addRun(highestZIndex + 2, highestZIndex + 5);
+
+        Widget added = store.addWidget(generateWidget(newZIndex));
+
+        Map<Integer, UUID> expected = new TreeMap<>();
+        boolean shiftsRun = newZIndex >= lowestZIndex && newZIndex < highestZIndex;
+        for (int i = 0; i < run.size(); i++) {
+            int zIndex = lowestZIndex + i;
+            expected.put(shiftsRun && zIndex >= newZIndex ? zIndex + 1 : zIndex, run.get(i));
+        }
+        boolean shiftsAfterGap = newZIndex >= highestZIndex + 2 && newZIndex < highestZIndex + 5;
+        for (int i = 0; i < afterGap.size(); i++) {
+            int zIndex = highestZIndex + 2 + i;
+            expected.put(shiftsAfterGap && zIndex >= newZIndex ? zIndex + 1 : zIndex, afterGap.get(i));
+        }
+        expected.put(newZIndex, added.getId());
+
+        Assertions.assertEquals(newZIndex, added.getZIndex());
+        Assertions.assertEquals(expected, zOrder());
+        Assertions.assertEquals(expected.size(), store.countWidgets());
+    }
+
+    private static Stream<Arguments> valuesForTestAdd() {
+        return Stream.of(
+                Arguments.of(-3, -2, 4),
+                Arguments.of(0, -5, 8),
+                Arguments.of(0, 2, 8),
+                Arguments.of(10, -2, 6),
+                Arguments.of(4, -4, 4),
+                Arguments.of(6, -2, 5),
+                Arguments.of(8, -2, 5)
+        );
+    }
+
+    @Test
+    void testAddWithoutZIndexGoesOnTop() {
+        Widget first = store.addWidget(generateWidget(null));
+        Assertions.assertEquals(0, first.getZIndex());
+        store.deleteWidget(first.getId().toString());
+        addRun(-2, 5);
+
+        Widget added = store.addWidget(generateWidget(null));
+
+        Assertions.assertEquals(5, added.getZIndex());
+        Assertions.assertEquals(5, store.getWidget(added.getId().toString()).getZIndex());
+    }
+
+    @Test
+    void testUpdateMovesWidgetInZOrder() {
+        List<UUID> run = addRun(-2, 5);
+        UUID lowered = run.get(4);
+        UUID raised = run.get(1);
+
+        Widget result = store.updateWidget(lowered.toString(), new Widget(null, 2, 3, 0, 4, 5, LocalDateTime.now()));
+        store.updateWidget(raised.toString(), new Widget(null, 1, 1, 4, 1, 1, LocalDateTime.now()));
+
+        Assertions.assertEquals(lowered, result.getId());
+        Assertions.assertEquals(Arrays.asList(2, 3, 0, 4, 5),
+                Arrays.asList(result.getCenterX(), result.getCenterY(), result.getZIndex(), result.getHeight(), result.getWidth()));
+        Map<Integer, UUID> expected = new TreeMap<>();
+        expected.put(-2, run.get(0));
+        expected.put(0, lowered);
+        expected.put(1, run.get(2));
+        expected.put(2, run.get(3));
+        expected.put(3, run.get(5));
+        expected.put(4, raised);
+        expected.put(5, run.get(6));
+        Assertions.assertEquals(expected, zOrder());
+    }
+
+    @Test
+    void testUpdateWithoutZIndexMovesWidgetOnTop() {
+        List<UUID> run = addRun(-2, 5);
+
+        Widget result = store.updateWidget(run.get(2).toString(), generateWidget(null));
+
+        Assertions.assertEquals(5, result.getZIndex());
+        Assertions.assertEquals(run.get(2), zOrder().get(5));
+        Assertions.assertNull(zOrder().get(0));
+    }
+
+    @Test
+    void testPatchKeepsZOrderUnlessItHasZIndex() {
+        List<UUID> run = addRun(0, 3);
+
+        Widget moved = store.patchWidget(run.get(1).toString(), new WidgetPatch(7, null, null, null, null), null);
+        Widget raised = store.patchWidget(run.get(0).toString(), new WidgetPatch(null, null, 1, null, null), null);
+
+        Assertions.assertEquals(7, moved.getCenterX());
+        Assertions.assertEquals(1, moved.getCenterY());
+        Assertions.assertEquals(1, raised.getZIndex());
+        Assertions.assertEquals(Arrays.asList(run.get(0), run.get(1), run.get(2)), new ArrayList<>(zOrder().values()));
+        Assertions.assertEquals(Arrays.asList(1, 2, 3), new ArrayList<>(zOrder().keySet()));
+    }
+
+    @Test
+    void testGetWidgetsPage() {
+        IntStream.range(0, 10).forEach(i -> store.addWidget(generateWidget(i * 2)));
+
+        WidgetPage page = store.getWidgetsPage(4, 3);
+
+        Assertions.assertEquals(10, page.getTotalCount());
+        Assertions.assertEquals(Arrays.asList(8, 10, 12), zIndexes(page.getWidgets()));
+        Assertions.assertTrue(page.hasMore());
+        Assertions.assertTrue(store.getWidgetsPage(10, 3).getWidgets().isEmpty());
+    }
+
+    @Test
+    void testGetWidgetsAfterCursor() {
+        IntStream.range(0, 10).forEach(i -> store.addWidget(generateWidget(i * 2)));
+
+        WidgetPage first = store.getWidgetsAfter(null, 4);
+        WidgetPage second = store.getWidgetsAfter(5, 4);
+        WidgetPage last = store.getWidgetsAfter(14, 4);
+
+        Assertions.assertEquals(Arrays.asList(0, 2, 4, 6), zIndexes(first.getWidgets()));
+        Assertions.assertEquals(Arrays.asList(6, 8, 10, 12), zIndexes(second.getWidgets()));
+        Assertions.assertEquals(Arrays.asList(16, 18), zIndexes(last.getWidgets()));
+        Assertions.assertFalse(last.hasMore());
+        Assertions.assertTrue(store.getWidgetsAfter(Integer.MAX_VALUE, 4).getWidgets().isEmpty());
+    }
+
+    @Test
+    void testGetWidgetsInArea() {
+        Widget inside = store.addWidget(new Widget(UUID.randomUUID(), 50, 50, 3, 100, 100, LocalDateTime.now()));
+        Widget onBorder = store.addWidget(new Widget(UUID.randomUUID(), 100, 50, 1, 100, 100, LocalDateTime.now()));
+        store.addWidget(new Widget(UUID.randomUUID(), 100, 100, 2, 100, 100, LocalDateTime.now()));
+        store.addWidget(new Widget(UUID.randomUUID(), 1000, 1000, 0, 10, 10, LocalDateTime.now()));
+
+        Assertions.assertEquals(Arrays.asList(onBorder.getId(), inside.getId()),
+                toIds(store.getWidgetsInArea(new Area(0, 0, 150, 100))));
+    }
+
+    @Test
+    void testAreaQueriesFollowMovedAndDeletedWidgets() {
+        Widget moved = store.addWidget(new Widget(UUID.randomUUID(), 100, 100, null, 10, 10, LocalDateTime.now()));
+        Widget deleted = store.addWidget(new Widget(UUID.randomUUID(), 120, 120, null, 10, 10, LocalDateTime.now()));
+        Widget huge = store.addWidget(new Widget(UUID.randomUUID(), 0, 0, null, 100_000, 100_000, LocalDateTime.now()));
+
+        store.updateWidget(moved.getId().toString(), new Widget(null, 5_000, 5_000, 0, 10, 10, LocalDateTime.now()));
+        store.deleteWidget(deleted.getId().toString());
+        Widget added = store.addWidget(new Widget(UUID.randomUUID(), 3_000, 3_000, null, 10, 10, LocalDateTime.now()));
+
+        Assertions.assertEquals(Collections.singletonList(huge.getId()), toIds(store.getWidgetsAt(100, 100)));
+        Assertions.assertEquals(Arrays.asList(huge.getId(), moved.getId()), toIds(store.getWidgetsAt(5_000, 5_000)));
+        Assertions.assertEquals(Collections.emptyList(), toIds(store.getWidgetsInArea(new Area(0, 0, 1_000, 1_000))));
+        Assertions.assertEquals(Arrays.asList(moved.getId(), added.getId()),
+                toIds(store.getWidgetsInArea(new Area(0, 0, 10_000, 10_000))));
+        Assertions.assertEquals(Arrays.asList(moved.getId(), huge.getId(), added.getId()),
+                toIds(store.getWidgetsInArea(new Area(-50_000, -50_000, 50_000, 50_000))));
+    }
+
+    @Test
+    void testGetWidgetsAtReturnsTopmostFirst() {
+        Widget bottom = store.addWidget(new Widget(UUID.randomUUID(), 0, 0, 0, 10, 10, LocalDateTime.now()));
+        Widget top = store.addWidget(new Widget(UUID.randomUUID(), 5, 5, 1, 4, 4, LocalDateTime.now()));
+        Widget huge = store.addWidget(new Widget(UUID.randomUUID(), 0, 0, -1, 100_000, 100_000, LocalDateTime.now()));
+
+        Assertions.assertEquals(Arrays.asList(top.getId(), bottom.getId(), huge.getId()), toIds(store.getWidgetsAt(5, 5)));
+        Assertions.assertEquals(Arrays.asList(top.getId(), huge.getId()), toIds(store.getWidgetsAt(7, 7)));
+        Assertions.assertTrue(store.getWidgetsAt(60_000, 0).isEmpty());
+    }
+
+    @Test
+    void testResizedWidgetIsFoundAtItsNewSize() {
+        Widget resized = store.addWidget(new Widget(UUID.randomUUID(), 0, 0, 0, 10, 10, LocalDateTime.now()));
+        Widget crowd = store.addWidget(new Widget(UUID.randomUUID(), 3, 3, 1, 4, 4, LocalDateTime.now()));
+
+        store.patchWidget(resized.getId().toString(), new WidgetPatch(null, null, null, 20_000, 20_000), null);
+        Assertions.assertEquals(Arrays.asList(crowd.getId(), resized.getId()), toIds(store.getWidgetsAt(3, 3)));
+        Assertions.assertEquals(Collections.singletonList(resized.getId()), toIds(store.getWidgetsAt(9_000, -9_000)));
+
+        store.patchWidget(resized.getId().toString(), new WidgetPatch(null, null, null, 2, 2), null);
+        Assertions.assertTrue(store.getWidgetsAt(9_000, -9_000).isEmpty());
+        Assertions.assertEquals(Collections.singletonList(resized.getId()), toIds(store.getWidgetsAt(-1, -1)));
+    }
+
+    @Test
+    void testApplyBatch() {
+        Widget updated = store.addWidget(generateWidget(0));
+        Widget deleted = store.addWidget(generateWidget(1));
+
+        List<WidgetOperationResult> results = store.applyBatch(Arrays.asList(
+                new WidgetOperation(WidgetOperation.Type.CREATE, null, generateWidget(0)),
+                new WidgetOperation(WidgetOperation.Type.UPDATE, updated.getId().toString(), generateWidget(5)),
+                new WidgetOperation(WidgetOperation.Type.DELETE, deleted.getId().toString(), null)
+        ));
+
+        Assertions.assertTrue(results.stream().allMatch(result -> result.getStatus() == WidgetOperationResult.Status.APPLIED));
+        Assertions.assertEquals(0, results.get(0).getWidget().getZIndex());
+        Assertions.assertEquals(updated.getId(), results.get(1).getWidget().getId());
+        Assertions.assertEquals(5, store.getWidget(updated.getId().toString()).getZIndex());
+        Assertions.assertEquals(2, store.countWidgets());
+        Assertions.assertThrows(WidgetNotFoundException.class, () -> store.getWidget(deleted.getId().toString()));
+    }
+
+    @Test
+    void testFailedBatchChangesNothing() {
+        Widget existing = store.addWidget(generateWidget(0));
+        long version = store.getChangeFeed().getVersion();
+
+        List<WidgetOperationResult> results = store.applyBatch(Arrays.asList(
+                new WidgetOperation(WidgetOperation.Type.CREATE, null, generateWidget(0)),
+                new WidgetOperation(WidgetOperation.Type.DELETE, existing.getId().toString(), null),
+                new WidgetOperation(WidgetOperation.Type.UPDATE, existing.getId().toString(), generateWidget(1)),
+                new WidgetOperation(WidgetOperation.Type.DELETE, "not valid uuid", null)
+        ));
+
+        Assertions.assertEquals(Arrays.asList(WidgetOperationResult.Status.SKIPPED, WidgetOperationResult.Status.SKIPPED,
+                WidgetOperationResult.Status.FAILED, WidgetOperationResult.Status.FAILED), statuses(results));
+        Assertions.assertEquals(1, store.countWidgets());
+        Assertions.assertEquals(0, store.getWidget(existing.getId().toString()).getZIndex());
+        Assertions.assertEquals(version, store.getChangeFeed().getVersion());
+    }
+
+    @Test
+    void testMissingWidgetIsNotFound() {
+        Widget deleted = store.addWidget(generateWidget(0));
+        store.deleteWidget(deleted.getId().toString());
+        String id = deleted.getId().toString();
+
+        Assertions.assertThrows(WidgetNotFoundException.class, () -> store.getWidget(id));
+        Assertions.assertThrows(WidgetNotFoundException.class, () -> store.deleteWidget(id));
+        Assertions.assertThrows(WidgetNotFoundException.class, () -> store.updateWidget(id, generateWidget(0)));
+        Assertions.assertThrows(WidgetNotFoundException.class,
+                () -> store.patchWidget(id, new WidgetPatch(1, null, null, null, null), null));
+        Assertions.assertEquals(0, store.countWidgets());
+    }
+
+    @Test
+    void testInvalidIdIsRejected() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.getWidget("not valid uuid"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.deleteWidget("not valid uuid"));
+    }
+
+    /**
+     * Random writes give the same z-order, pages and area queries as the locking store, which the tests above pin.
+     */
+    @Test
+    void testBehavesLikeLockingRepository() {
+        WidgetRepository reference = new WidgetRepository();
+        Random random = new Random(7);
+        List<UUID> ids = new ArrayList<>();
+
+        for (int i = 0; i < 1_000; i++) {
+            int operation = random.nextInt(12);
+            Integer zIndex = random.nextInt(5) == 0 ? null : random.nextInt(100) - 50;
+            Widget widget = new Widget(UUID.randomUUID(), random.nextInt(2_000), random.nextInt(2_000), zIndex,
+                    random.nextInt(100) + 1, random.nextInt(100) + 1, LocalDateTime.now());
+
+            if (ids.isEmpty() || operation < 4) {
+                Assertions.assertEquals(reference.addWidget(widget).getZIndex(), store.addWidget(widget).getZIndex());
+                ids.add(widget.getId());
+            } else if (operation < 6) {
+                String id = ids.get(random.nextInt(ids.size())).toString();
+                Assertions.assertEquals(reference.updateWidget(id, widget).getZIndex(), store.updateWidget(id, widget).getZIndex());
+            } else if (operation < 8) {
+                String id = ids.get(random.nextInt(ids.size())).toString();
+                WidgetPatch patch = new WidgetPatch(random.nextInt(2_000), null, random.nextInt(3) == 0 ? zIndex : null, null, null);
+                Assertions.assertEquals(reference.patchWidget(id, patch, null).getZIndex(), store.patchWidget(id, patch, null).getZIndex());
+            } else if (operation < 10) {
+                List<WidgetOperation> batch = Arrays.asList(
+                        new WidgetOperation(WidgetOperation.Type.UPDATE, ids.get(random.nextInt(ids.size())).toString(), widget.updateZIndex(null)),
+                        new WidgetOperation(WidgetOperation.Type.DELETE, ids.remove(random.nextInt(ids.size())).toString(), null),
+                        new WidgetOperation(WidgetOperation.Type.CREATE, null, widget.updateId(UUID.randomUUID()))
+                );
+                Assertions.assertEquals(statuses(reference.applyBatch(batch)), statuses(store.applyBatch(batch)));
+                reference.getAllWidgets().stream().map(Widget::getId).filter(id -> !ids.contains(id)).forEach(ids::add);
+            } else {
+                UUID id = ids.remove(random.nextInt(ids.size()));
+                reference.deleteWidget(id.toString());
+                store.deleteWidget(id.toString());
+            }
+        }
+
+        Assertions.assertEquals(toKeys(reference.getAllWidgets()), toKeys(store.getAllWidgets()));
+        Assertions.assertEquals(toKeys(reference.getWidgetsPage(10, 50).getWidgets()), toKeys(store.getWidgetsPage(10, 50).getWidgets()));
+        Assertions.assertEquals(reference.getWidgetsAfter(0, 50).getOffset(), store.getWidgetsAfter(0, 50).getOffset());
+        Assertions.assertEquals(toKeys(reference.getWidgetsAfter(0, 50).getWidgets()), toKeys(store.getWidgetsAfter(0, 50).getWidgets()));
+        Area area = new Area(200, 200, 1_200, 1_200);
+        Assertions.assertEquals(toKeys(reference.getWidgetsInArea(area)), toKeys(store.getWidgetsInArea(area)));
+        Assertions.assertEquals(toKeys(reference.getWidgetsAt(700, 700)), toKeys(store.getWidgetsAt(700, 700)));
+        Assertions.assertEquals(reference.getChangeFeed().getVersion(), store.getChangeFeed().getVersion());
+        ids.forEach(id -> Assertions.assertEquals(reference.getWidget(id.toString()).getZIndex(), store.getWidget(id.toString()).getZIndex()));
+    }
+
+    /**
+     * Adds widgets at z-indexes from the lowest inclusive to the highest exclusive, none of them shifts another.
+     */
+    private List<UUID> addRun(int lowestZIndex, int highestZIndex) {
+        return IntStream.range(lowestZIndex, highestZIndex)
+                .mapToObj(zIndex -> store.addWidget(generateWidget(zIndex)).getId())
+                .collect(Collectors.toList());
+    }
+
+    private Map<Integer, UUID> zOrder() {
+        Map<Integer, UUID> zOrder = new TreeMap<>();
+        store.getAllWidgets().forEach(widget -> zOrder.put(widget.getZIndex(), widget.getId()));
+        return zOrder;
+    }
+
+    protected static List<String> toKeys(Collection<Widget> widgets) {
+        return widgets.stream().map(widget -> widget.getId() + ":" + widget.getZIndex()).collect(Collectors.toList());
+    }
+
+    protected static List<UUID> toIds(Collection<Widget> widgets) {
+        return widgets.stream().map(Widget::getId).collect(Collectors.toList());
+    }
+
+    private static List<Integer> zIndexes(Collection<Widget> widgets) {
+        return widgets.stream().map(Widget::getZIndex).collect(Collectors.toList());
+    }
+
+    private static List<WidgetOperationResult.Status> statuses(List<WidgetOperationResult> results) {
+        return results.stream().map(WidgetOperationResult::getStatus).collect(Collectors.toList());
+    }
+
+    protected static Widget generateWidget(Integer zIndex) {
+        return new Widget(UUID.randomUUID(), 1, 1, zIndex, 1, 1, LocalDateTime.now());
+    }
+}
@@ -0,0 +1,107 @@
+package com.miro.widget.repository;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+public class ZIndexTreeTest {
+    private ZIndexTree tree = new ZIndexTree();
+
+    @Test
+    void testInsertIntoOccupiedZIndexShiftsOnlyContiguousRun() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID afterGap = UUID.randomUUID();
+        tree.insert(first, 1);
+        tree.insert(second, 2);
+        tree.insert(afterGap, 5);
+
+        int shifted = tree.insert(UUID.randomUUID(), 1);
+
+        Assertions.assertEquals(2, shifted);
+        Assertions.assertEquals(2, tree.zIndexOf(first));
+        Assertions.assertEquals(3, tree.zIndexOf(second));
+        Assertions.assertEquals(5, tree.zIndexOf(afterGap));
+        Assertions.assertNull(tree.get(4));
+    }
+
+    @Test
+    void testExtremeZIndexes() {
+        UUID lowest = UUID.randomUUID();
+        UUID highest = UUID.randomUUID();
+        tree.insert(lowest, Integer.MIN_VALUE);
+        tree.insert(highest, Integer.MAX_VALUE);
+
+        Assertions.assertEquals(Integer.MIN_VALUE, tree.zIndexOf(lowest));
+        Assertions.assertEquals(Integer.MAX_VALUE, tree.zIndexOf(highest));
+        Assertions.assertEquals(Integer.MAX_VALUE, tree.lastZIndex());
+        Assertions.assertEquals(1, tree.rankOf(0));
+    }
+
+    @Test
+    void testWalkOverTornLinksFailsInsteadOfLooping() {
+        UUID id = UUID.randomUUID();
+        tree.insert(UUID.randomUUID(), 0);
+        tree.insert(id, 1);
+        // What an unguarded reader may observe in the middle of a write
+        Map<?, ?> slots = (Map<?, ?>) ReflectionTestUtils.getField(tree, "slots");
+        int slot = (Integer) slots.get(id);
+        Object slotTree = ReflectionTestUtils.getField(tree, "tree");
+        ((int[]) ReflectionTestUtils.getField(slotTree, "parent"))[slot] = slot;
+        ((int[]) ReflectionTestUtils.getField(slotTree, "left"))[slot] = slot;
+
+        Assertions.assertThrows(ConcurrentModificationException.class, () -> tree.zIndexOf(id));
+        Assertions.assertThrows(ConcurrentModificationException.class, () -> tree.iterator().forEachRemaining(entry -> { }));
+    }
+
+    @Test
+    void testMatchesTreeMapShiftSemantics() {
+        Random random = new Random(42);
+        TreeMap<Integer, UUID> expected = new TreeMap<>();
+
+        for (int i = 0; i < 5_000; i++) {
+            if (!expected.isEmpty() && random.nextInt(4) == 0) {
+                UUID id = new ArrayList<>(expected.values()).get(random.nextInt(expected.size()));
+                expected.values().remove(id);
+                tree.remove(id);
+            } else {
+                UUID id = UUID.randomUUID();
+                int zIndex = random.nextInt(200) - 100;
+                int shifted = insertWithShift(expected, id, zIndex);
+                Assertions.assertEquals(shifted, tree.insert(id, zIndex));
+            }
+        }
+
+        Assertions.assertEquals(expected.size(), tree.size());
+        Assertions.assertEquals(expected.lastKey(), tree.lastZIndex());
+        expected.forEach((zIndex, id) -> {
+            Assertions.assertEquals(id, tree.get(zIndex));
+            Assertions.assertEquals(zIndex, tree.zIndexOf(id));
+        });
+
+        Iterator<Map.Entry<Integer, UUID>> iterator = tree.iterator();
+        expected.forEach((zIndex, id) -> {
+            Map.Entry<Integer, UUID> entry = iterator.next();
+            Assertions.assertEquals(zIndex, entry.getKey());
+            Assertions.assertEquals(id, entry.getValue());
+        });
+        Assertions.assertFalse(iterator.hasNext());
+
+        int rank = expected.size() / 2;
+        Map.Entry<Integer, UUID> fromRank = tree.iterator(rank).next();
+        Assertions.assertEquals(new ArrayList<>(expected.keySet()).get(rank), fromRank.getKey());
+        Assertions.assertEquals(rank, tree.rankOf(fromRank.getKey()));
+    }
+
+    private static int insertWithShift(TreeMap<Integer, UUID> index, UUID id, int zIndex) {
+        int shifted = 0;
+        UUID value = id;
+        for (int current = zIndex; value != null; current++, shifted++) {
+            value = index.put(current, value);
+        }
+
+        return shifted - 1;
+    }
+}
@@ -0,0 +1,154 @@
+package com.miro.widget.socket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.widget.model.Widget;
+import com.miro.widget.model.WidgetOperation;
+import com.miro.widget.repository.ShardedWidgetRepository;
+import com.miro.widget.repository.WidgetStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+public class WidgetSocketHandlerTest {
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private ShardedWidgetRepository repository = new ShardedWidgetRepository("locking", Duration.ZERO);
+    private WidgetSocketHandler handler = handler(1000);
+
+    @Test
+    void testPatchesOfTickAreAppliedOnceAndBroadcast() throws Exception {
+        WidgetStore board = repository.getBoard("b1");
+        Widget widget = board.addWidget(new Widget(UUID.randomUUID(), 0, 0, 5, 1, 1, LocalDateTime.now()));
+        List<JsonNode> sender = new ArrayList<>();
+        List<JsonNode> watcher = new ArrayList<>();
+        WebSocketSession senderSession = connect("/api/boards/b1/ws", sender);
+        connect("/api/boards/b1/ws", watcher);
+        long version = board.getChangeFeed().getVersion();
+
+        send(senderSession, "{\"s\":1,\"op\":\"PATCH\",\"id\":\"" + widget.getId() + "\",\"x\":10}");
+        send(senderSession, "{\"s\":2,\"op\":\"PATCH\",\"id\":\"" + widget.getId() + "\",\"y\":20}");
+        send(senderSession, "{\"s\":3,\"op\":\"CREATE\",\"x\":1,\"y\":1,\"z\":5,\"w\":2,\"h\":2}");
+        handler.tick();
+
+        Assertions.assertEquals(version + 3, board.getChangeFeed().getVersion());
+        Assertions.assertEquals(10, board.getWidget(widget.getId().toString()).getCenterX());
+        Assertions.assertEquals(20, board.getWidget(widget.getId().toString()).getCenterY());
+
+        Assertions.assertEquals("version", sender.get(0).get("type").asText());
+        Assertions.assertEquals(1, sender.get(1).get("seq").asLong());
+        Assertions.assertEquals(2, sender.get(2).get("seq").asLong());
+        Assertions.assertEquals(sender.get(1).get("widget"), sender.get(2).get("widget"));
+        Assertions.assertEquals("ack", sender.get(3).get("type").asText());
+
+        Assertions.assertEquals(2, watcher.size());
+        JsonNode changes = watcher.get(1);
+        Assertions.assertEquals("changes", changes.get("type").asText());
+        Assertions.assertEquals(version + 3, changes.get("version").asLong());
+        Assertions.assertEquals("UPDATE", changes.get("changes").get(0).get("type").asText());
+        Assertions.assertEquals("Z_SHIFT", changes.get("changes").get(1).get("type").asText());
+        Assertions.assertEquals("CREATE", changes.get("changes").get(2).get("type").asText());
+        Assertions.assertEquals(changes, sender.get(4));
+    }
+
+    @Test
+    void testFailedMutationDoesNotFailTheRestOfTick() throws Exception {
+        List<JsonNode> received = new ArrayList<>();
+        WebSocketSession session = connect("/api/ws", received);
+
+        send(session, "{\"s\":1,\"op\":\"DELETE\",\"id\":\"" + UUID.randomUUID() + "\"}");
+        send(session, "{\"s\":2,\"op\":\"CREATE\",\"x\":1,\"y\":1,\"w\":2,\"h\":2}");
+        send(session, "{\"s\":3,\"op\":\"CREATE\",\"x\":1,\"w\":2,\"h\":2}");
+        handler.tick();
+
+        Assertions.assertEquals("error", received.get(1).get("type").asText());
+        Assertions.assertEquals(3, received.get(1).get("seq").asLong());
+        Assertions.assertEquals("error", received.get(2).get("type").asText());
+        Assertions.assertEquals(1, received.get(2).get("seq").asLong());
+        Assertions.assertEquals("ack", received.get(3).get("type").asText());
+        Assertions.assertEquals(2, received.get(3).get("seq").asLong());
+        Assertions.assertEquals(1, repository.getBoard(null).countWidgets());
+    }
+
+    @Test
+    void testMutationFailingTheWholeBatchIsRejectedAlone() throws Exception {
+        String poison = UUID.randomUUID().toString();
+        WidgetStore board = Mockito.spy(repository.getBoard("b1"));
+        Mockito.doAnswer(invocation -> {
+            List<WidgetOperation> operations = invocation.getArgument(0);
+            if (operations.stream().anyMatch(operation -> poison.equals(operation.getWidgetId()))) {
+                throw new IllegalStateException("Poisoned");
+            }
+            return invocation.callRealMethod();
+        }).when(board).applyBatch(Mockito.any());
+        repository = Mockito.spy(repository);
+        Mockito.doReturn(board).when(repository).getBoard("b1");
+        handler = handler(1000);
+        List<JsonNode> received = new ArrayList<>();
+        WebSocketSession session = connect("/api/boards/b1/ws", received);
+
+        send(session, "{\"s\":1,\"op\":\"CREATE\",\"x\":1,\"y\":1,\"w\":2,\"h\":2}");
+        send(session, "{\"s\":2,\"op\":\"DELETE\",\"id\":\"" + poison + "\"}");
+        send(session, "{\"s\":3,\"op\":\"CREATE\",\"x\":1,\"y\":1,\"w\":2,\"h\":2}");
+        handler.tick();
+
+        Assertions.assertEquals("ack", received.get(1).get("type").asText());
+        Assertions.assertEquals("error", received.get(2).get("type").asText());
+        Assertions.assertEquals(2, received.get(2).get("seq").asLong());
+        Assertions.assertEquals("ack", received.get(3).get("type").asText());
+        Assertions.assertEquals(2, board.countWidgets());
+        // The batch once, then each operation alone
+        Mockito.verify(board, Mockito.times(4)).applyBatch(Mockito.any());
+    }
+
+    @Test
+    void testMutationsOverPendingLimitAreRejected() throws Exception {
+        handler = handler(1);
+        List<JsonNode> received = new ArrayList<>();
+        WebSocketSession session = connect("/api/ws", received);
+
+        send(session, "{\"s\":1,\"op\":\"CREATE\",\"x\":1,\"y\":1,\"w\":2,\"h\":2}");
+        send(session, "{\"s\":2,\"op\":\"CREATE\",\"x\":1,\"y\":1,\"w\":2,\"h\":2}");
+
+        Assertions.assertEquals("error", received.get(1).get("type").asText());
+        Assertions.assertEquals(2, received.get(1).get("seq").asLong());
+        handler.tick();
+        Assertions.assertEquals(1, repository.getBoard(null).countWidgets());
+    }
+
+    private WidgetSocketHandler handler(int maxPending) {
+        return new WidgetSocketHandler(repository, objectMapper, Duration.ofMillis(16), maxPending, 1 << 20,
+                Duration.ofSeconds(5));
+    }
+
+    private WebSocketSession connect(String path, List<JsonNode> received) throws Exception {
+        WebSocketSession session = Mockito.mock(WebSocketSession.class);
+        Mockito.when(session.getUri()).thenReturn(URI.create("ws://localhost" + path));
+        Mockito.when(session.getAttributes()).thenReturn(new HashMap<>());
+        Mockito.when(session.getId()).thenReturn(UUID.randomUUID().toString());
+        Mockito.when(session.isOpen()).thenReturn(true);
+        Mockito.doAnswer(invocation -> {
+            WebSocketMessage<?> message = invocation.getArgument(0);
+            received.add(objectMapper.readTree((String) message.getPayload()));
+            return null;
+        }).when(session).sendMessage(Mockito.any());
+
+        handler.afterConnectionEstablished(session);
+        return session;
+    }
+
+    private void send(WebSocketSession session, String payload) throws IOException {
+        handler.handleTextMessage(session, new TextMessage(payload));
+    }
+}
@@ -0,0 +1,72 @@
+package com.miro.widget.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.miro.widget.dto.WidgetResponseDTO;
+import com.miro.widget.model.Widget;
+import com.miro.widget.repository.WidgetRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+public class ExportUtilTest {
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private WidgetRepository repository = new WidgetRepository();
+
+    @Test
+    void testJsonExportSpansChunks() throws IOException {
+        for (int i = 0; i < 1_200; i++) {
+            repository.addWidget(generateWidget(i % 2 == 0 ? i : null));
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ExportUtil.exportJson(repository, objectMapper.getFactory()).writeTo(output);
+        JsonNode widgets = objectMapper.readTree(output.toByteArray());
+
+        Assertions.assertEquals(1_200, widgets.size());
+        for (int i = 1; i < widgets.size(); i++) {
+            Assertions.assertTrue(widgets.get(i - 1).get("zindex").asInt() < widgets.get(i).get("zindex").asInt());
+        }
+        Assertions.assertTrue(widgets.get(0).get("height").isNull());
+    }
+
+    @Test
+    void testNdjsonExportWritesWidgetPerLine() throws IOException {
+        Widget widget = repository.addWidget(generateWidget(5));
+        repository.addWidget(generateWidget(7));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ExportUtil.exportNdjson(repository, objectMapper.getFactory()).writeTo(output);
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+
+        Assertions.assertEquals(2, lines.length);
+        Assertions.assertEquals(widget.getId().toString(), objectMapper.readTree(lines[0]).get("id").asText());
+    }
+
+    @Test
+    void testBinaryExportMatchesDtoEncoding() throws IOException {
+        repository.addWidget(generateWidget(1));
+        repository.addWidget(generateWidget(2));
+        ObjectMapper cborMapper = new CBORMapper();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ExportUtil.exportJson(repository, cborMapper.getFactory()).writeTo(output);
+        List<WidgetResponseDTO> dtos = repository.getAllWidgets().stream()
+                .map(WidgetResponseDTO::fromWidget)
+                .collect(Collectors.toList());
+
+        Assertions.assertEquals(cborMapper.readTree(cborMapper.writeValueAsBytes(dtos)), cborMapper.readTree(output.toByteArray()));
+    }
+
+    private static Widget generateWidget(Integer zIndex) {
+        return new Widget(UUID.randomUUID(), 1, 1, zIndex, null, 1, LocalDateTime.now());
+    }
+}